@@ -0,0 +1,199 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package swim.traffic.agent;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.traffic.model.IntersectionTensor;
+import swim.traffic.model.SignalPhaseModel;
+
+/**
+ * Offline harness for the scan ingestion path. Replays a pre-generated
+ * stream of {@code scan/state} records, at the rate and burst shape of a
+ * real controller, through the same per-record decoding, phase model, and
+ * tensor updates as {@link IntersectionAgent#didUpdateRemoteScan}, with
+ * lane puts replaced by counted array writes, so it runs without a plane.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanIngestBench {
+  static final int PHASE_COUNT = 8;
+  static final int DETECTOR_COUNT = 16;
+  static final int RECORD_COUNT = 4096;
+
+  // records per controller burst; a burst shares one micro-window
+  @Param({"1", "8", "32"})
+  int burstSize;
+
+  Record[] records;
+  int[][] laneStates;
+  SignalPhaseModel[] models;
+  long[] lastPhaseEvents;
+  IntersectionTensor tensor;
+  ScanBatch batch;
+  long lanePuts;
+
+  @Setup
+  public void setup() {
+    records = generateScan(new Random(0x5CA9L), RECORD_COUNT);
+    laneStates = new int[ScanBatch.KIND_COUNT][IntersectionTensor.MAX_ID];
+    models = new SignalPhaseModel[PHASE_COUNT + 1];
+    lastPhaseEvents = new long[PHASE_COUNT + 1];
+    tensor = new IntersectionTensor();
+    for (int p = 1; p <= PHASE_COUNT; p += 1) {
+      models[p] = new SignalPhaseModel(p);
+      tensor.signalPhase(p);
+    }
+    for (int d = 1; d <= DETECTOR_COUNT; d += 1) {
+      tensor.vehicleDetector(d);
+    }
+    batch = new ScanBatch();
+  }
+
+  static Record[] generateScan(Random random, int count) {
+    final Record[] records = new Record[count];
+    final int[] phaseStates = new int[PHASE_COUNT + 1];
+    long clk = 1000000L;
+    for (int i = 0; i < count; i += 1) {
+      clk += random.nextInt(250);
+      final Record record = Record.create(4).slot("clk", clk);
+      final int pick = random.nextInt(4);
+      if (pick == 0) {
+        // phases advance green -> yellow -> red -> green
+        final int p = 1 + random.nextInt(PHASE_COUNT);
+        final int st = phaseStates[p] == 3 ? 2 : phaseStates[p] == 2 ? 1 : 3;
+        phaseStates[p] = st;
+        record.slot("p", p).slot("st", st);
+      } else if (pick == 1 || pick == 2) {
+        record.slot("d", 1 + random.nextInt(DETECTOR_COUNT)).slot("st", random.nextInt(2));
+      } else {
+        record.slot("pc", 1 + random.nextInt(4)).slot("st", random.nextInt(2));
+      }
+      record.slot("coord", "SYNC");
+      records[i] = record;
+    }
+    return records;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORD_COUNT)
+  public void perRecord(Blackhole blackhole) {
+    for (int i = 0; i < RECORD_COUNT; i += 1) {
+      final Record state = records[i];
+      final long clk = state.get("clk").longValue(0L);
+      final Value st = state.get("st");
+      final Value p = state.get("p");
+      if (p.isDefined()) {
+        dispatch(ScanBatch.SIGNAL_PHASE, p.intValue(), st.intValue(), clk);
+      }
+      final Value d = state.get("d");
+      if (d.isDefined()) {
+        dispatch(ScanBatch.VEHICLE_DETECTOR, d.intValue(), st.intValue(), clk);
+      }
+      final Value pp = state.get("pp");
+      if (pp.isDefined()) {
+        dispatch(ScanBatch.PED_PHASE, pp.intValue(), st.intValue(), clk);
+      }
+      final Value pc = state.get("pc");
+      if (pc.isDefined()) {
+        dispatch(ScanBatch.PED_CALL, pc.intValue(), st.intValue(), clk);
+      }
+      blackhole.consume(state.get("coord").stringValue(""));
+    }
+    blackhole.consume(lanePuts);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORD_COUNT)
+  public void batched(Blackhole blackhole) {
+    for (int i = 0; i < RECORD_COUNT; i += 1) {
+      final Record state = records[i];
+      final long clk = state.get("clk").longValue(0L);
+      final int st = state.get("st").intValue(0);
+      for (Item item : state) {
+        final String key = item.key().stringValue(null);
+        if ("p".equals(key)) {
+          batch.put(ScanBatch.SIGNAL_PHASE, item.toValue().intValue(), st, clk);
+        } else if ("d".equals(key)) {
+          batch.put(ScanBatch.VEHICLE_DETECTOR, item.toValue().intValue(), st, clk);
+        } else if ("pp".equals(key)) {
+          batch.put(ScanBatch.PED_PHASE, item.toValue().intValue(), st, clk);
+        } else if ("pc".equals(key)) {
+          batch.put(ScanBatch.PED_CALL, item.toValue().intValue(), st, clk);
+        } else if ("coord".equals(key)) {
+          batch.coord = item.toValue().stringValue("");
+        }
+      }
+      if ((i + 1) % burstSize == 0) {
+        flush();
+      }
+    }
+    flush();
+    blackhole.consume(lanePuts);
+  }
+
+  void flush() {
+    for (int kind = 0; kind < ScanBatch.KIND_COUNT; kind += 1) {
+      for (int i = 0, n = batch.dirtyCount(kind); i < n; i += 1) {
+        final int id = batch.dirtyId(kind, i);
+        dispatch(kind, id, batch.state(kind, id), batch.clock(kind, id));
+      }
+    }
+    batch.clear();
+  }
+
+  void dispatch(int kind, int id, int st, long clk) {
+    final int oldState = laneStates[kind][id];
+    laneStates[kind][id] = st;
+    lanePuts += 1L;
+    if (kind == ScanBatch.SIGNAL_PHASE) {
+      final long t0 = lastPhaseEvents[id];
+      lastPhaseEvents[id] = clk;
+      if (t0 != 0L && oldState != 0) {
+        final double dw = (double) (clk - t0) / (double) IntersectionAgent.SAMPLE_WINDOW;
+        final int slot = tensor.signalPhase(id);
+        if (oldState == 1) {
+          tensor.setRed(slot, Math.min(tensor.red(slot) + dw, 1.0));
+        } else if (oldState == 2) {
+          tensor.setYellow(slot, Math.min(tensor.yellow(slot) + dw, 1.0));
+        } else if (oldState == 3) {
+          tensor.setGreen(slot, Math.min(tensor.green(slot) + dw, 1.0));
+        }
+      }
+      models[id].updateState(st, clk);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package swim.traffic.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.math.TensorDims;
+import swim.math.TensorForm;
+import swim.structure.Item;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntersectionTensorBench {
+  @Param({"4", "8", "16"})
+  int phaseCount;
+
+  @Param({"8", "32"})
+  int detectorCount;
+
+  IntersectionTensor tensor;
+  TensorForm<IntersectionTensor> layoutForm;
+  TensorDims dims;
+  Item molded;
+  double[] array;
+
+  @Setup
+  public void setup() {
+    tensor = TrafficFixtures.intersectionTensor(phaseCount, detectorCount);
+    molded = IntersectionTensor.form().mold(tensor);
+    array = new double[tensor.tensorSize()];
+    tensor.toTensor(array, 0);
+    layoutForm = tensor.layoutForm();
+    dims = TensorDims.d1(tensor.tensorSize());
+  }
+
+  @Benchmark
+  public Item mold() {
+    return IntersectionTensor.form().mold(tensor);
+  }
+
+  @Benchmark
+  public IntersectionTensor cast() {
+    return IntersectionTensor.form().cast(molded);
+  }
+
+  @Benchmark
+  public double[] toTensor() {
+    tensor.toTensor(array, 0);
+    return array;
+  }
+
+  @Benchmark
+  public IntersectionTensor fromTensor() {
+    tensor.fromTensor(array, 0);
+    return tensor;
+  }
+
+  @Benchmark
+  public IntersectionTensor formFromTensor() {
+    return layoutForm.fromTensor(dims, array, 0);
+  }
+
+  @Benchmark
+  public IntersectionTensor cloneTensor() {
+    return tensor.clone();
+  }
+}
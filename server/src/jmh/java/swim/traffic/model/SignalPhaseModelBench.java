@@ -0,0 +1,82 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package swim.traffic.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignalPhaseModelBench {
+  // one coordinated 60 second cycle: green 25s, yellow 5s, red 30s
+  static final long CYCLE = 60000L;
+  static final long[] OFFSETS = {0L, 25000L, 30000L};
+  static final int[] STATES = {3, 2, 1};
+
+  SignalPhaseModel model;
+  IntersectionTensor tensor;
+  long time;
+
+  @Setup
+  public void setup() {
+    model = new SignalPhaseModel(1);
+    tensor = new IntersectionTensor(new int[] {1}, new int[0]);
+    time = 1000000L;
+    for (int i = 0; i < 20; i += 1) {
+      cycle();
+    }
+  }
+
+  boolean cycle() {
+    boolean changed = false;
+    for (int i = 0; i < STATES.length; i += 1) {
+      changed |= model.updateState(STATES[i], time + OFFSETS[i]);
+    }
+    time += CYCLE;
+    return changed;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(3)
+  public boolean updateState() {
+    return cycle();
+  }
+
+  @Benchmark
+  public boolean updateStateUnchanged() {
+    return model.updateState(1, time);
+  }
+
+  @Benchmark
+  public IntersectionTensor predictTensor() {
+    model.predictTensor(time, 1000L, tensor, 0);
+    return tensor;
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package swim.traffic.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.math.TensorDims;
+import swim.math.TensorForm;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TensorFormBench {
+  // distance between consecutive fields of one tensor; a stride of 1 is a
+  // packed row, larger strides lay samples out column-major
+  @Param({"1", "240"})
+  int stride;
+
+  TensorDims dims;
+  SignalPhaseTensor signalTensor;
+  VehicleDetectorTensor vehicleTensor;
+  IntersectionTensor intersectionTensor;
+  float[] floats;
+  double[] doubles;
+
+  @Setup
+  public void setup() {
+    dims = TensorDims.d2(SignalPhaseTensor.TENSOR_SIZE, stride);
+    intersectionTensor = TrafficFixtures.intersectionTensor(8, 16);
+    signalTensor = intersectionTensor.signalPhaseTensor(0);
+    vehicleTensor = intersectionTensor.vehicleDetectorTensor(0);
+    final int length = intersectionTensor.tensorSize() * stride;
+    floats = new float[length];
+    doubles = new double[length];
+  }
+
+  @Benchmark
+  public float[] signalPhaseToFloatTensor() {
+    SignalPhaseTensor.form().toTensor(signalTensor, dims, floats, 0);
+    return floats;
+  }
+
+  @Benchmark
+  public double[] signalPhaseToDoubleTensor() {
+    SignalPhaseTensor.form().toTensor(signalTensor, dims, doubles, 0);
+    return doubles;
+  }
+
+  @Benchmark
+  public float[] vehicleDetectorToFloatTensor() {
+    VehicleDetectorTensor.form().toTensor(vehicleTensor, dims, floats, 0);
+    return floats;
+  }
+
+  @Benchmark
+  public double[] vehicleDetectorToDoubleTensor() {
+    VehicleDetectorTensor.form().toTensor(vehicleTensor, dims, doubles, 0);
+    return doubles;
+  }
+
+  @Benchmark
+  public float[] intersectionToFloatTensor() {
+    final TensorForm<IntersectionTensor> form = IntersectionTensor.form();
+    form.toTensor(intersectionTensor, dims, floats, 0);
+    return floats;
+  }
+
+  @Benchmark
+  public double[] intersectionToDoubleTensor() {
+    final TensorForm<IntersectionTensor> form = IntersectionTensor.form();
+    form.toTensor(intersectionTensor, dims, doubles, 0);
+    return doubles;
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package swim.traffic.model;
+
+import java.util.Random;
+
+final class TrafficFixtures {
+  private TrafficFixtures() {
+    // static
+  }
+
+  static final long SEED = 0x5EED5EEDL;
+
+  static IntersectionTensor intersectionTensor(int phaseCount, int detectorCount) {
+    final Random random = new Random(SEED);
+    final IntersectionTensor tensor = new IntersectionTensor();
+    for (int phaseId = 1; phaseId <= phaseCount; phaseId += 1) {
+      final int slot = tensor.signalPhase(phaseId);
+      final double red = random.nextDouble();
+      final double yellow = random.nextDouble() * (1.0 - red);
+      tensor.setRed(slot, red);
+      tensor.setYellow(slot, yellow);
+      tensor.setGreen(slot, 1.0 - red - yellow);
+    }
+    for (int detectorId = 1; detectorId <= detectorCount; detectorId += 1) {
+      final int slot = tensor.vehicleDetector(detectorId);
+      tensor.setOccupancy(slot, random.nextDouble());
+      tensor.setCount(slot, random.nextInt(10));
+    }
+    return tensor;
+  }
+}
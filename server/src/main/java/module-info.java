@@ -15,6 +15,7 @@
 open module swim.traffic {
   requires transitive swim.api;
   requires swim.server;
+  requires jdk.httpserver;
 
   exports swim.traffic;
 
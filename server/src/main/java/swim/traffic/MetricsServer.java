@@ -0,0 +1,65 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import swim.traffic.model.LatencyStats;
+import swim.traffic.model.PredictionAccuracy;
+
+/**
+ * Serves the node's metrics at {@code /metrics} in the Prometheus text
+ * format, for scraping alongside the lanes that publish the same figures.
+ */
+final class MetricsServer {
+  final HttpServer server;
+
+  MetricsServer(int port) throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.createContext("/metrics", this::handle);
+  }
+
+  void start() {
+    this.server.start();
+  }
+
+  void stop() {
+    this.server.stop(0);
+  }
+
+  void handle(HttpExchange exchange) throws IOException {
+    try {
+      final byte[] body = render().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  static String render() {
+    final StringBuilder out = new StringBuilder();
+    PredictionAccuracy.total().writeMetrics(out);
+    LatencyStats.total().writeMetrics(out, System.currentTimeMillis(), 60L * 1000L, 10L * 60L * 1000L);
+    return out.toString();
+  }
+}
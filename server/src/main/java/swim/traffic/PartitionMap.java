@@ -0,0 +1,192 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import swim.uri.Uri;
+
+/**
+ * Assignment of the fabric's node hash space to hosts. The 32-bit hash
+ * space is split into a fixed number of equal virtual parts, and each part
+ * is ranked across the hosts by rendezvous hashing: its primary is the host
+ * with the highest weight for that part, and its replicas the next highest.
+ * Since a host's weight for a part doesn't depend on the other hosts,
+ * adding a host to an {@code n} host fabric moves only the parts it now
+ * outranks, about {@code 1/(n+1)} of them, and removing a host moves only
+ * its own parts.
+ *
+ * <p>Run as a program to print the {@code @mesh} block of one host's
+ * config: {@code PartitionMap <local host> <host>...}, with the part and
+ * replica counts taken from {@code mesh.parts} and {@code mesh.replicas}.
+ * Every host must list the same hosts and part count.
+ */
+public final class PartitionMap {
+  final int partCount;
+  final String[] hosts;
+  final int replicaCount;
+
+  public PartitionMap(int partCount, String[] hosts, int replicaCount) {
+    if (partCount <= 0) {
+      throw new IllegalArgumentException("partCount: " + partCount);
+    }
+    if (hosts.length == 0) {
+      throw new IllegalArgumentException("no hosts");
+    }
+    this.partCount = partCount;
+    this.hosts = hosts.clone();
+    this.replicaCount = Math.max(0, Math.min(replicaCount, hosts.length - 1));
+  }
+
+  public int partCount() {
+    return this.partCount;
+  }
+
+  /**
+   * Returns the part whose hash range contains {@code hash}, taken as an
+   * unsigned 32-bit value.
+   */
+  public int part(int hash) {
+    return (int) (((hash & 0xFFFFFFFFL) * this.partCount) >>> 32);
+  }
+
+  public int part(Uri nodeUri) {
+    // the same node hash matched by the mesh's @hash predicates
+    return part(nodeUri.hashCode());
+  }
+
+  /**
+   * Returns the least hash, as an unsigned 32-bit value, in {@code part};
+   * parts beyond the last one start past the hash space.
+   */
+  public long lowerBound(int part) {
+    return ((long) part << 32) / this.partCount + (((long) part << 32) % this.partCount != 0L ? 1L : 0L);
+  }
+
+  public long upperBound(int part) {
+    return lowerBound(part + 1) - 1L;
+  }
+
+  /**
+   * Returns the hosts of {@code part} in rank order: its primary, then its
+   * replicas.
+   */
+  public List<String> hosts(int part) {
+    final String[] ranked = this.hosts.clone();
+    final long[] weights = new long[ranked.length];
+    for (int i = 0; i < ranked.length; i += 1) {
+      weights[i] = weight(ranked[i], part);
+    }
+    // insertion sort by descending weight; host lists are short
+    for (int i = 1; i < ranked.length; i += 1) {
+      final String host = ranked[i];
+      final long weight = weights[i];
+      int j = i - 1;
+      while (j >= 0 && (weights[j] < weight || weights[j] == weight && ranked[j].compareTo(host) > 0)) {
+        ranked[j + 1] = ranked[j];
+        weights[j + 1] = weights[j];
+        j -= 1;
+      }
+      ranked[j + 1] = host;
+      weights[j + 1] = weight;
+    }
+    return Arrays.asList(ranked).subList(0, 1 + this.replicaCount);
+  }
+
+  public String primary(int part) {
+    return hosts(part).get(0);
+  }
+
+  public String primary(Uri nodeUri) {
+    return primary(part(nodeUri));
+  }
+
+  /**
+   * Returns the {@code @mesh} block of the config of {@code localHost},
+   * whose own host entries carry no URI.
+   */
+  public String toRecon(String localHost) {
+    final StringBuilder recon = new StringBuilder();
+    recon.append("  @mesh {\n");
+    for (int part = 0; part < this.partCount; part += 1) {
+      recon.append("    @part {\n")
+          .append("      key: part").append(part).append('\n')
+          .append("      predicate: @hash(").append(hex(lowerBound(part))).append(", ")
+          .append(hex(upperBound(part))).append(")\n");
+      final List<String> hosts = hosts(part);
+      for (int i = 0; i < hosts.size(); i += 1) {
+        final String host = hosts.get(i);
+        recon.append("      @host {\n")
+            .append(host.equals(localHost) ? "        #uri: \"" : "        uri: \"").append(host).append("\"\n")
+            .append("        primary: ").append(i == 0).append('\n')
+            .append("      }\n");
+      }
+      recon.append("    }\n");
+    }
+    recon.append("  }\n");
+    return recon.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "new" + ' ' + "PartitionMap" + '(' + this.partCount + ", "
+        + Arrays.toString(this.hosts) + ", " + this.replicaCount + ')';
+  }
+
+  static long weight(String host, int part) {
+    long z = (long) host.hashCode() << 32 ^ part;
+    // splitmix64 finalizer
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static String hex(long value) {
+    final String digits = Long.toHexString(value);
+    return "0x" + "00000000".substring(digits.length()) + digits;
+  }
+
+  // must match the part count of the @mesh blocks in every host's config
+  static final int PART_COUNT = Integer.getInteger("mesh.parts", 16);
+  static final int REPLICA_COUNT = Integer.getInteger("mesh.replicas", 0);
+
+  /**
+   * Returns the partition map of this fabric, as configured by the
+   * {@code mesh.hosts} list, or {@code null} if no hosts are configured.
+   */
+  static PartitionMap fromProperties() {
+    final String hostList = System.getProperty("mesh.hosts");
+    if (hostList == null) {
+      return null;
+    }
+    final List<String> hosts = new ArrayList<>();
+    for (String host : hostList.split(",")) {
+      if (!host.trim().isEmpty()) {
+        hosts.add(host.trim());
+      }
+    }
+    return hosts.isEmpty() ? null : new PartitionMap(PART_COUNT, hosts.toArray(new String[0]), REPLICA_COUNT);
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("usage: PartitionMap <local host> <host>...");
+      System.exit(1);
+    }
+    final PartitionMap map = new PartitionMap(PART_COUNT, Arrays.copyOfRange(args, 1, args.length), REPLICA_COUNT);
+    System.out.print(map.toRecon(args[0]));
+  }
+}
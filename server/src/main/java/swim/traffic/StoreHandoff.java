@@ -0,0 +1,182 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import swim.api.downlink.ValueDownlink;
+import swim.api.space.Space;
+import swim.structure.Data;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Hands off the stored state of intersections that a new partition map has
+ * moved away from this host. At startup, every intersection log directory
+ * under the store directory whose node the map assigns to another host is
+ * streamed, in chunks of at most {@code handoff.chunk.size} bytes, to that
+ * node's {@code handoff} lane, which the mesh routes to the node's new
+ * owner, followed by a commit of the size of each log. The new owner
+ * adopts the logs only once every chunk has arrived in order, and then
+ * publishes the id of the handoff on its {@code handoff/ack} lane. Only
+ * when that ack arrives is a directory moved under {@code .handoff}, where
+ * it stays on disk as a fallback; a directory whose handoff is lost, or not
+ * acked before shutdown, stays in place and is sent again on the next start.
+ */
+final class StoreHandoff {
+  final Space space;
+  final Path storeDir;
+  final PartitionMap map;
+  final String localHost;
+
+  StoreHandoff(Space space, Path storeDir, PartitionMap map, String localHost) {
+    this.space = space;
+    this.storeDir = storeDir;
+    this.map = map;
+    this.localHost = localHost;
+  }
+
+  /**
+   * Sends the logs of every stored intersection now owned by another host,
+   * and returns the number of intersections sent; each is moved aside once
+   * its new owner acks it.
+   */
+  int run() throws IOException {
+    if (!Files.isDirectory(this.storeDir)) {
+      return 0;
+    }
+    final List<Path> dirs = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(this.storeDir)) {
+      paths.filter(path -> path.getFileName().toString().equals("history.log"))
+          .map(Path::getParent)
+          .filter(dir -> !this.storeDir.relativize(dir).startsWith(HANDOFF_DIR))
+          .forEach(dirs::add);
+    }
+    int count = 0;
+    for (Path dir : dirs) {
+      final Uri nodeUri = nodeUri(dir);
+      final String owner = this.map.primary(nodeUri);
+      if (!owner.equals(this.localHost)) {
+        handOff(nodeUri, dir);
+        count += 1;
+      }
+    }
+    return count;
+  }
+
+  void handOff(Uri nodeUri, Path dir) throws IOException {
+    final Path[] logs;
+    try (Stream<Path> paths = Files.list(dir)) {
+      logs = paths.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toArray(Path[]::new);
+    }
+    final String id = handoffId(logs);
+    // watch for the ack first; the lane syncs an ack of an earlier attempt
+    final Pending pending = new Pending(dir, id);
+    pending.watch(this.space.downlinkValue()
+        .nodeUri(nodeUri)
+        .laneUri(HANDOFF_ACK_LANE)
+        .didSet(pending::didSetAck)
+        .open());
+    final Record sizes = Record.create(logs.length);
+    final byte[] buffer = new byte[CHUNK_SIZE];
+    for (Path path : logs) {
+      final String name = path.getFileName().toString();
+      long offset = 0L;
+      try (InputStream input = Files.newInputStream(path)) {
+        int size;
+        while ((size = input.readNBytes(buffer, 0, buffer.length)) > 0) {
+          this.space.command(nodeUri, HANDOFF_LANE, Record.create(4)
+              .slot("id", id)
+              .slot("log", name)
+              .slot("offset", offset)
+              .slot("data", Data.wrap(Arrays.copyOf(buffer, size))));
+          offset += size;
+        }
+      }
+      sizes.slot(name, offset);
+    }
+    this.space.command(nodeUri, HANDOFF_LANE, Record.create(2).slot("id", id).slot("commit", sizes));
+  }
+
+  // identifies one version of a directory's logs, so that its new owner
+  // can tell a resend of an adopted handoff from a later one
+  String handoffId(Path[] logs) throws IOException {
+    long modified = 0L;
+    long size = 0L;
+    for (Path path : logs) {
+      modified = Math.max(modified, Files.getLastModifiedTime(path).toMillis());
+      size += Files.size(path);
+    }
+    return this.localHost + ' ' + modified + ' ' + size;
+  }
+
+  Uri nodeUri(Path dir) {
+    final StringBuilder path = new StringBuilder();
+    for (Path name : this.storeDir.relativize(dir)) {
+      path.append('/').append(name);
+    }
+    return Uri.parse(path.toString());
+  }
+
+  // a sent directory awaiting the ack of its new owner
+  final class Pending {
+    final Path dir;
+    final String id;
+    ValueDownlink<Value> ack;
+    boolean acked;
+
+    Pending(Path dir, String id) {
+      this.dir = dir;
+      this.id = id;
+    }
+
+    synchronized void watch(ValueDownlink<Value> ack) {
+      this.ack = ack;
+      if (this.acked) {
+        ack.close();
+      }
+    }
+
+    synchronized void didSetAck(Value newValue, Value oldValue) {
+      if (this.acked || !this.id.equals(newValue.stringValue(null))) {
+        return;
+      }
+      this.acked = true;
+      final Path target = storeDir.resolve(HANDOFF_DIR).resolve(storeDir.relativize(this.dir));
+      try {
+        Files.createDirectories(target.getParent());
+        Files.move(this.dir, target);
+      } catch (IOException cause) {
+        System.err.println("failed to set aside handed off " + this.dir + ": " + cause);
+      }
+      if (this.ack != null) {
+        this.ack.close();
+      }
+    }
+  }
+
+  static final String HANDOFF_DIR = ".handoff";
+  static final Uri HANDOFF_LANE = Uri.parse("handoff");
+  static final Uri HANDOFF_ACK_LANE = Uri.parse("handoff/ack");
+  // largest log chunk sent per command
+  static final int CHUNK_SIZE = Integer.getInteger("handoff.chunk.size", 64 * 1024);
+}
@@ -0,0 +1,240 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import swim.api.space.Space;
+import swim.recon.Recon;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.traffic.model.IntersectionSchematic;
+import swim.traffic.sim.TrafficSimulator;
+import swim.uri.Uri;
+
+/**
+ * Streams the intersection info and schematic resources into the space at
+ * startup. Lines are read in chunks, and chunks are parsed in parallel on a
+ * small worker pool; the resulting commands are issued in file order from
+ * the loading thread, with the infos of each chunk sent to the city node as
+ * a single batch. Each intersection then receives its info and schematic
+ * together, in a single command, once its schematic is read; infos are held
+ * until then, and intersections without a schematic get their info alone
+ * at the end. At most a bounded number of chunks are in flight, so apart
+ * from the held infos, memory stays flat regardless of file size.
+ * Schematics are also compiled by the workers, and handed to the
+ * simulator, if any, for the intersections this host owns in the partition
+ * map, if any; every intersection is simulated on exactly one host.
+ *
+ * <p>Commands can only be routed once the kernel has started, so the plane
+ * is already serving while the loader runs. Clients see intersections
+ * appear as their commands land, as they would when linked to a live
+ * source.
+ */
+final class TrafficLoader {
+  final Space space;
+  final Uri cityNode;
+  final TrafficSimulator simulator;
+  final PartitionMap partitionMap;
+  final String localHost;
+  final ExecutorService executor;
+  final int chunkSize;
+  final int maxPending;
+  final ArrayDeque<Future<LoadChunk>> pending;
+  final LinkedHashMap<Uri, Value> infos; // infos still awaiting their schematics
+  int infoCount;
+  int schematicCount;
+  long commandCount;
+
+  TrafficLoader(Space space, Uri cityNode, TrafficSimulator simulator, PartitionMap partitionMap,
+                String localHost, int threadCount, int chunkSize) {
+    this.space = space;
+    this.cityNode = cityNode;
+    this.simulator = simulator;
+    this.partitionMap = partitionMap;
+    this.localHost = localHost;
+    this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+      final Thread thread = new Thread(runnable, "traffic-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.chunkSize = chunkSize;
+    this.maxPending = 2 * threadCount;
+    this.pending = new ArrayDeque<>();
+    this.infos = new LinkedHashMap<>();
+  }
+
+  void load(String infoResource, String schematicResource) {
+    final long t0 = System.nanoTime();
+    try {
+      // infos are queued ahead of schematics, so every intersection
+      // receives its info before its schematic
+      readResource(infoResource, LoadChunk.INFO);
+      readResource(schematicResource, LoadChunk.SCHEMATIC);
+      while (!this.pending.isEmpty()) {
+        issue(this.pending.removeFirst());
+      }
+      for (Map.Entry<Uri, Value> entry : this.infos.entrySet()) {
+        this.space.command(entry.getKey(), LOAD_LANE, Record.create(1).slot("info", entry.getValue()));
+      }
+      this.commandCount += this.infos.size();
+      this.infos.clear();
+    } finally {
+      this.executor.shutdownNow();
+    }
+    final long dt = Math.max(System.nanoTime() - t0, 1L);
+    final long ms = dt / 1000000L;
+    final long rate = (this.infoCount + this.schematicCount) * 1000000000L / dt;
+    System.out.println("Loaded " + this.infoCount + " intersection infos and " + this.schematicCount
+        + " schematics (" + this.commandCount + " commands) in " + ms + " ms, " + rate + " records/s");
+  }
+
+  void readResource(String resource, int kind) {
+    try (InputStream is = TrafficLoader.class.getClassLoader().getResourceAsStream(resource)) {
+      final BufferedReader br = new BufferedReader(new InputStreamReader(Objects.requireNonNull(is, resource),
+                                                                         StandardCharsets.UTF_8));
+      List<String> lines = new ArrayList<>(this.chunkSize);
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (!line.isEmpty()) {
+          lines.add(line);
+          if (lines.size() == this.chunkSize) {
+            submit(kind, lines);
+            lines = new ArrayList<>(this.chunkSize);
+          }
+        }
+      }
+      if (!lines.isEmpty()) {
+        submit(kind, lines);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void submit(int kind, List<String> lines) {
+    while (this.pending.size() >= this.maxPending) {
+      issue(this.pending.removeFirst());
+    }
+    this.pending.addLast(this.executor.submit(() -> LoadChunk.parse(kind, lines, this.simulator != null)));
+  }
+
+  void issue(Future<LoadChunk> future) {
+    final LoadChunk chunk;
+    try {
+      chunk = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    if (chunk.kind == LoadChunk.INFO) {
+      for (int i = 0; i < chunk.size; i += 1) {
+        this.infos.put(chunk.nodeUris[i], chunk.values[i]);
+      }
+      this.space.command(this.cityNode, INFOS_LANE, chunk.batch);
+      this.commandCount += 1;
+      this.infoCount += chunk.size;
+    } else {
+      for (int i = 0; i < chunk.size; i += 1) {
+        final Value info = this.infos.remove(chunk.nodeUris[i]);
+        final Record intersection = Record.create(2);
+        if (info != null) {
+          intersection.slot("info", info);
+        }
+        intersection.slot("schematic", chunk.values[i]);
+        this.space.command(chunk.nodeUris[i], LOAD_LANE, intersection);
+      }
+      this.commandCount += chunk.size;
+      this.schematicCount += chunk.size;
+      if (chunk.schematics != null) {
+        for (int i = 0; i < chunk.size; i += 1) {
+          if (isLocal(chunk.nodeUris[i])) {
+            this.simulator.addIntersection(chunk.nodeUris[i], chunk.schematics[i]);
+          }
+        }
+      }
+    }
+  }
+
+  boolean isLocal(Uri nodeUri) {
+    return this.partitionMap == null || this.partitionMap.primary(nodeUri).equals(this.localHost);
+  }
+
+  static final Uri INFOS_LANE = Uri.parse("addInfos");
+  static final Uri LOAD_LANE = Uri.parse("load");
+}
+
+final class LoadChunk {
+  final int kind;
+  final int size;
+  final Uri[] nodeUris;
+  final Value[] values;
+  final Record batch; // all infos of the chunk, for the city node
+  final IntersectionSchematic[] schematics;
+
+  LoadChunk(int kind, int size, Uri[] nodeUris, Value[] values, Record batch,
+            IntersectionSchematic[] schematics) {
+    this.kind = kind;
+    this.size = size;
+    this.nodeUris = nodeUris;
+    this.values = values;
+    this.batch = batch;
+    this.schematics = schematics;
+  }
+
+  static LoadChunk parse(int kind, List<String> lines, boolean compile) {
+    final int size = lines.size();
+    final Uri[] nodeUris = new Uri[size];
+    final Value[] values = new Value[size];
+    final Record batch = kind == INFO ? Record.create(size) : null;
+    final IntersectionSchematic[] schematics = kind == SCHEMATIC && compile
+                                             ? new IntersectionSchematic[size] : null;
+    for (int i = 0; i < size; i += 1) {
+      final String line = lines.get(i);
+      if (kind == INFO) {
+        final Value intersection = Recon.parse(line);
+        nodeUris[i] = Uri.parse(intersection.get("key").stringValue());
+        values[i] = intersection;
+        batch.item(intersection);
+      } else {
+        final int index = line.indexOf(':');
+        nodeUris[i] = Uri.parse(line.substring(0, index));
+        values[i] = Recon.parse(line.substring(index + 1));
+        if (schematics != null) {
+          schematics[i] = IntersectionSchematic.compile(values[i]);
+        }
+      }
+    }
+    return new LoadChunk(kind, size, nodeUris, values, batch, schematics);
+  }
+
+  static final int INFO = 0;
+  static final int SCHEMATIC = 1;
+}
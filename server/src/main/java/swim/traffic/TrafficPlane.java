@@ -14,24 +14,41 @@
 
 package swim.traffic;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Objects;
+import java.nio.file.Paths;
 import swim.api.plane.AbstractPlane;
 import swim.api.space.Space;
 import swim.kernel.Kernel;
-import swim.recon.Recon;
 import swim.server.ServerLoader;
 import swim.structure.Value;
+import swim.traffic.replay.ScanReplayer;
+import swim.traffic.sim.TrafficSimulator;
 import swim.uri.Uri;
 
 public class TrafficPlane extends AbstractPlane {
   private static final boolean SIM_MODE = System.getProperty("sim.mode", "true").equals("true");
   private static final Uri CITY_NODE  = Uri.parse("/city/PaloAlto_CA_US");
-  private static final Uri INFO_LANE  = Uri.parse("addInfo");
-  private static final Uri SCHEMATIC_LANE  = Uri.parse("addSchematic");
+  private static final int LOADER_THREADS = Integer.getInteger("loader.threads",
+      Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+  private static final int LOADER_CHUNK_SIZE = Integer.getInteger("loader.chunk.size", 512);
+  private static final long SIM_SEED = Long.getLong("sim.seed", 0L);
+  // simulated clock rate, relative to the wall clock; must be positive
+  private static final double SIM_SPEED = Double.parseDouble(System.getProperty("sim.speed", "1.0"));
+  private static final int SIM_THREADS = Integer.getInteger("sim.threads",
+      Runtime.getRuntime().availableProcessors());
+  // simulated start time; defaults to the wall clock, fix it for repeatable runs
+  private static final long SIM_START = Long.getLong("sim.start", 0L);
+  // directory of a scan capture to replay, offline, in place of the simulator
+  private static final String REPLAY_DIR = System.getProperty("replay.dir");
+  // replayed clock rate, relative to the wall clock; must be positive
+  private static final double REPLAY_SPEED = Double.parseDouble(System.getProperty("replay.speed", "1.0"));
+  // port of the Prometheus metrics endpoint; disabled by default
+  private static final int METRICS_PORT = Integer.getInteger("metrics.port", 0);
+  // the intersection store, and this host's uri in the mesh.hosts partition
+  // map; stored intersections the map assigns elsewhere are handed off, and
+  // only intersections the map assigns here are simulated
+  private static final String STORE_DIR = System.getProperty("store.dir");
+  private static final String MESH_HOST = System.getProperty("mesh.host");
 
   public static void main(String[] args) {
     final Kernel kernel = ServerLoader.loadServer();
@@ -40,44 +57,65 @@ public class TrafficPlane extends AbstractPlane {
     kernel.start();
     System.out.println("Running TrafficPlane ...");
 
-    space.command(CITY_NODE, Uri.parse("wake"), Value.absent());
-    kernel.run(); // blocks until termination
-    if (SIM_MODE) {
-      loadIntersectionInfos(space);
-      loadIntersectionSchematicss(space);
+    // the simulated or replayed clock starts now, ahead of any agent that samples by it
+    TrafficSimulator simulator = null;
+    ScanReplayer replayer = null;
+    if (REPLAY_DIR != null) {
+      try {
+        replayer = new ScanReplayer(space, Paths.get(REPLAY_DIR), REPLAY_SPEED);
+      } catch (IOException cause) {
+        System.err.println("failed to open scan capture: " + cause);
+      }
+    } else if (SIM_MODE) {
+      simulator = new TrafficSimulator(space, SIM_SEED, SIM_SPEED, SIM_THREADS,
+                                       SIM_START != 0L ? SIM_START : System.currentTimeMillis());
     }
-   }
 
-  private static void loadIntersectionInfos(Space space) {
-    try (InputStream is = TrafficPlane.class.getClassLoader().getResourceAsStream("intersection-info")) {
-      final BufferedReader br = new BufferedReader(new InputStreamReader(Objects.requireNonNull(is)));
-      String line;
-      while ((line = br.readLine()) != null) {
-        final Value intersection = Recon.parse(line);
-        final Uri intersectionUri = Uri.parse(intersection.get("key").stringValue());
-        space.command(intersectionUri, INFO_LANE, intersection);
-        space.command(CITY_NODE, INFO_LANE, intersection);
+    MetricsServer metrics = null;
+    if (METRICS_PORT != 0) {
+      try {
+        metrics = new MetricsServer(METRICS_PORT);
+        metrics.start();
+      } catch (IOException cause) {
+        System.err.println("failed to serve metrics: " + cause);
+      }
+    }
+
+    final PartitionMap partitionMap = MESH_HOST != null ? PartitionMap.fromProperties() : null;
+    if (STORE_DIR != null && partitionMap != null) {
+      try {
+        new StoreHandoff(space, Paths.get(STORE_DIR), partitionMap, MESH_HOST).run();
+      } catch (IOException cause) {
+        System.err.println("failed to hand off intersections: " + cause);
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
     }
-  }
 
-  private static void loadIntersectionSchematicss(Space space) {
-    try (InputStream is = TrafficPlane.class.getClassLoader().getResourceAsStream("intersection-schematics")) {
-      final BufferedReader br = new BufferedReader(new InputStreamReader(Objects.requireNonNull(is)));
-      String line;
-      while ((line = br.readLine()) != null) {
-        final int index = line.indexOf(":");
-        final String uri = line.substring(0, index);
-        final String schematic = line.substring(index + 1);
-        space.command(Uri.parse(uri), SCHEMATIC_LANE, Recon.parse(schematic));
+    space.command(CITY_NODE, Uri.parse("wake"), Value.absent());
+    // load before blocking in kernel.run(), which only returns at shutdown;
+    // agents can't be commanded before kernel.start(), so clients connected
+    // meanwhile see intersections appear as they load
+    if (REPLAY_DIR != null) {
+      new TrafficLoader(space, CITY_NODE, null, null, null, LOADER_THREADS, LOADER_CHUNK_SIZE)
+          .load("intersection-info", "intersection-schematics");
+      if (replayer != null) {
+        replayer.start();
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    } else if (simulator != null) {
+      // in a fabric, each host only simulates the intersections it owns
+      new TrafficLoader(space, CITY_NODE, simulator, partitionMap, MESH_HOST, LOADER_THREADS, LOADER_CHUNK_SIZE)
+          .load("intersection-info", "intersection-schematics");
+      simulator.start();
+    }
+    kernel.run(); // blocks until termination
+    if (simulator != null) {
+      simulator.stop();
+    }
+    if (replayer != null) {
+      replayer.stop();
+    }
+    if (metrics != null) {
+      metrics.stop();
     }
   }
 
 }
-
-
@@ -14,24 +14,108 @@
 
 package swim.traffic.agent;
 
+import java.util.HashMap;
 import swim.api.SwimLane;
 import swim.api.SwimResident;
 import swim.api.agent.AbstractAgent;
 import swim.api.downlink.MapDownlink;
 import swim.api.lane.CommandLane;
 import swim.api.lane.JoinValueLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Text;
 import swim.structure.Value;
+import swim.traffic.model.GeoTile;
+import swim.traffic.model.LatencyStats;
+import swim.traffic.model.PredictionAccuracy;
+import swim.traffic.model.TrafficKpi;
 import swim.uri.Uri;
 
 public class CityAgent extends AbstractAgent {
 
   private final boolean simMode = System.getProperty("sim.mode", "true").equals("true");
+  // intersections are loaded by the plane for a replay; never link upstream
+  static final boolean REPLAY_MODE = System.getProperty("replay.dir") != null;
 
   MapDownlink<Uri, Value> intersectionsLink;
+  TimerRef metricsTimer;
 
-  @SwimLane("intersections")
+  // Index of the map tiles that hold intersections, keyed by zoom/x/y,
+  // with each tile's bounds and intersection count. Each tile's
+  // intersections are joined by the tile agent at /city/:id/tile/:zoom/:x/:y,
+  // so map clients can sync just the tiles in their viewport, and the city
+  // itself joins no intersection lanes.
+  @SwimLane("tiles")
   @SwimResident
-  public JoinValueLane<Uri, Value> intersections;
+  public MapLane<String, Value> tiles;
+
+  final HashMap<Uri, GeoTile> intersectionTiles = new HashMap<>();
+  final HashMap<GeoTile, Integer> tileCounts = new HashMap<>();
+
+  // Joins the kpi and status lanes of every tile agent, rather than those
+  // of every intersection, so the city's fan-in scales with its tiles.
+  @SwimLane("tiles/kpi")
+  public JoinValueLane<Uri, TrafficKpi> tileKpis = this.<Uri, TrafficKpi>joinValueLane()
+      .valueForm(TrafficKpi.form())
+      .didUpdate(this::didUpdateTileKpi)
+      .didRemove(this::didRemoveTileKpi);
+
+  @SwimLane("tiles/status")
+  public JoinValueLane<Uri, Value> tileStatuses = this.<Uri, Value>joinValueLane()
+      .didUpdate(this::didUpdateTileStatus)
+      .didRemove(this::didRemoveTileStatus);
+
+  final TrafficRollup rollup = new TrafficRollup();
+
+  @SwimLane("kpi")
+  public ValueLane<TrafficKpi> kpi;
+
+  // number of intersections, and number in each info status
+  @SwimLane("status")
+  public ValueLane<Value> status;
+
+  void didUpdateTileKpi(Uri tileUri, TrafficKpi newKpi, TrafficKpi oldKpi) {
+    rollup.updateKpi(newKpi, oldKpi);
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveTileKpi(Uri tileUri, TrafficKpi oldKpi) {
+    didUpdateTileKpi(tileUri, null, oldKpi);
+  }
+
+  void didUpdateTileStatus(Uri tileUri, Value newStatus, Value oldStatus) {
+    rollup.updateStatuses(newStatus, oldStatus);
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveTileStatus(Uri tileUri, Value oldStatus) {
+    didUpdateTileStatus(tileUri, null, oldStatus);
+  }
+
+  // prediction accuracy of every intersection on this node, whichever city
+  // it belongs to, rather than of this city's intersections
+  @SwimLane("node/accuracy")
+  public ValueLane<Value> nodeAccuracy;
+
+  // latency percentiles of every intersection on this node, over the last
+  // 1 and 10 minutes
+  @SwimLane("node/latency")
+  public ValueLane<Value> nodeLatency;
+
+  void publishNodeMetrics() {
+    try {
+      final long t = System.currentTimeMillis();
+      nodeAccuracy.set(PredictionAccuracy.total().toValue());
+      nodeLatency.set(Record.create(2)
+          .slot("1m", LatencyStats.total().toValue(t, 60L * 1000L))
+          .slot("10m", LatencyStats.total().toValue(t, 10L * 60L * 1000L)));
+    } finally {
+      metricsTimer = setTimer(METRICS_PERIOD, this::publishNodeMetrics);
+    }
+  }
 
   public void linkIntersections() {
     if (intersectionsLink == null) {
@@ -54,12 +138,56 @@ public class CityAgent extends AbstractAgent {
 
   void didUpdateRemoteIntersection(Uri intersectionUri, Value newValue, Value oldValue) {
     //System.out.println(nodeUri() + " didUpdateRemoteIntersection: " + intersectionUri);
-    if (!intersections.containsKey(intersectionUri)) {
-      intersections.downlink(intersectionUri)
-          .nodeUri(intersectionUri)
-          .laneUri(INTERSECTION_INFO)
-          .open();
+    indexIntersection(intersectionUri, newValue);
+  }
+
+  // Assigns an intersection to the tile containing its lat/lng, moving it
+  // out of its previous tile if it has moved. Intersections without a
+  // location are still aggregated, by the world tile, which is left out of
+  // the tiles index since there is nothing to draw.
+  void indexIntersection(Uri intersectionUri, Value info) {
+    final double lat = info.get("lat").doubleValue(Double.NaN);
+    final double lng = info.get("lng").doubleValue(Double.NaN);
+    final GeoTile tile = !Double.isNaN(lat) && !Double.isNaN(lng)
+        ? GeoTile.containing(lat, lng, TILE_ZOOM) : UNPLACED_TILE;
+    final GeoTile oldTile = intersectionTiles.put(intersectionUri, tile);
+    if (tile.equals(oldTile)) {
+      return;
     }
+    final Text uri = Text.from(intersectionUri.toString());
+    if (oldTile != null) {
+      command(oldTile.nodeUri(nodeUri()), REMOVE_INTERSECTION, uri);
+      updateTileCount(oldTile, -1);
+    }
+    command(tile.nodeUri(nodeUri()), ADD_INTERSECTION, uri);
+    updateTileCount(tile, 1);
+  }
+
+  void updateTileCount(GeoTile tile, int delta) {
+    final int count = tileCounts.getOrDefault(tile, 0) + delta;
+    final Uri tileUri = tile.nodeUri(nodeUri());
+    if (count > 0) {
+      tileCounts.put(tile, count);
+      if (!tile.equals(UNPLACED_TILE)) {
+        tiles.put(tile.id(), tile.toValue().updated("count", count));
+      }
+      if (!tileKpis.containsKey(tileUri)) {
+        tileKpis.downlink(tileUri).nodeUri(tileUri).laneUri(TILE_KPI).open();
+        tileStatuses.downlink(tileUri).nodeUri(tileUri).laneUri(TILE_STATUS).open();
+      }
+    } else {
+      tileCounts.remove(tile);
+      tiles.remove(tile.id());
+      tileKpis.remove(tileUri);
+      tileStatuses.remove(tileUri);
+    }
+  }
+
+  // regions are named by what follows the city name in the city id, as
+  // CA_US for PaloAlto_CA_US
+  Uri regionUri() {
+    final String id = getProp("id").stringValue("");
+    return Uri.parse("/region/" + id.substring(id.indexOf('_') + 1));
   }
 
   @SwimLane("addInfo")
@@ -68,20 +196,43 @@ public class CityAgent extends AbstractAgent {
     didUpdateRemoteIntersection(uri, value, value);
   });
 
+  // batched addInfo, one command per loader chunk
+  @SwimLane("addInfos")
+  public CommandLane<Value> addInfos = this.<Value>commandLane().onCommand(value -> {
+    for (Item item : value) {
+      final Value info = item.toValue();
+      final Uri uri = Uri.parse(info.get("key").stringValue());
+      didUpdateRemoteIntersection(uri, info, info);
+    }
+  });
+
   public void didStart() {
     System.out.println(nodeUri() + " didStart");
-    if (!simMode) {
+    tiles.clear(); // rebuilt as intersections are indexed
+    command(regionUri(), ADD_CITY, Text.from(nodeUri().toString()));
+    if (!simMode && !REPLAY_MODE) {
       linkIntersections();
     }
+    metricsTimer = setTimer(METRICS_PERIOD, this::publishNodeMetrics);
   }
 
   public void willStop() {
-    if (!simMode) {
-      unlinkIntersections();
+    unlinkIntersections();
+    if (metricsTimer != null) {
+      metricsTimer.cancel();
+      metricsTimer = null;
     }
   }
 
   static final Uri TRAFFIC_HOST = Uri.parse("warps://trafficware.swim.services?key=ab21cfe05ba-7d43-69b2-0aef-94d9d54b6f65");
-  static final Uri INTERSECTION_INFO = Uri.parse("intersection/info");
+  static final Uri TILE_KPI = Uri.parse("kpi");
+  static final Uri TILE_STATUS = Uri.parse("status");
+  static final Uri ADD_CITY = Uri.parse("addCity");
+  static final long METRICS_PERIOD = 10L * 1000L;
+  static final Uri ADD_INTERSECTION = Uri.parse("addIntersection");
+  static final Uri REMOVE_INTERSECTION = Uri.parse("removeIntersection");
+  // zoom 14 tiles are about 2 km across at mid latitudes
+  static final int TILE_ZOOM = Integer.getInteger("tile.zoom", 14);
+  static final GeoTile UNPLACED_TILE = new GeoTile(0, 0, 0);
 
 }
@@ -14,55 +14,138 @@
 
 package swim.traffic.agent;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import swim.api.SwimLane;
 import swim.api.SwimResident;
 import swim.api.agent.AbstractAgent;
 import swim.api.downlink.EventDownlink;
 import swim.api.lane.CommandLane;
+import swim.api.lane.DemandMapLane;
 import swim.api.lane.MapLane;
 import swim.api.lane.ValueLane;
+import swim.api.warp.WarpUplink;
 import swim.collections.HashTrieMap;
 import swim.collections.HashTrieSet;
 import swim.concurrent.TimerRef;
 import swim.recon.Recon;
+import swim.structure.Data;
+import swim.structure.Form;
 import swim.structure.Item;
 import swim.structure.Record;
+import swim.structure.Text;
 import swim.structure.Value;
+import swim.traffic.model.HistoryRollup;
+import swim.traffic.model.IntersectionHistory;
+import swim.traffic.model.IntersectionSample;
+import swim.traffic.model.IntersectionSchematic;
+import swim.traffic.model.IntersectionStore;
 import swim.traffic.model.IntersectionTensor;
+import swim.traffic.model.IntersectionTensorCodec;
+import swim.traffic.model.LatencyStats;
+import swim.traffic.model.PredictionAccuracy;
 import swim.traffic.model.SignalPhaseEvent;
 import swim.traffic.model.SignalPhaseModel;
-import swim.traffic.model.SignalPhaseTensor;
+import swim.traffic.model.StateHistogram;
+import swim.traffic.model.TrafficKpi;
 import swim.traffic.model.VehicleDetectorEvent;
-import swim.traffic.model.VehicleDetectorTensor;
+import swim.traffic.replay.ScanRecorder;
+import swim.traffic.sim.TrafficSimulator;
 import swim.uri.Uri;
 
 public class IntersectionAgent extends AbstractAgent {
   long lastScanTime;
+  long scanReceived; // wall clock arrival time of the scan being applied, or 0
   TimerRef sampleTimer;
-  TimerRef simTimer;
+  TimerRef latencyTimer;
   IntersectionTensor intersectionTensor;
-  HashTrieMap<Integer, Long> lastSignalPhaseEvent = HashTrieMap.empty();
+  IntersectionHistory history;
+  IntersectionTensor forecastTensor;
+  IntersectionHistory forecast;
+  boolean forecastChanged;
+  long clockLag;
+  long[] lastSignalPhaseEvents = new long[0]; // indexed by tensor slot
   HashTrieMap<Integer, SignalPhaseModel> signalPhaseModels = HashTrieMap.empty();
   EventDownlink<Value> infoLink;
   EventDownlink<Value> schematicLink;
   EventDownlink<Value> scanLink;
   EventDownlink<Value> latencyLink;
-
+  ScanRecorder scanRecorder;
+  IntersectionStore store;
+  int unstoredSamples;
+  Future<List<SignalPhaseModel>> storeLoading; // logs being loaded, if any
+  TimerRef storeLoadTimer;
+  // downsampled history tiers, each fed by the closed buckets of the tier
+  // before it; the first is fed by the raw samples of the history ring
+  final HistoryRollup[] rollups = {
+      new HistoryRollup(10L * 1000L, 360), // 1 hour of 10 second buckets
+      new HistoryRollup(60L * 1000L, 1440), // 1 day of 1 minute buckets
+      new HistoryRollup(15L * 60L * 1000L, 672), // 1 week of 15 minute buckets
+  };
+  IntersectionStore[] rollupStores;
+  String handoffId; // handoff being received, if any
+  boolean handoffBroken; // whether a chunk of the handoff being received went missing
+  final ScanBatch scanBatch = new ScanBatch();
+  TimerRef scanFlushTimer;
+  String coordMode;
+  final StateHistogram signalPhaseStates = new StateHistogram();
+  final StateHistogram vehicleDetectorStates = new StateHistogram();
+  final StateHistogram pedCallStates = new StateHistogram();
+  // authoritative controller states, published to the state lanes
+  final StatePublisher signalPhases = new StatePublisher(StatePublisher.interval("phase"));
+  final StatePublisher vehicleDetectors = new StatePublisher(StatePublisher.interval("detector"));
+  final StatePublisher pedPhases = new StatePublisher(StatePublisher.interval("pedPhase"));
+  final StatePublisher pedCalls = new StatePublisher(StatePublisher.interval("pedCall"));
+  IntersectionSchematic compiledSchematic = IntersectionSchematic.empty();
+  HashTrieMap<Integer, PhaseTimer> phaseTimers = HashTrieMap.empty();
+  final PredictionAccuracy predictionAccuracy = new PredictionAccuracy(PredictionAccuracy.total());
+  int unpublishedAccuracySamples;
+  long publishedAccuracyCount = -1L;
+  final LatencyStats latencyStats = new LatencyStats(LatencyStats.total(), LATENCY_SLOTS, LATENCY_INTERVAL);
 
   // 4 minute window; 1 second samples
   static final Long SAMPLE_WINDOW = 1000L;
   static final int SAMPLE_COUNT = 240; // MUST BE EVEN
+  // 2 minute prediction horizon
+  static final int FORECAST_COUNT = SAMPLE_COUNT / 2;
+  // one of float32, q8, or q8delta; packed lanes are disabled by default
+  static final IntersectionTensorCodec HISTORY_CODEC =
+      IntersectionTensorCodec.forName(System.getProperty("history.codec", ""));
+
+  // directory of per-intersection history logs; persistence is disabled by default
+  static final String STORE_DIR = System.getProperty("store.dir");
+  static final int STORE_FLUSH_COUNT = Integer.getInteger("store.flush.count", 15);
+  // phase models saved longer ago than this are too stale to restore
+  static final long STORE_MODEL_MAX_AGE = 10L * 60L * 1000L;
+  // how often to check whether the logs have loaded
+  static final long STORE_LOAD_POLL_PERIOD = 20L;
+  // publish phase/accuracy every 10 samples, if any transition was scored
+  static final int ACCURACY_PUBLISH_COUNT = 10;
+  // 1 minute latency window of 20 second intervals, published every 10 seconds of wall time
+  static final int LATENCY_SLOTS = 3;
+  static final long LATENCY_INTERVAL = 20L * 1000L;
+  static final long LATENCY_PUBLISH_PERIOD = 10L * 1000L;
+
+  // coalesce scan records over this many milliseconds; 0 disables batching
+  static final long SCAN_BATCH_WINDOW = Long.getLong("scan.batch.window", 0L);
 
-
-  static final Long SIM_START_DELAY = 5000L;
-  static final Long SIM_WINDOW_DEFAULT = 3000L;
-  int simCycles = 0;
   private final boolean simMode = System.getProperty("sim.mode", "true").equals("true");
+  // scans are replayed from a capture by the plane; never link upstream
+  static final boolean REPLAY_MODE = System.getProperty("replay.dir") != null;
 
   @SwimResident
   @SwimLane("intersection/info")
@@ -70,7 +153,17 @@ public class IntersectionAgent extends AbstractAgent {
 
   @SwimResident
   @SwimLane("intersection/schematic")
-  public ValueLane<Value> schematic;
+  public ValueLane<Value> schematic = this.<Value>valueLane()
+      .didSet(this::didSetSchematic);
+
+  void didSetSchematic(Value newValue, Value oldValue) {
+    compileSchematic(newValue);
+    updateKpi();
+  }
+
+  void compileSchematic(Value value) {
+    compiledSchematic = IntersectionSchematic.compile(value);
+  }
 
   @SwimResident
   @SwimLane("intersection/mode")
@@ -80,45 +173,142 @@ public class IntersectionAgent extends AbstractAgent {
   @SwimLane("intersection/latency")
   public ValueLane<Value> latency;
 
+  // latency percentiles of each leg over the last minute
+  @SwimLane("intersection/latency/summary")
+  public ValueLane<Value> latencySummary;
+
+  // Served straight from the history ring, which retains the window, so
+  // samples are never copied into lane state.
   @SwimLane("intersection/history")
-  public MapLane<Long, IntersectionTensor> intersectionHistory;
+  public DemandMapLane<Long, IntersectionSample> intersectionHistory = this.<Long, IntersectionSample>demandMapLane()
+      .keyForm(Form.forLong())
+      .valueForm(IntersectionSample.form())
+      .onSync(this::syncHistory)
+      .onCue(this::cueHistory);
+
+  Iterator<Long> syncHistory(WarpUplink uplink) {
+    final ArrayList<Long> times = new ArrayList<>(history.size());
+    for (int i = 0, n = history.size(); i < n; i += 1) {
+      times.add(history.time(i));
+    }
+    return times.iterator();
+  }
+
+  IntersectionSample cueHistory(Long time, WarpUplink uplink) {
+    final int index = history.indexOf(time);
+    return index >= 0 ? history.get(index) : null;
+  }
+
+  @SwimLane("intersection/future")
+  public MapLane<Long, IntersectionSample> intersectionFuture;
+
+  // Binary encoded mirrors of the history and future lanes, for clients
+  // that opt in; only populated when a history.codec is configured.
+  @SwimLane("intersection/history/packed")
+  public MapLane<Long, Value> packedHistory;
+
+  @SwimLane("intersection/future/packed")
+  public MapLane<Long, Value> packedFuture;
+
+  // Rollup tiers of intersection/history, keyed by bucket start time, with
+  // the mean and max of each bucket; mean counts are summed over the bucket.
+  // Like intersection/history, each is served straight from its rollup's
+  // rings, so buckets are never copied into lane state.
+  @SwimLane("intersection/history/10s")
+  public DemandMapLane<Long, Value> history10s = demandRollupLane(0);
+
+  @SwimLane("intersection/history/1m")
+  public DemandMapLane<Long, Value> history1m = demandRollupLane(1);
+
+  @SwimLane("intersection/history/15m")
+  public DemandMapLane<Long, Value> history15m = demandRollupLane(2);
+
+  DemandMapLane<Long, Value> demandRollupLane(int tier) {
+    return this.<Long, Value>demandMapLane()
+        .keyForm(Form.forLong())
+        .valueForm(Form.forValue())
+        .onSync(uplink -> syncRollup(tier))
+        .onCue((time, uplink) -> cueRollup(tier, time));
+  }
+
+  Iterator<Long> syncRollup(int tier) {
+    final IntersectionHistory means = rollups[tier].means();
+    final ArrayList<Long> times = new ArrayList<>(means.size());
+    for (int i = 0, n = means.size(); i < n; i += 1) {
+      times.add(means.time(i));
+    }
+    return times.iterator();
+  }
+
+  Value cueRollup(int tier, Long time) {
+    final HistoryRollup rollup = rollups[tier];
+    final int index = rollup.means().indexOf(time);
+    return index >= 0 ? rollupValue(rollup, index) : null;
+  }
 
   @SwimResident
   @SwimLane("phase/state")
-  public MapLane<Integer, Integer> signalPhaseState = this.<Integer, Integer>mapLane()
-      .didUpdate(this::didUpdateSignalPhase);
-
+  public MapLane<Integer, Integer> signalPhaseState;
 
   void didUpdateSignalPhase(Integer phaseId, Integer newPhase, Integer oldPhase) {
-    updateSignalPhaseTensor(phaseId, newPhase, oldPhase, System.currentTimeMillis());
+    signalPhaseStates.update(oldPhase, newPhase);
+    setIfChanged(greenPhaseCount, signalPhaseStates.count(3));
+    updateKpi();
+    updateSignalPhaseTensor(phaseId, newPhase, oldPhase, now());
   }
 
-  void updateSignalPhaseTensor(Integer phaseId, Integer newPhase, Integer oldPhase, long t1) {
-    final Long t0 = lastSignalPhaseEvent.get(phaseId);
-    lastSignalPhaseEvent = lastSignalPhaseEvent.updated(phaseId, t1);
-    if (t0 == null || oldPhase == null) {
+  void updateSignalPhaseTensor(int phaseId, Integer newPhase, Integer oldPhase, long t1) {
+    final int slot = intersectionTensor.signalPhase(phaseId);
+    if (slot < 0) {
+      return;
+    }
+    if (slot >= lastSignalPhaseEvents.length) {
+      lastSignalPhaseEvents = Arrays.copyOf(lastSignalPhaseEvents, intersectionTensor.signalPhaseCount());
+    }
+    final long t0 = lastSignalPhaseEvents[slot];
+    lastSignalPhaseEvents[slot] = t1;
+    if (t0 == 0L || oldPhase == null) {
       return;
     }
     final long dt = t1 - t0;
     final double dw = (double) dt / (double) SAMPLE_WINDOW;
-    final SignalPhaseTensor signalTensor = intersectionTensor.signalPhase(phaseId);
     if (oldPhase == 1) {
-      signalTensor.red = Math.min(signalTensor.red + dw, 1.0);
+      intersectionTensor.setRed(slot, Math.min(intersectionTensor.red(slot) + dw, 1.0));
     } else if (oldPhase == 2) {
-      signalTensor.yellow = Math.min(signalTensor.yellow + dw, 1.0);
+      intersectionTensor.setYellow(slot, Math.min(intersectionTensor.yellow(slot) + dw, 1.0));
     } else if (oldPhase == 3) {
-      signalTensor.green = Math.min(signalTensor.green + dw, 1.0);
+      intersectionTensor.setGreen(slot, Math.min(intersectionTensor.green(slot) + dw, 1.0));
     }
   }
 
+  // number of phases currently green
+  @SwimLane("phase/green")
+  public ValueLane<Integer> greenPhaseCount;
+
+  // next predicted transition of each phase, rolled forward as each fires
   @SwimResident
   @SwimLane("phase/event")
   public MapLane<Integer, SignalPhaseEvent> signalPhaseEvents;
 
+  // stream of phase transitions as they happen, predicted or actual;
+  // actual transitions report the error of the prediction they replace
+  @SwimLane("phase/transition")
+  public ValueLane<Value> phaseTransition;
+
   @SwimResident
   @SwimLane("detector/state")
   public MapLane<Integer, Integer> vehicleDetectorState;
 
+  void didUpdateVehicleDetector(Integer detectorId, Integer newState, Integer oldState) {
+    vehicleDetectorStates.update(oldState, newState);
+    setIfChanged(occupiedDetectorCount, vehicleDetectorStates.count(1));
+    updateKpi();
+  }
+
+  // number of detectors currently occupied; any detector is occupied if > 0
+  @SwimLane("detector/occupied")
+  public ValueLane<Integer> occupiedDetectorCount;
+
   @SwimResident
   @SwimLane("detector/event")
   public MapLane<Integer, VehicleDetectorEvent> vehicleDetectorEvents;
@@ -129,61 +319,585 @@ public class IntersectionAgent extends AbstractAgent {
 
   @SwimResident
   @SwimLane("pedCall/state")
-  public MapLane<Integer, Integer> pedCallState = this.<Integer, Integer>mapLane()
-      .didUpdate(this::didUpdatePedCall);
+  public MapLane<Integer, Integer> pedCallState;
 
   void didUpdatePedCall(Integer phaseId, Integer newPhase, Integer oldPhase) {
-    int st = 0;
-    for (Integer state : pedCallState.values()) {
-      st = Math.max(st, state);
-    }
-    pedCall.set(st);
+    pedCallStates.update(oldPhase, newPhase);
+    setIfChanged(pedCall, Math.max(pedCallStates.max(0), 0));
   }
 
   @SwimResident
   @SwimLane("pedCall")
-  public ValueLane<Integer> pedCall;
+  public ValueLane<Integer> pedCall = this.<Integer>valueLane()
+      .didSet((newValue, oldValue) -> updateKpi());
+
+  // Approach and pedestrian counts for the city KPIs, recounted over the
+  // schematic approaches whenever a phase, detector, or pedCall changes.
+  @SwimLane("intersection/kpi")
+  public ValueLane<TrafficKpi> kpi;
+
+  void updateKpi() {
+    int redWaiting = 0;
+    int redClear = 0;
+    int greenFlowing = 0;
+    int greenClear = 0;
+    final IntersectionSchematic schematic = compiledSchematic;
+    for (int i = 0, n = schematic.approachCount(); i < n; i += 1) {
+      final int phaseId = schematic.approachPhaseId(i);
+      final int phase = signalPhases.get(phaseId);
+      if (phase != 1 && phase != 3) {
+        continue;
+      }
+      final int detectorId = schematic.approachDetectorId(i);
+      final int detector = vehicleDetectors.get(detectorId);
+      final boolean occupied = detector != StatePublisher.NO_STATE && detector != 0;
+      if (phase == 1) {
+        if (occupied) {
+          redWaiting += 1;
+        } else {
+          redClear += 1;
+        }
+      } else {
+        if (occupied) {
+          greenFlowing += 1;
+        } else {
+          greenClear += 1;
+        }
+      }
+    }
+    final Integer pedCallState = pedCall.get();
+    final boolean pedWaiting = pedCallState != null && pedCallState > 0;
+    final TrafficKpi newKpi = new TrafficKpi(redWaiting, redClear, greenFlowing, greenClear,
+                                             pedWaiting ? 1 : 0, pedWaiting ? 0 : 1);
+    if (!newKpi.equals(kpi.get())) {
+      kpi.set(newKpi);
+    }
+  }
+
+  static void setIfChanged(ValueLane<Integer> lane, int value) {
+    final Integer oldValue = lane.get();
+    if (oldValue == null || oldValue != value) {
+      lane.set(value);
+    }
+  }
+
+  static void setIfChanged(ValueLane<Value> lane, Value value) {
+    if (!value.equals(lane.get())) {
+      lane.set(value);
+    }
+  }
+
+  // Resident state lanes are restored without update callbacks, so the
+  // rollup histograms are rebuilt from their contents on start.
+  void initStateRollups() {
+    signalPhaseStates.clear();
+    for (int id = signalPhases.nextId(0); id >= 0; id = signalPhases.nextId(id + 1)) {
+      signalPhaseStates.add(signalPhases.get(id));
+    }
+    vehicleDetectorStates.clear();
+    for (int id = vehicleDetectors.nextId(0); id >= 0; id = vehicleDetectors.nextId(id + 1)) {
+      vehicleDetectorStates.add(vehicleDetectors.get(id));
+    }
+    pedCallStates.clear();
+    for (int id = pedCalls.nextId(0); id >= 0; id = pedCalls.nextId(id + 1)) {
+      pedCallStates.add(pedCalls.get(id));
+    }
+    setIfChanged(greenPhaseCount, signalPhaseStates.count(3));
+    setIfChanged(occupiedDetectorCount, vehicleDetectorStates.count(1));
+    compileSchematic(schematic.get());
+    updateKpi();
+  }
 
   void sampleIntersectionTensor() {
     try {
-      final long t = System.currentTimeMillis();
-      for (Integer phaseId : lastSignalPhaseEvent.keySet()) {
-        final Integer state = signalPhaseState.get(phaseId);
-        updateSignalPhaseTensor(phaseId, state, state, t);
-      }
-      intersectionHistory.put(t, intersectionTensor);
-      try {
-        while (intersectionHistory.size() > SAMPLE_COUNT + 1) {
-          intersectionHistory.remove(intersectionHistory.firstKey());
+      final long t = now();
+      for (int slot = 0; slot < lastSignalPhaseEvents.length; slot += 1) {
+        if (lastSignalPhaseEvents[slot] != 0L) {
+          final int phaseId = intersectionTensor.signalPhaseId(slot);
+          final Integer state = StatePublisher.boxed(signalPhases.get(phaseId));
+          updateSignalPhaseTensor(phaseId, state, state, t);
         }
-      } catch (Throwable cause) {
-        cause.printStackTrace();
       }
-
-      for (SignalPhaseTensor signalTensor : intersectionTensor.signalPhases.values()) {
-        signalTensor.red = 0.0;
-        signalTensor.yellow = 0.0;
-        signalTensor.green = 0.0;
+      final boolean relayout = !history.hasLayout(intersectionTensor);
+      final long evicted = history.sample(t, intersectionTensor);
+      if (evicted != 0L) {
+        intersectionHistory.remove(evicted);
       }
-      for (VehicleDetectorTensor vehicleTensor : intersectionTensor.vehicleDetectors.values()) {
-        vehicleTensor.occupancy = 0.0;
-        vehicleTensor.count = 0;
+      intersectionHistory.cue(t);
+      if (HISTORY_CODEC != null) {
+        packHistory(evicted, relayout);
       }
+      forecastIntersectionTensor(t);
+      rollupHistory(history.last());
+      unpublishedAccuracySamples += 1;
+      if (unpublishedAccuracySamples >= ACCURACY_PUBLISH_COUNT) {
+        publishAccuracy();
+      }
+      if (store != null) {
+        unstoredSamples += 1;
+        if (unstoredSamples >= STORE_FLUSH_COUNT) {
+          storeHistory(t);
+        }
+      }
+
+      intersectionTensor.reset();
     } catch (Throwable cause) {
       cause.printStackTrace();
     } finally {
-      sampleTimer = setTimer(SAMPLE_WINDOW, this::sampleIntersectionTensor);
+      sampleTimer = setTimer(samplePeriod(), this::sampleIntersectionTensor);
+    }
+  }
+
+  // prediction accuracy of this intersection's phase models
+  @SwimLane("phase/accuracy")
+  public ValueLane<Value> phaseAccuracy;
+
+  void publishAccuracy() {
+    unpublishedAccuracySamples = 0;
+    final long count = predictionAccuracy.count() + predictionAccuracy.flips();
+    if (count != publishedAccuracyCount) {
+      publishedAccuracyCount = count;
+      phaseAccuracy.set(predictionAccuracy.toValue());
+    }
+  }
+
+  // latencies are windowed by wall time, so they publish on their own timer
+  // rather than with the samples, which follow the simulation clock
+  void publishLatency() {
+    try {
+      final long t = System.currentTimeMillis();
+      setIfChanged(latencySummary, latencyStats.toValue(t, LATENCY_SLOTS * LATENCY_INTERVAL));
+    } finally {
+      latencyTimer = setTimer(LATENCY_PUBLISH_PERIOD, this::publishLatency);
+    }
+  }
+
+  void rollupHistory(IntersectionSample sample) {
+    boolean closed = rollups[0].add(sample);
+    for (int tier = 0; closed; tier += 1) {
+      final HistoryRollup rollup = rollups[tier];
+      publishRollup(tier);
+      if (rollupStores != null) {
+        storeRollup(tier);
+      }
+      closed = tier + 1 < rollups.length
+          && rollups[tier + 1].add(rollup.means().lastTime(), rollup.means().last(),
+                                   rollup.maxes().last(), rollup.closedWeight());
+    }
+  }
+
+  void publishRollup(int tier) {
+    final HistoryRollup rollup = rollups[tier];
+    final DemandMapLane<Long, Value> lane = rollupLane(tier);
+    if (rollup.evictedTime() != 0L) {
+      lane.remove(rollup.evictedTime());
+    }
+    lane.cue(rollup.means().lastTime());
+  }
+
+  static Value rollupValue(HistoryRollup rollup, int index) {
+    return Record.create(2)
+        .slot("mean", rollup.means().get(index).toValue())
+        .slot("max", rollup.maxes().get(index).toValue());
+  }
+
+  DemandMapLane<Long, Value> rollupLane(int tier) {
+    switch (tier) {
+      case 0:
+        return history10s;
+      case 1:
+        return history1m;
+      default:
+        return history15m;
+    }
+  }
+
+  // Slides the prediction horizon forward by one sample, re-predicting the
+  // rest of the horizon only when a phase model has changed since last tick.
+  void forecastIntersectionTensor(long t) {
+    for (int slot = forecastTensor.signalPhaseCount(); slot < intersectionTensor.signalPhaseCount(); slot += 1) {
+      forecastTensor.signalPhase(intersectionTensor.signalPhaseId(slot));
+    }
+    if (!forecast.isEmpty() && !forecast.hasLayout(forecastTensor)) {
+      clearForecast();
+    }
+    if (forecast.isEmpty()) {
+      for (int k = 1; k <= FORECAST_COUNT; k += 1) {
+        final long tk = t + k * SAMPLE_WINDOW;
+        if (!predictIntersectionTensor(tk, forecastTensor)) {
+          clearForecast();
+          return;
+        }
+        forecast.sample(tk, forecastTensor);
+        putFuture(tk, forecast.last());
+      }
+    } else {
+      if (forecastChanged) {
+        for (int i = 0, n = forecast.size(); i < n; i += 1) {
+          final long ti = forecast.time(i);
+          predictIntersectionTensor(ti, forecastTensor);
+          if (forecast.update(i, forecastTensor)) {
+            putFuture(ti, forecast.get(i));
+          }
+        }
+      }
+      final long tk = t + FORECAST_COUNT * SAMPLE_WINDOW;
+      if (!predictIntersectionTensor(tk, forecastTensor)) {
+        clearForecast();
+        return;
+      }
+      final long evicted = forecast.sample(tk, forecastTensor);
+      if (evicted != 0L) {
+        removeFuture(evicted);
+      }
+      putFuture(tk, forecast.last());
+    }
+    forecastChanged = false;
+  }
+
+  // Predicts the sample that will be taken at time t, covering the window
+  // that ends at t; returns false if no phase is predictable.
+  boolean predictIntersectionTensor(long t, IntersectionTensor tensor) {
+    boolean predictable = false;
+    for (int slot = 0, n = tensor.signalPhaseCount(); slot < n; slot += 1) {
+      final SignalPhaseModel model = signalPhaseModels.get(tensor.signalPhaseId(slot));
+      if (model != null && model.predictTensor(t - SAMPLE_WINDOW - clockLag, SAMPLE_WINDOW, tensor, slot)) {
+        predictable = true;
+      } else {
+        tensor.setRed(slot, 0.0);
+        tensor.setYellow(slot, 0.0);
+        tensor.setGreen(slot, 0.0);
+      }
+    }
+    return predictable;
+  }
+
+  void clearForecast() {
+    for (int i = 0, n = forecast.size(); i < n; i += 1) {
+      removeFuture(forecast.time(i));
+    }
+    forecast.clear();
+    forecastChanged = false;
+  }
+
+  void putFuture(long t, IntersectionSample sample) {
+    intersectionFuture.put(t, sample);
+    if (HISTORY_CODEC != null) {
+      // future samples are re-predicted in place, so never delta encode them
+      packedFuture.put(t, HISTORY_CODEC.encode(sample, null));
+    }
+  }
+
+  void removeFuture(long t) {
+    intersectionFuture.remove(t);
+    if (HISTORY_CODEC != null) {
+      packedFuture.remove(t);
+    }
+  }
+
+  // Mirrors the latest history sample onto the packed lane. Delta frames
+  // chain back to the oldest retained sample, which is always re-encoded as
+  // a key frame once its predecessor is evicted, so a client syncing the
+  // lane in key order can always decode it.
+  void packHistory(long evicted, boolean relayout) {
+    final int size = history.size();
+    final IntersectionSample previous = size > 1 && !relayout ? history.get(size - 2) : null;
+    packedHistory.put(history.lastTime(), HISTORY_CODEC.encode(history.last(), previous));
+    if (evicted != 0L) {
+      packedHistory.remove(evicted);
+      if (HISTORY_CODEC.isDelta() && size > 1) {
+        packedHistory.put(history.firstTime(), HISTORY_CODEC.encode(history.get(0), null));
+      }
     }
   }
 
   void initIntersectionTensor() {
-    intersectionTensor = new IntersectionTensor();
-    for (Integer phaseId : signalPhaseState.keySet()) {
-      intersectionTensor.signalPhase(phaseId);
+    // assign stable tensor slots, in id order, to every phase and detector
+    // known from the schematic and the resident state lanes
+    final Set<Integer> phases = new TreeSet<>();
+    for (int id = signalPhases.nextId(0); id >= 0; id = signalPhases.nextId(id + 1)) {
+      phases.add(id);
+    }
+    final Set<Integer> detectors = new TreeSet<>();
+    for (int id = vehicleDetectors.nextId(0); id >= 0; id = vehicleDetectors.nextId(id + 1)) {
+      detectors.add(id);
+    }
+    // the state lanes only hold valid ids, but the schematic may not
+    for (int i = 0, n = compiledSchematic.signalPhaseCount(); i < n; i += 1) {
+      if (IntersectionTensor.isValidId(compiledSchematic.signalPhaseId(i))) {
+        phases.add(compiledSchematic.signalPhaseId(i));
+      }
+    }
+    for (int i = 0, n = compiledSchematic.vehicleDetectorCount(); i < n; i += 1) {
+      if (IntersectionTensor.isValidId(compiledSchematic.vehicleDetectorId(i))) {
+        detectors.add(compiledSchematic.vehicleDetectorId(i));
+      }
+    }
+    intersectionTensor = new IntersectionTensor(toIntArray(phases), toIntArray(detectors));
+    lastSignalPhaseEvents = new long[intersectionTensor.signalPhaseCount()];
+    // the ring buffer is the source of truth for the sample window, so
+    // retract any samples already served from a replaced ring
+    if (history != null) {
+      for (int i = 0, n = history.size(); i < n; i += 1) {
+        intersectionHistory.remove(history.time(i));
+      }
+    }
+    history = new IntersectionHistory(SAMPLE_COUNT + 1);
+    forecastTensor = new IntersectionTensor();
+    forecast = new IntersectionHistory(FORECAST_COUNT);
+    intersectionFuture.clear();
+    packedHistory.clear();
+    packedFuture.clear();
+  }
+
+  // Restores the history window, rollups, and phase models logged by a
+  // previous run, dropping samples that have since slid out of the window.
+  // The logs are read on the store writer thread, into fresh rings that
+  // replace this agent's once loaded; sampling waits until then.
+  void loadStores() {
+    final long t = now();
+    store = new IntersectionStore(Paths.get(STORE_DIR, nodeUri().path().toString().substring(1), "history.log"),
+                                  history.capacity());
+    rollupStores = new IntersectionStore[2 * rollups.length];
+    final HistoryRollup[] loadedRollups = new HistoryRollup[rollups.length];
+    for (int tier = 0; tier < rollups.length; tier += 1) {
+      final HistoryRollup rollup = rollups[tier];
+      final String name = "history-" + rollup.period() / 1000L + "s";
+      rollupStores[2 * tier] = new IntersectionStore(store.path().resolveSibling(name + "-mean.log"),
+                                                     rollup.means().capacity());
+      rollupStores[2 * tier + 1] = new IntersectionStore(store.path().resolveSibling(name + "-max.log"),
+                                                         rollup.maxes().capacity());
+      loadedRollups[tier] = new HistoryRollup(rollup.period(), rollup.means().capacity());
+    }
+    final IntersectionStore historyStore = store;
+    final IntersectionStore[] stores = rollupStores;
+    final IntersectionHistory loadedHistory = new IntersectionHistory(history.capacity());
+    final IntersectionTensor layout = intersectionTensor.clone();
+    if (sampleTimer != null) {
+      sampleTimer.cancel();
+      sampleTimer = null;
+    }
+    final Future<List<SignalPhaseModel>> loading = IntersectionStore.submit(() -> {
+      List<SignalPhaseModel> models = Collections.emptyList();
+      try {
+        models = historyStore.load(loadedHistory, layout, t - SAMPLE_COUNT * SAMPLE_WINDOW, t - STORE_MODEL_MAX_AGE);
+      } catch (IOException cause) {
+        System.err.println(nodeUri() + " failed to load history: " + cause);
+        loadedHistory.clear();
+      }
+      for (int tier = 0; tier < loadedRollups.length; tier += 1) {
+        final HistoryRollup rollup = loadedRollups[tier];
+        final long minTime = t - rollup.means().capacity() * rollup.period();
+        try {
+          stores[2 * tier].load(rollup.means(), layout, minTime, Long.MAX_VALUE);
+          stores[2 * tier + 1].load(rollup.maxes(), layout, minTime, Long.MAX_VALUE);
+        } catch (IOException cause) {
+          System.err.println(nodeUri() + " failed to load history rollup: " + cause);
+        }
+        if (rollup.means().size() != rollup.maxes().size()) {
+          rollup.means().clear();
+          rollup.maxes().clear();
+        }
+      }
+      return models;
+    });
+    storeLoading = loading;
+    pollStores(loading, loadedHistory, loadedRollups);
+  }
+
+  void pollStores(Future<List<SignalPhaseModel>> loading, IntersectionHistory loadedHistory,
+                  HistoryRollup[] loadedRollups) {
+    if (loading != storeLoading) {
+      return; // superseded by a later load
+    } else if (!loading.isDone()) {
+      storeLoadTimer = setTimer(STORE_LOAD_POLL_PERIOD, () -> pollStores(loading, loadedHistory, loadedRollups));
+      return;
+    }
+    storeLoading = null;
+    storeLoadTimer = null;
+    List<SignalPhaseModel> models = Collections.emptyList();
+    try {
+      models = loading.get();
+    } catch (InterruptedException | ExecutionException cause) {
+      System.err.println(nodeUri() + " failed to load history: " + cause);
+      loadedHistory.clear();
+    }
+    for (int i = 0, n = history.size(); i < n; i += 1) {
+      intersectionHistory.remove(history.time(i));
+    }
+    history = loadedHistory;
+    for (SignalPhaseModel model : models) {
+      model.setAccuracy(predictionAccuracy);
+      signalPhaseModels = signalPhaseModels.updated(model.phaseId, model);
+    }
+    packedHistory.clear();
+    for (int i = 0, n = history.size(); i < n; i += 1) {
+      intersectionHistory.cue(history.time(i));
+      if (HISTORY_CODEC != null) {
+        packedHistory.put(history.time(i), HISTORY_CODEC.encode(history.get(i), i > 0 ? history.get(i - 1) : null));
+      }
+    }
+    forecastChanged = !models.isEmpty();
+    unstoredSamples = 0;
+    for (int tier = 0; tier < rollups.length; tier += 1) {
+      final DemandMapLane<Long, Value> lane = rollupLane(tier);
+      final IntersectionHistory means = rollups[tier].means();
+      for (int i = 0, n = means.size(); i < n; i += 1) {
+        lane.remove(means.time(i));
+      }
+      rollups[tier] = loadedRollups[tier];
+      for (int i = 0, n = loadedRollups[tier].means().size(); i < n; i += 1) {
+        lane.cue(loadedRollups[tier].means().time(i));
+      }
+    }
+    sampleTimer = setTimer(samplePeriod(), this::sampleIntersectionTensor);
+  }
+
+  void storeRollup(int tier) {
+    final HistoryRollup rollup = rollups[tier];
+    try {
+      rollupStores[2 * tier].append(rollup.means(), 1, null, rollup.means().lastTime());
+      rollupStores[2 * tier + 1].append(rollup.maxes(), 1, null, rollup.maxes().lastTime());
+    } catch (IOException cause) {
+      System.err.println(nodeUri() + " failed to store history rollup: " + cause);
+    }
+  }
+
+  // history, rollup, and model logs streamed by this intersection's
+  // previous owner when a new partition map moved it to this host
+  @SwimLane("handoff")
+  public CommandLane<Value> handoff = this.<Value>commandLane().onCommand(this::didReceiveHandoff);
+
+  // id of the last handoff adopted here; the previous owner keeps its copy
+  // of the logs in place, and resends them on its next start, until it
+  // sees its handoff acked here
+  @SwimResident
+  @SwimLane("handoff/ack")
+  public ValueLane<Value> handoffAck;
+
+  // Receives one chunk or the commit of a handoff. Chunks of each log are
+  // appended to a temporary file, and must arrive in order; a handoff with
+  // a missing chunk is dropped, to be resent by its sender's next start.
+  void didReceiveHandoff(Value value) {
+    if (STORE_DIR == null) {
+      return;
+    }
+    final String id = value.get("id").stringValue(null);
+    if (id == null || id.equals(handoffAck.get().stringValue(null))) {
+      return; // resent after its ack was missed; already adopted
+    }
+    final Path dir = Paths.get(STORE_DIR, nodeUri().path().toString().substring(1));
+    try {
+      if (!id.equals(handoffId)) {
+        // a new handoff supersedes any partial one
+        handoffId = id;
+        handoffBroken = false;
+        Files.createDirectories(dir);
+        deleteHandoffTemps(dir);
+      }
+      if (handoffBroken) {
+        return;
+      }
+      final Value commit = value.get("commit");
+      if (commit.isDefined()) {
+        commitHandoff(dir, id, commit);
+      } else {
+        receiveHandoffChunk(dir, value);
+      }
+    } catch (IOException cause) {
+      handoffBroken = true;
+      System.err.println(nodeUri() + " failed to accept handoff: " + cause);
+    }
+  }
+
+  void receiveHandoffChunk(Path dir, Value chunk) throws IOException {
+    final String name = chunk.get("log").stringValue("");
+    final Value data = chunk.get("data");
+    final Path temp = dir.resolve(name + ".tmp");
+    if (!isLogName(name) || !(data instanceof Data)
+        || chunk.get("offset").longValue(-1L) != (Files.exists(temp) ? Files.size(temp) : 0L)) {
+      handoffBroken = true;
+      return;
+    }
+    Files.write(temp, ((Data) data).toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  // Adopts the handed off logs in place of any kept here, once every chunk
+  // has arrived, and reloads the history window, rollups, and phase models
+  // from them. Samples taken here since this agent started are superseded
+  // by the previous owner's window.
+  void commitHandoff(Path dir, String id, Value sizes) throws IOException {
+    for (Item item : sizes) {
+      final String name = item.key().stringValue("");
+      final Path temp = dir.resolve(name + ".tmp");
+      final long size = Files.exists(temp) ? Files.size(temp) : 0L;
+      if (!isLogName(name) || item.toValue().longValue(-1L) != size) {
+        handoffBroken = true;
+        return;
+      }
+    }
+    // let queued appends land before the logs they target are replaced
+    flushStores();
+    for (Item item : sizes) {
+      final String name = item.key().stringValue("");
+      final Path temp = dir.resolve(name + ".tmp");
+      if (!Files.exists(temp)) {
+        Files.createFile(temp); // empty logs are sent as no chunks
+      }
+      Files.move(temp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+    }
+    handoffId = null;
+    handoffAck.set(Text.from(id));
+    initIntersectionTensor();
+    for (PhaseTimer timer : phaseTimers.values()) {
+      TimerWheel.shared().cancel(timer);
+    }
+    phaseTimers = HashTrieMap.empty();
+    signalPhaseModels = HashTrieMap.empty();
+    // the rollups, and the buckets served from them, are replaced once loaded
+    loadStores();
+  }
+
+  static boolean isLogName(String name) {
+    return name.endsWith(".log") && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && !name.startsWith(".");
+  }
+
+  static void deleteHandoffTemps(Path dir) throws IOException {
+    try (DirectoryStream<Path> temps = Files.newDirectoryStream(dir, "*.log.tmp")) {
+      for (Path temp : temps) {
+        Files.delete(temp);
+      }
+    }
+  }
+
+  // waits for the queued writes of every log of this intersection
+  void flushStores() throws IOException {
+    if (store != null) {
+      store.flush();
+    }
+    if (rollupStores != null) {
+      for (IntersectionStore rollupStore : rollupStores) {
+        rollupStore.flush();
+      }
+    }
+  }
+
+  void storeHistory(long t) {
+    try {
+      store.append(history, unstoredSamples, signalPhaseModels.values(), t);
+    } catch (IOException cause) {
+      System.err.println(nodeUri() + " failed to store history: " + cause);
     }
-    for (Integer detectorId : vehicleDetectorState.keySet()) {
-      intersectionTensor.vehicleDetector(detectorId);
+    unstoredSamples = 0;
+  }
+
+  static int[] toIntArray(Set<Integer> ids) {
+    final int[] array = new int[ids.size()];
+    int i = 0;
+    for (Integer id : ids) {
+      array[i++] = id;
     }
+    return array;
   }
 
   public void linkInfo() {
@@ -206,7 +920,7 @@ public class IntersectionAgent extends AbstractAgent {
   }
 
   void didSetRemoteInfo(Value newValue) {
-    info.set(newValue);
+    setIfChanged(info, newValue);
   }
 
   public void linkSchematic() {
@@ -230,18 +944,21 @@ public class IntersectionAgent extends AbstractAgent {
 
   void didSetRemoteSchematic(Value newValue) {
     //System.out.println(nodeUri() + " didSetRemoteSchematic: " + Recon.toString(newValue));
-    schematic.set(newValue);
-    System.out.println(nodeUri() + ":" + Recon.toString(newValue));
+    if (!newValue.equals(schematic.get())) {
+      schematic.set(newValue);
+      System.out.println(nodeUri() + ":" + Recon.toString(newValue));
+    }
   }
 
   public void linkScan() {
     if (scanLink == null) {
       lastScanTime = System.currentTimeMillis();
+      scanRecorder = ScanRecorder.shared();
       scanLink = downlink()
           .hostUri(TRAFFIC_HOST)
           .nodeUri(Uri.create(nodeUri().path()))
           .laneUri("scan/state")
-          .onEvent(this::didUpdateRemoteScan)
+          .onEvent(this::didReceiveRemoteScan)
           .open()
           .didConnect(() -> {
             System.out.println(nodeUri() + " scan connect");
@@ -263,93 +980,20 @@ public class IntersectionAgent extends AbstractAgent {
     }
   }
 
-  private Map<Integer, Integer> phaseIds = new HashMap<>();
-  private Map<Integer, Boolean> detectorIds = new HashMap<>();
-
-  void simScan() {
-    final Value approaches = this.schematic.get();
-    final Iterator<Item> iterator = approaches.iterator();
-    boolean hasGreenOrYellow = false;
-    final Set<Integer> phases = new HashSet<>();
-    final Set<Integer> detectors = new HashSet<>();
-    final Map<Integer, Integer> updatedPhaseIds = new HashMap<>();
-
-    while (iterator.hasNext()) {
-      final Item item = iterator.next();
-      if (item.tag() != null && item.tag().equals("approach")) {
-        int phaseId = item.get("phase").intValue(-1);
-        if (phaseId >= 0 && !phases.contains(phaseId)) {
-          phases.add(phaseId);
-          Integer prevState = this.phaseIds.getOrDefault(phaseId, 1);
-          final Integer newState = simPhase(hasGreenOrYellow, prevState);
-          if (newState == 3) {
-            hasGreenOrYellow = true;
-          }
-          if (prevState.intValue() != newState.intValue()) {
-            this.phaseIds.put(phaseId, newState);
-            updatedPhaseIds.put(phaseId, newState);
-          }
-        }
-        int detectorId = item.get("detector").intValue(-1);
-        if (detectorId >= 0 && !detectors.contains(detectorId)) {
-          detectors.add(detectorId);
-          final Boolean newState = simDetector();
-          this.detectorIds.put(detectorId, newState);
-          this.vehicleDetectorState.put(detectorId, newState ? 1 : 0);
-        }
-      }
-    }
-
-    final long clk = System.currentTimeMillis() - 30;
-    for (Integer phaseId: updatedPhaseIds.keySet()) {
-      this.didUpdateRemoteSignalPhase(phaseId, updatedPhaseIds.get(phaseId), clk);
-    }
-    for (Integer detectorId: detectorIds.keySet()) {
-      this.vehicleDetectorState.put(detectorId, detectorIds.get(detectorId) ? 1 : 0);
-    }
-    simPedCall();
-    simLatency();
-
-    if (this.simCycles == 10) {
-      this.simCycles = 0;
-    } else {
-      this.simCycles += 1;
-    }
-    this.simTimer.reschedule(SIM_WINDOW_DEFAULT);
-  }
-
-  private void simPedCall() {
-    if (simCycles == 0) {
-      int pedCallState = Math.random() < 0.2 ? 1 : -1;
-      this.pedCall.set(pedCallState);
-    }
-  }
-
-  private void simLatency() {
-    long tsg = System.currentTimeMillis();
-    long tsm = tsg - (long) (50 + Math.random() * 500);
-    this.latency.set(Record.create(2).slot("tsg", tsg).slot("tm", tsm));
-  }
-
-  private Boolean simDetector() {
-    return Math.random() < 0.2;
-  }
-
-  private Integer simPhase(boolean hasGreenOrYellow, Integer prevValue) {
-    // 1 is Red, 2 is Yellow, 3 is Green
-    if (prevValue == 1 && this.simCycles == 0 && !hasGreenOrYellow) {
-      return 3;
-    } else if (prevValue == 2) {
-      return 1;
-    } else if (this.simCycles == 0) {
-      return 2;
-    } else {
-      return prevValue;
+  void didReceiveRemoteScan(Value value) {
+    if (scanRecorder != null) {
+      scanRecorder.append(nodeUri(), System.currentTimeMillis(), value);
     }
+    didUpdateRemoteScan(value);
   }
 
   void didUpdateRemoteScan(Value value) {
     if (value instanceof Record) {
+      if (SCAN_BATCH_WINDOW > 0L) {
+        batchRemoteScan((Record) value);
+        return;
+      }
+      scanReceived = System.currentTimeMillis();
       final Record state = (Record) value;
       final long clk = state.get("clk").longValue(0L);
 
@@ -375,11 +1019,107 @@ public class IntersectionAgent extends AbstractAgent {
         didUpdateRemotePedCall(pc.intValue(), st.intValue(), clk);
       }
 
-      final String coord = state.get("coord").stringValue("");
+      didUpdateRemoteCoord(state.get("coord").stringValue(""));
+      lastScanTime = System.currentTimeMillis();
+      scanReceived = 0L;
+    }
+  }
+
+  void didUpdateRemoteCoord(String coord) {
+    if (!coord.equals(coordMode)) {
+      coordMode = coord;
       if (!this.mode.get().get("coord").stringValue("").equals(coord)) {
         this.mode.set(Record.create(1).slot("coord", coord));
       }
+    }
+  }
+
+  // Accumulates a scan record into the pending batch, last writer wins per
+  // key, and arms a flush at the end of the batch window.
+  void batchRemoteScan(Record state) {
+    if (scanBatch.received == 0L) {
+      scanBatch.received = System.currentTimeMillis();
+    }
+    final long clk = state.get("clk").longValue(0L);
+    final int st = state.get("st").intValue(0);
+    for (Item item : state) {
+      final String key = item.key().stringValue(null);
+      if (key == null) {
+        continue;
+      }
+      final int kind;
+      switch (key) {
+        case "p":
+          kind = ScanBatch.SIGNAL_PHASE;
+          break;
+        case "d":
+          kind = ScanBatch.VEHICLE_DETECTOR;
+          break;
+        case "pp":
+          kind = ScanBatch.PED_PHASE;
+          break;
+        case "pc":
+          kind = ScanBatch.PED_CALL;
+          break;
+        case "coord":
+          scanBatch.coord = item.toValue().stringValue("");
+          continue;
+        default:
+          continue;
+      }
+      final int id = item.toValue().intValue();
+      if (ScanBatch.accepts(id)) {
+        scanBatch.put(kind, id, st, clk);
+      } else {
+        // out of range ids go straight to the state publishers, which drop them
+        scanReceived = scanBatch.received;
+        didUpdateRemoteScanKey(kind, id, st, clk);
+        scanReceived = 0L;
+      }
+    }
+    if (scanBatch.coord == null) {
+      scanBatch.coord = "";
+    }
+    if (scanFlushTimer == null || !scanFlushTimer.isScheduled()) {
+      scanFlushTimer = setTimer(SCAN_BATCH_WINDOW, this::flushRemoteScan);
+    }
+  }
+
+  void flushRemoteScan() {
+    try {
+      scanReceived = scanBatch.received;
+      for (int kind = 0; kind < ScanBatch.KIND_COUNT; kind += 1) {
+        for (int i = 0, n = scanBatch.dirtyCount(kind); i < n; i += 1) {
+          final int id = scanBatch.dirtyId(kind, i);
+          didUpdateRemoteScanKey(kind, id, scanBatch.state(kind, id), scanBatch.clock(kind, id));
+        }
+      }
+      if (scanBatch.coord != null) {
+        didUpdateRemoteCoord(scanBatch.coord);
+      }
       lastScanTime = System.currentTimeMillis();
+    } finally {
+      scanReceived = 0L;
+      scanBatch.clear();
+    }
+  }
+
+  void didUpdateRemoteScanKey(int kind, int id, int st, long clk) {
+    switch (kind) {
+      case ScanBatch.SIGNAL_PHASE:
+        didUpdateRemoteSignalPhase(id, st, clk);
+        break;
+      case ScanBatch.VEHICLE_DETECTOR:
+        didUpdateRemoteVehicleDetector(id, st, clk);
+        break;
+      case ScanBatch.PED_PHASE:
+        didUpdateRemotePedPhase(id, st, clk);
+        break;
+      case ScanBatch.PED_CALL:
+        didUpdateRemotePedCall(id, st, clk);
+        break;
+      default:
+        break;
     }
   }
 
@@ -388,43 +1128,95 @@ public class IntersectionAgent extends AbstractAgent {
   void
   didUpdateRemoteSignalPhase(int p, int st, long clk) {
     //System.out.println(nodeUri() + " didUpdateRemoteSignalPhase p: " + p + "; st: " + st);
-    signalPhaseState.put(p, st);
+    // controllers rescan unchanged states, which must not rerun the update
+    // hooks, tensor updates, or KPI recounts
+    final int oldState = signalPhases.put(p, st, scanReceived);
+    if (oldState != st) {
+      didUpdateSignalPhase(p, st, StatePublisher.boxed(oldState));
+    }
 
     SignalPhaseModel model = signalPhaseModels.get(p);
     if (model == null) {
       model = new SignalPhaseModel(p);
+      model.setAccuracy(predictionAccuracy);
       signalPhaseModels = signalPhaseModels.updated(p, model);
     }
-    final long lag = System.currentTimeMillis() - clk;
+    final long lag = now() - clk;
+    clockLag = lag;
     final boolean modelChanged = model.updateState(st, clk);
-    if (modelChanged && model.hasCycled() && !ENABLED.contains(nodeUri())) {
-      if (model.isPredictable()) {
-        final long t13 = model.nextRedToGreen() + lag;
-        final long t32 = model.nextGreenToYellow() + lag;
-        final long t21 = model.nextYellowToRed() + lag;
-        if (t13 < t32 && t13 < t21) {
-          signalPhaseEvents.put(p, new SignalPhaseEvent(t13, 3));
-        } else if (t32 < t21 && t32 < t13) {
-          signalPhaseEvents.put(p, new SignalPhaseEvent(t32, 2));
-        } else if (t21 < t13 && t21 < t32) {
-          signalPhaseEvents.put(p, new SignalPhaseEvent(t21, 1));
-        }
-      } else if (model.isUnpredictable()) {
-        // enable learning
+    forecastChanged |= modelChanged;
+    if (modelChanged) {
+      final SignalPhaseEvent predicted = signalPhaseEvents.get(p);
+      final Record transition = Record.create(5).slot("p", p).slot("st", st).slot("clk", clk + lag);
+      if (predicted != null && predicted.state == st) {
+        transition.slot("err", clk + lag - predicted.time);
+      }
+      phaseTransition.set(transition);
+      if (model.hasCycled() && !ENABLED.contains(nodeUri())) {
+        schedulePhaseTransition(p, model, clk, lag);
+      }
+    }
+  }
+
+  // Corrects the predicted next transition of phase p from its latest
+  // actual transition, at controller time clk, and files its deadline on
+  // the plane's timer wheel.
+  void schedulePhaseTransition(int p, SignalPhaseModel model, long clk, long lag) {
+    final SignalPhaseEvent event = model.predictTransition(clk);
+    PhaseTimer timer = phaseTimers.get(p);
+    if (event == null) {
+      if (timer != null) {
+        TimerWheel.shared().cancel(timer);
       }
+      return;
     }
+    if (timer == null) {
+      timer = new PhaseTimer(this, p);
+      phaseTimers = phaseTimers.updated(p, timer);
+    }
+    timer.time = event.time;
+    timer.lag = lag;
+    event.time += lag;
+    signalPhaseEvents.put(p, event);
+    TimerWheel.shared().schedule(timer, event.time);
+  }
+
+  // predicted transition deadlines fired by the timer wheel
+  @SwimLane("firePhaseTransition")
+  public CommandLane<Value> firePhaseTransition = this.<Value>commandLane()
+      .onCommand(this::didFirePhaseTransition);
+
+  void didFirePhaseTransition(Value value) {
+    final int p = value.get("p").intValue(0);
+    final long time = value.get("clk").longValue(0L);
+    final PhaseTimer timer = phaseTimers.get(p);
+    final SignalPhaseEvent event = signalPhaseEvents.get(p);
+    final SignalPhaseModel model = signalPhaseModels.get(p);
+    if (timer == null || timer.time != time || event == null || model == null) {
+      return; // corrected by an actual transition since this deadline fired
+    }
+    phaseTransition.set(Record.create(5).slot("p", p).slot("st", event.state).slot("clk", event.time)
+        .slot("conf", event.confidence).slot("predicted", true));
+    // roll forward to the following transition of the projected cycle
+    schedulePhaseTransition(p, model, time, timer.lag);
   }
 
   void didUpdateRemoteVehicleDetector(int d, int st, long clk) {
-    vehicleDetectorState.put(d, st);
+    final int oldState = vehicleDetectors.put(d, st, scanReceived);
+    if (oldState != st) {
+      didUpdateVehicleDetector(d, st, StatePublisher.boxed(oldState));
+    }
   }
 
   void didUpdateRemotePedPhase(int pp, int st, long clk) {
-    pedPhaseState.put(pp, st);
+    pedPhases.put(pp, st, scanReceived);
   }
 
   void didUpdateRemotePedCall(int pc, int st, long clk) {
-    pedCallState.put(pc, st);
+    final int oldState = pedCalls.put(pc, st, scanReceived);
+    if (oldState != st) {
+      didUpdatePedCall(pc, st, StatePublisher.boxed(oldState));
+    }
   }
 
   public void linkLatency() {
@@ -447,38 +1239,90 @@ public class IntersectionAgent extends AbstractAgent {
   }
 
   void didSetRemoteLatency(Value newValue) {
+    // latencies are windowed by wall time, but tsg is on the controller clock
+    final long t = System.currentTimeMillis();
+    final long tsg = newValue.get("tsg").longValue(0L);
+    final long tm = newValue.get("tm").longValue(0L);
+    if (tsg != 0L && tm != 0L) {
+      latencyStats.record(LatencyStats.CONTROLLER_TO_GATEWAY, t, Math.abs(tsg - tm));
+      latencyStats.record(LatencyStats.GATEWAY_TO_SERVER, t, now() - tsg);
+    }
     latency.set(newValue);
   }
 
   @SwimLane("addInfo")
   public CommandLane<Value> addInfo = this.<Value>commandLane().onCommand(value -> {
-    info.set(value);
+    setIfChanged(info, value);
   });
 
   @SwimLane("addSchematic")
   public CommandLane<Value> addSchematic = this.<Value>commandLane().onCommand(value -> {
-    schematic.set(value);
+    setIfChanged(schematic, value);
+  });
+
+  // info and schematic of this intersection, sent together by the loader
+  @SwimLane("load")
+  public CommandLane<Value> load = this.<Value>commandLane().onCommand(value -> {
+    final Value newInfo = value.get("info");
+    if (newInfo.isDefined()) {
+      setIfChanged(info, newInfo);
+    }
+    final Value newSchematic = value.get("schematic");
+    if (newSchematic.isDefined()) {
+      setIfChanged(schematic, newSchematic);
+    }
+  });
+
+  // scan records from the plane simulator, batched per tick, with the
+  // simulated ped call and the latency of the batch as named slots
+  @SwimLane("addScans")
+  public CommandLane<Value> addScans = this.<Value>commandLane().onCommand(value -> {
+    for (Item item : value) {
+      final String key = item.key().stringValue(null);
+      if (key == null) {
+        didUpdateRemoteScan(item.toValue());
+      } else if ("pedCall".equals(key)) {
+        setIfChanged(pedCall, item.toValue().intValue());
+      } else if ("latency".equals(key)) {
+        didSetRemoteLatency(item.toValue());
+      }
+    }
   });
 
   @Override
   public void didStart() {
     System.out.println(nodeUri() + " didStart");
-    if (simMode) {
+    signalPhases.bind(this, signalPhaseState, latencyStats);
+    vehicleDetectors.bind(this, vehicleDetectorState, latencyStats);
+    pedPhases.bind(this, pedPhaseState, latencyStats);
+    pedCalls.bind(this, pedCallState, latencyStats);
+    initStateRollups();
+    // in replay mode, the plane replays scans into addScans
+    if (simMode && !REPLAY_MODE) {
+      // the plane simulator drives the scan and latency lanes
       this.mode.set(Record.create(1).slot("coord", "SYNC"));
-      simTimer = setTimer(Math.round(Math.random() * SIM_START_DELAY), this::simScan);
       this.pedCall.set(-1);
-    } else {
+    } else if (!REPLAY_MODE) {
       linkInfo();
       linkSchematic();
       linkScan();
       linkLatency();
     }
     initIntersectionTensor();
-    sampleTimer = setTimer(SAMPLE_WINDOW, this::sampleIntersectionTensor);
+    if (STORE_DIR != null) {
+      loadStores(); // starts sampling once loaded
+    } else {
+      sampleTimer = setTimer(samplePeriod(), this::sampleIntersectionTensor);
+    }
+    latencyTimer = setTimer(LATENCY_PUBLISH_PERIOD, this::publishLatency);
   }
 
   @Override
   public void willStop() {
+    signalPhases.close();
+    vehicleDetectors.close();
+    pedPhases.close();
+    pedCalls.close();
     unlinkScan();
     unlinkSchematic();
     unlinkInfo();
@@ -487,9 +1331,68 @@ public class IntersectionAgent extends AbstractAgent {
       sampleTimer.cancel();
       sampleTimer = null;
     }
+    if (latencyTimer != null) {
+      latencyTimer.cancel();
+      latencyTimer = null;
+    }
+    if (storeLoadTimer != null) {
+      storeLoadTimer.cancel();
+      storeLoadTimer = null;
+    }
+    storeLoading = null;
+    if (store != null && unstoredSamples > 0) {
+      storeHistory(now());
+    }
+    try {
+      flushStores();
+    } catch (IOException cause) {
+      System.err.println(nodeUri() + " failed to store history: " + cause);
+    }
+    if (scanFlushTimer != null) {
+      scanFlushTimer.cancel();
+      scanFlushTimer = null;
+    }
+    for (PhaseTimer timer : phaseTimers.values()) {
+      TimerWheel.shared().cancel(timer);
+    }
+    phaseTimers = HashTrieMap.empty();
+  }
+
+  // Samples, controller lag, and phase deadlines are timed by the clock of
+  // the plane's simulation, if any, which can run faster than the wall
+  // clock; processing latency is always measured on the wall clock.
+  static long now() {
+    return TrafficSimulator.currentTimeMillis();
+  }
+
+  // wall clock milliseconds per sample window
+  static long samplePeriod() {
+    return Math.max((long) (SAMPLE_WINDOW / TrafficSimulator.clockSpeed()), 1L);
   }
 
   static final String TRAFFIC_HOST = System.getProperty("trafficware.api.host",
       "warps://traffic.swim.services");
   static final Uri TRAFFIC_HOST_URI = Uri.parse(TRAFFIC_HOST);
+  static final Uri FIRE_PHASE_TRANSITION = Uri.parse("firePhaseTransition");
+}
+
+// Predicted transition deadline of one phase. Fires on the timer wheel
+// thread, so it only commands the agent, which checks that the deadline is
+// still current before acting on it.
+final class PhaseTimer extends TimerWheel.Timer {
+  final IntersectionAgent agent;
+  final int phaseId;
+  volatile long time; // predicted transition, in controller time
+  long lag; // controller clock lag at the time of the prediction
+
+  PhaseTimer(IntersectionAgent agent, int phaseId) {
+    this.agent = agent;
+    this.phaseId = phaseId;
+  }
+
+  @Override
+  void fire() {
+    this.agent.command(this.agent.nodeUri(), IntersectionAgent.FIRE_PHASE_TRANSITION,
+        Record.create(2).slot("p", this.phaseId).slot("clk", this.time));
+  }
 }
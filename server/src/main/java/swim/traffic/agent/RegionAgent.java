@@ -0,0 +1,101 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import swim.api.SwimLane;
+import swim.api.SwimResident;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.JoinValueLane;
+import swim.api.lane.ValueLane;
+import swim.structure.Value;
+import swim.traffic.model.TrafficKpi;
+import swim.uri.Uri;
+
+// Top tier of the intersection -> tile -> city -> region hierarchy. Joins
+// the kpi and status totals of the cities that register with it.
+public class RegionAgent extends AbstractAgent {
+
+  @SwimLane("cities/kpi")
+  @SwimResident
+  public JoinValueLane<Uri, TrafficKpi> cityKpis = this.<Uri, TrafficKpi>joinValueLane()
+      .valueForm(TrafficKpi.form())
+      .didUpdate(this::didUpdateCityKpi)
+      .didRemove(this::didRemoveCityKpi);
+
+  @SwimLane("cities/status")
+  @SwimResident
+  public JoinValueLane<Uri, Value> cityStatuses = this.<Uri, Value>joinValueLane()
+      .didUpdate(this::didUpdateCityStatus)
+      .didRemove(this::didRemoveCityStatus);
+
+  final TrafficRollup rollup = new TrafficRollup();
+
+  @SwimLane("kpi")
+  public ValueLane<TrafficKpi> kpi;
+
+  // number of intersections, and number in each info status
+  @SwimLane("status")
+  public ValueLane<Value> status;
+
+  void didUpdateCityKpi(Uri cityUri, TrafficKpi newKpi, TrafficKpi oldKpi) {
+    rollup.updateKpi(newKpi, oldKpi);
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveCityKpi(Uri cityUri, TrafficKpi oldKpi) {
+    didUpdateCityKpi(cityUri, null, oldKpi);
+  }
+
+  void didUpdateCityStatus(Uri cityUri, Value newStatus, Value oldStatus) {
+    rollup.updateStatuses(newStatus, oldStatus);
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveCityStatus(Uri cityUri, Value oldStatus) {
+    didUpdateCityStatus(cityUri, null, oldStatus);
+  }
+
+  @SwimLane("addCity")
+  public CommandLane<Value> addCity = this.<Value>commandLane().onCommand(value -> {
+    final Uri cityUri = Uri.parse(value.stringValue());
+    if (!cityKpis.containsKey(cityUri)) {
+      cityKpis.downlink(cityUri).nodeUri(cityUri).laneUri(CITY_KPI).open();
+      cityStatuses.downlink(cityUri).nodeUri(cityUri).laneUri(CITY_STATUS).open();
+    }
+  });
+
+  @Override
+  public void didStart() {
+    initRollup();
+  }
+
+  // Resident joins are restored without update callbacks, so the rollup
+  // totals are rebuilt from their contents on start; otherwise the first
+  // update of each restored city would subtract a value never added.
+  void initRollup() {
+    for (TrafficKpi cityKpi : cityKpis.values()) {
+      rollup.updateKpi(cityKpi, null);
+    }
+    for (Value cityStatus : cityStatuses.values()) {
+      rollup.updateStatuses(cityStatus, null);
+    }
+    rollup.publish(kpi, status);
+  }
+
+  static final Uri CITY_KPI = Uri.parse("kpi");
+  static final Uri CITY_STATUS = Uri.parse("status");
+
+}
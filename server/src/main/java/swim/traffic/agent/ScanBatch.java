@@ -0,0 +1,113 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import java.util.Arrays;
+import swim.traffic.model.IntersectionTensor;
+
+/**
+ * Coalesces controller scan updates by kind and id, keeping only the last
+ * state and clock written for each key. Storage is dense arrays indexed by
+ * controller id, so accumulating an update never allocates once the arrays
+ * have grown to fit the intersection. Ids share the range of tensor slots,
+ * {@link IntersectionTensor#MAX_ID}, like the state publishers they feed;
+ * the arrays only grow as far as the largest id seen.
+ */
+final class ScanBatch {
+  final int[][] states = new int[KIND_COUNT][];
+  final long[][] clocks = new long[KIND_COUNT][];
+  final boolean[][] dirty = new boolean[KIND_COUNT][];
+  final int[][] dirtyIds = new int[KIND_COUNT][];
+  final int[] dirtyCounts = new int[KIND_COUNT];
+  String coord;
+  long received; // arrival time of the oldest pending update, or 0
+
+  ScanBatch() {
+    for (int kind = 0; kind < KIND_COUNT; kind += 1) {
+      this.states[kind] = new int[INITIAL_CAPACITY];
+      this.clocks[kind] = new long[INITIAL_CAPACITY];
+      this.dirty[kind] = new boolean[INITIAL_CAPACITY];
+      this.dirtyIds[kind] = new int[INITIAL_CAPACITY];
+    }
+  }
+
+  boolean isEmpty() {
+    for (int kind = 0; kind < KIND_COUNT; kind += 1) {
+      if (this.dirtyCounts[kind] != 0) {
+        return false;
+      }
+    }
+    return this.coord == null;
+  }
+
+  static boolean accepts(int id) {
+    return IntersectionTensor.isValidId(id);
+  }
+
+  void put(int kind, int id, int state, long clk) {
+    if (id >= this.states[kind].length) {
+      final int capacity = Math.min(Math.max(id + 1, this.states[kind].length << 1),
+                                    IntersectionTensor.MAX_ID);
+      this.states[kind] = Arrays.copyOf(this.states[kind], capacity);
+      this.clocks[kind] = Arrays.copyOf(this.clocks[kind], capacity);
+      this.dirty[kind] = Arrays.copyOf(this.dirty[kind], capacity);
+      this.dirtyIds[kind] = Arrays.copyOf(this.dirtyIds[kind], capacity);
+    }
+    this.states[kind][id] = state;
+    this.clocks[kind][id] = clk;
+    if (!this.dirty[kind][id]) {
+      this.dirty[kind][id] = true;
+      this.dirtyIds[kind][this.dirtyCounts[kind]] = id;
+      this.dirtyCounts[kind] += 1;
+    }
+  }
+
+  int dirtyCount(int kind) {
+    return this.dirtyCounts[kind];
+  }
+
+  int dirtyId(int kind, int index) {
+    return this.dirtyIds[kind][index];
+  }
+
+  int state(int kind, int id) {
+    return this.states[kind][id];
+  }
+
+  long clock(int kind, int id) {
+    return this.clocks[kind][id];
+  }
+
+  void clear() {
+    for (int kind = 0; kind < KIND_COUNT; kind += 1) {
+      final int[] ids = this.dirtyIds[kind];
+      final boolean[] dirty = this.dirty[kind];
+      for (int i = 0, n = this.dirtyCounts[kind]; i < n; i += 1) {
+        dirty[ids[i]] = false;
+      }
+      this.dirtyCounts[kind] = 0;
+    }
+    this.coord = null;
+    this.received = 0L;
+  }
+
+  static final int SIGNAL_PHASE = 0;
+  static final int VEHICLE_DETECTOR = 1;
+  static final int PED_PHASE = 2;
+  static final int PED_CALL = 3;
+  static final int KIND_COUNT = 4;
+
+  static final int INITIAL_CAPACITY = 16;
+}
@@ -0,0 +1,201 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import java.util.Arrays;
+import java.util.Map;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.MapLane;
+import swim.concurrent.TimerRef;
+import swim.traffic.model.IntersectionTensor;
+import swim.traffic.model.LatencyStats;
+
+/**
+ * Authoritative controller states of one kind, published to a map lane
+ * under a rate limit. The agent reads and writes states here, and runs its
+ * own update hooks immediately; the lane is only a publication of these
+ * states for subscribers. Keys written within {@code interval} milliseconds
+ * of each other are coalesced into one flush, so each key emits at most one
+ * event per interval, and keys whose state is unchanged since it was last
+ * published emit none. An interval of {@code 0} publishes every change as
+ * it is written.
+ * <p>
+ * Controller ids are small and dense, so states are kept unboxed in an
+ * array indexed by id, grown to the largest id seen, with {@link #NO_STATE}
+ * marking ids that have none. Ids outside the tensor id range are dropped.
+ * <p>
+ * Each put carries the wall clock time its update arrived at this server,
+ * and each publication records the time since the oldest update it carries
+ * arrived as {@link LatencyStats#SERVER_TO_PUBLISH} latency, so that the
+ * coalescing delay is counted.
+ */
+final class StatePublisher {
+  final long interval;
+  int[] states = EMPTY_IDS; // state of each id, or NO_STATE
+  boolean[] dirty = EMPTY_FLAGS; // whether each id awaits the next flush
+  int[] dirtyIds = EMPTY_IDS;
+  int dirtyCount;
+  long received; // arrival time of the oldest update awaiting the next flush, or 0
+  AbstractAgent agent;
+  MapLane<Integer, Integer> lane;
+  LatencyStats latencyStats;
+  TimerRef flushTimer;
+
+  StatePublisher(long interval) {
+    this.interval = interval;
+  }
+
+  /**
+   * Publishes to {@code lane}, adopting the states it already holds, as
+   * restored for a resident lane, and records publication latency into
+   * {@code latencyStats}.
+   */
+  void bind(AbstractAgent agent, MapLane<Integer, Integer> lane, LatencyStats latencyStats) {
+    this.agent = agent;
+    this.lane = lane;
+    this.latencyStats = latencyStats;
+    Arrays.fill(this.states, NO_STATE);
+    for (Map.Entry<Integer, Integer> entry : lane.entrySet()) {
+      final int id = entry.getKey();
+      if (IntersectionTensor.isValidId(id)) {
+        grow(id);
+        this.states[id] = entry.getValue();
+      }
+    }
+  }
+
+  /**
+   * Returns the state of {@code id}, or {@link #NO_STATE} if it has none.
+   */
+  int get(int id) {
+    return id >= 0 && id < this.states.length ? this.states[id] : NO_STATE;
+  }
+
+  /**
+   * Returns the least id no less than {@code id} that has a state, or
+   * {@code -1} if there is none, so that ids can be visited in order.
+   */
+  int nextId(int id) {
+    for (int i = Math.max(id, 0); i < this.states.length; i += 1) {
+      if (this.states[i] != NO_STATE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Sets the state of {@code id}, which arrived at wall clock time
+   * {@code received}, or {@code 0} if unknown, scheduling its publication,
+   * and returns its previous state, or {@link #NO_STATE} if it had none.
+   * Rewriting an unchanged state is a no-op; so is writing an out of range
+   * id, which returns {@code state} as though it were unchanged, so that
+   * callers don't run their update hooks for it.
+   */
+  int put(int id, int state, long received) {
+    if (!IntersectionTensor.isValidId(id)) {
+      return state;
+    }
+    grow(id);
+    final int oldState = this.states[id];
+    this.states[id] = state;
+    if (oldState == state) {
+      return oldState;
+    } else if (this.interval <= 0L) {
+      publish(id, state);
+      recordLatency(received);
+      return oldState;
+    }
+    if (received != 0L && (this.received == 0L || received < this.received)) {
+      this.received = received;
+    }
+    if (!this.dirty[id]) {
+      this.dirty[id] = true;
+      if (this.dirtyCount == this.dirtyIds.length) {
+        this.dirtyIds = Arrays.copyOf(this.dirtyIds, Math.max(this.dirtyCount << 1, INITIAL_CAPACITY));
+      }
+      this.dirtyIds[this.dirtyCount] = id;
+      this.dirtyCount += 1;
+      if (this.flushTimer == null || !this.flushTimer.isScheduled()) {
+        this.flushTimer = this.agent.setTimer(this.interval, this::flush);
+      }
+    }
+    return oldState;
+  }
+
+  void grow(int id) {
+    final int oldLength = this.states.length;
+    if (id >= oldLength) {
+      final int newLength = Math.min(Math.max(id + 1, Math.max(oldLength << 1, INITIAL_CAPACITY)),
+                                     IntersectionTensor.MAX_ID);
+      this.states = Arrays.copyOf(this.states, newLength);
+      Arrays.fill(this.states, oldLength, newLength, NO_STATE);
+      this.dirty = Arrays.copyOf(this.dirty, newLength);
+    }
+  }
+
+  void flush() {
+    for (int i = 0; i < this.dirtyCount; i += 1) {
+      final int id = this.dirtyIds[i];
+      this.dirty[id] = false;
+      publish(id, this.states[id]);
+    }
+    this.dirtyCount = 0;
+    recordLatency(this.received);
+    this.received = 0L;
+  }
+
+  void recordLatency(long received) {
+    if (received != 0L && this.latencyStats != null) {
+      final long published = System.currentTimeMillis();
+      this.latencyStats.record(LatencyStats.SERVER_TO_PUBLISH, published, published - received);
+    }
+  }
+
+  void publish(int id, int state) {
+    final Integer published = this.lane.get(id);
+    if (published == null || published != state) {
+      this.lane.put(id, state);
+    }
+  }
+
+  void close() {
+    if (this.flushTimer != null) {
+      this.flushTimer.cancel();
+      this.flushTimer = null;
+    }
+    if (this.lane != null) {
+      flush();
+    }
+  }
+
+  // boxes a state for the update hooks, which take null to mean no state
+  static Integer boxed(int state) {
+    return state != NO_STATE ? state : null;
+  }
+
+  static final int NO_STATE = Integer.MIN_VALUE;
+  static final int INITIAL_CAPACITY = 8;
+  static final int[] EMPTY_IDS = new int[0];
+  static final boolean[] EMPTY_FLAGS = new boolean[0];
+
+  // base publication interval of the state lanes, in milliseconds;
+  // publish.interval.<kind> overrides it per lane
+  static final long DEFAULT_INTERVAL = Long.getLong("publish.interval", 0L);
+
+  static long interval(String kind) {
+    return Long.getLong("publish.interval." + kind, DEFAULT_INTERVAL);
+  }
+}
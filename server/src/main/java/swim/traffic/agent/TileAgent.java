@@ -0,0 +1,122 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import swim.api.SwimLane;
+import swim.api.SwimResident;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.JoinValueLane;
+import swim.api.lane.ValueLane;
+import swim.structure.Value;
+import swim.traffic.model.TrafficKpi;
+import swim.uri.Uri;
+
+// District tier of the intersection -> tile -> city -> region hierarchy.
+// Joins the info and KPIs of the intersections in one map tile of a city,
+// as assigned by the city agent, so that map clients only sync the tiles
+// in view, and so that the city only joins the totals of its tiles.
+public class TileAgent extends AbstractAgent {
+
+  @SwimLane("intersections")
+  @SwimResident
+  public JoinValueLane<Uri, Value> intersections = this.<Uri, Value>joinValueLane()
+      .didUpdate(this::didUpdateIntersection)
+      .didRemove(this::didRemoveIntersection);
+
+  @SwimLane("intersections/kpi")
+  public JoinValueLane<Uri, TrafficKpi> intersectionKpis = this.<Uri, TrafficKpi>joinValueLane()
+      .valueForm(TrafficKpi.form())
+      .didUpdate(this::didUpdateIntersectionKpi)
+      .didRemove(this::didRemoveIntersectionKpi);
+
+  final TrafficRollup rollup = new TrafficRollup();
+
+  @SwimLane("kpi")
+  public ValueLane<TrafficKpi> kpi;
+
+  // number of intersections, and number in each info status
+  @SwimLane("status")
+  public ValueLane<Value> status;
+
+  void didUpdateIntersection(Uri intersectionUri, Value newInfo, Value oldInfo) {
+    if (oldInfo != null && oldInfo.isDefined()) {
+      rollup.updateStatus(oldInfo.get("status").intValue(0), -1);
+    }
+    if (newInfo != null && newInfo.isDefined()) {
+      rollup.updateStatus(newInfo.get("status").intValue(0), 1);
+    }
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveIntersection(Uri intersectionUri, Value oldInfo) {
+    didUpdateIntersection(intersectionUri, null, oldInfo);
+  }
+
+  void didUpdateIntersectionKpi(Uri intersectionUri, TrafficKpi newKpi, TrafficKpi oldKpi) {
+    rollup.updateKpi(newKpi, oldKpi);
+    rollup.publish(kpi, status);
+  }
+
+  void didRemoveIntersectionKpi(Uri intersectionUri, TrafficKpi oldKpi) {
+    didUpdateIntersectionKpi(intersectionUri, null, oldKpi);
+  }
+
+  @SwimLane("addIntersection")
+  public CommandLane<Value> addIntersection = this.<Value>commandLane().onCommand(value -> {
+    final Uri intersectionUri = Uri.parse(value.stringValue());
+    if (!intersections.containsKey(intersectionUri)) {
+      intersections.downlink(intersectionUri)
+          .nodeUri(intersectionUri)
+          .laneUri(INTERSECTION_INFO)
+          .open();
+    }
+    if (!intersectionKpis.containsKey(intersectionUri)) {
+      intersectionKpis.downlink(intersectionUri)
+          .nodeUri(intersectionUri)
+          .laneUri(INTERSECTION_KPI)
+          .open();
+    }
+  });
+
+  @SwimLane("removeIntersection")
+  public CommandLane<Value> removeIntersection = this.<Value>commandLane().onCommand(value -> {
+    final Uri intersectionUri = Uri.parse(value.stringValue());
+    intersections.remove(intersectionUri);
+    intersectionKpis.remove(intersectionUri);
+  });
+
+  @Override
+  public void didStart() {
+    initRollup();
+  }
+
+  // The resident info join is restored without update callbacks, so the
+  // status totals are rebuilt from its contents on start; otherwise the
+  // first update of each restored intersection would subtract a status
+  // never added. The kpi join isn't resident, and starts out empty.
+  void initRollup() {
+    for (Value info : intersections.values()) {
+      if (info != null && info.isDefined()) {
+        rollup.updateStatus(info.get("status").intValue(0), 1);
+      }
+    }
+    rollup.publish(kpi, status);
+  }
+
+  static final Uri INTERSECTION_INFO = Uri.parse("intersection/info");
+  static final Uri INTERSECTION_KPI = Uri.parse("intersection/kpi");
+
+}
@@ -0,0 +1,197 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import java.util.ArrayList;
+import swim.traffic.sim.TrafficSimulator;
+
+/**
+ * Plane-wide hierarchical timing wheel for predicted signal phase
+ * transitions, so that deadlines for every phase of every intersection
+ * share one scheduler thread instead of each agent holding its own timers.
+ *
+ * <p>Time advances in ticks of {@code TICK} milliseconds. Each of the
+ * {@code LEVELS} wheels has {@code SLOTS} slots, and each slot of a wheel
+ * spans a full turn of the wheel below it; a timer is filed in the lowest
+ * wheel whose span covers its deadline, and is cascaded down a wheel each
+ * time the wheel below completes a turn. Scheduling and cancelling are
+ * constant time. Timers fire on the wheel thread, so {@link Timer#fire()}
+ * should only hand work off, such as by commanding a lane. Deadlines are
+ * kept on the same clock agents sample by, which is the simulated clock
+ * when the plane runs a simulation.
+ */
+final class TimerWheel implements Runnable {
+  final long origin;
+  final Timer[][] wheels; // circular list sentinels
+  final ArrayList<Timer> expired;
+  long now; // ticks since origin
+  Thread thread;
+
+  TimerWheel(long origin) {
+    this.origin = origin;
+    this.wheels = new Timer[LEVELS][SLOTS];
+    for (int level = 0; level < LEVELS; level += 1) {
+      for (int slot = 0; slot < SLOTS; slot += 1) {
+        final Timer sentinel = new Sentinel();
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        this.wheels[level][slot] = sentinel;
+      }
+    }
+    this.expired = new ArrayList<Timer>();
+  }
+
+  /**
+   * Schedules {@code timer} to fire at {@code time}, in epoch milliseconds,
+   * replacing any deadline it already had. Deadlines in the past fire on
+   * the next tick.
+   */
+  synchronized void schedule(Timer timer, long time) {
+    if (timer.next != null) {
+      unlink(timer);
+    }
+    timer.deadline = Math.max((time - this.origin + TICK - 1L) / TICK, this.now + 1L);
+    file(timer);
+  }
+
+  synchronized void cancel(Timer timer) {
+    if (timer.next != null) {
+      unlink(timer);
+    }
+  }
+
+  void file(Timer timer) {
+    final long delta = timer.deadline - this.now;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level += 1;
+    }
+    // deadlines beyond the top wheel wait in its furthest slot
+    final long deadline = Math.min(timer.deadline, this.now + (1L << (SLOT_BITS * LEVELS)) - 1L);
+    final Timer sentinel = this.wheels[level][(int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK];
+    timer.prev = sentinel.prev;
+    timer.next = sentinel;
+    sentinel.prev.next = timer;
+    sentinel.prev = timer;
+  }
+
+  static void unlink(Timer timer) {
+    timer.prev.next = timer.next;
+    timer.next.prev = timer.prev;
+    timer.prev = null;
+    timer.next = null;
+  }
+
+  // advances one tick, collecting the timers that expire into expired
+  void advance() {
+    this.now += 1L;
+    for (int level = 1; level < LEVELS; level += 1) {
+      if ((this.now & ((1L << (SLOT_BITS * level)) - 1L)) != 0L) {
+        break;
+      }
+      cascade(this.wheels[level][(int) (this.now >>> (SLOT_BITS * level)) & SLOT_MASK]);
+    }
+    final Timer sentinel = this.wheels[0][(int) this.now & SLOT_MASK];
+    Timer timer = sentinel.next;
+    while (timer != sentinel) {
+      final Timer next = timer.next;
+      timer.prev = null;
+      timer.next = null;
+      this.expired.add(timer);
+      timer = next;
+    }
+    sentinel.prev = sentinel;
+    sentinel.next = sentinel;
+  }
+
+  void cascade(Timer sentinel) {
+    Timer timer = sentinel.next;
+    sentinel.prev = sentinel;
+    sentinel.next = sentinel;
+    while (timer != sentinel) {
+      final Timer next = timer.next;
+      file(timer);
+      timer = next;
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final long delay;
+        synchronized (this) {
+          delay = this.origin + (this.now + 1L) * TICK - TrafficSimulator.currentTimeMillis();
+          if (delay <= 0L) {
+            advance();
+          }
+        }
+        if (delay > 0L) {
+          Thread.sleep(Math.max((long) (delay / TrafficSimulator.clockSpeed()), 1L));
+          continue;
+        }
+        for (int i = 0, n = this.expired.size(); i < n; i += 1) {
+          try {
+            this.expired.get(i).fire();
+          } catch (RuntimeException error) {
+            error.printStackTrace();
+          }
+        }
+        this.expired.clear();
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    }
+  }
+
+  synchronized void start() {
+    if (this.thread == null) {
+      this.thread = new Thread(this, "traffic-timer-wheel");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+  }
+
+  abstract static class Timer {
+    Timer prev;
+    Timer next;
+    long deadline; // tick
+
+    abstract void fire();
+  }
+
+  static final class Sentinel extends Timer {
+    @Override
+    void fire() {
+      // never filed
+    }
+  }
+
+  private static TimerWheel shared;
+
+  static synchronized TimerWheel shared() {
+    if (shared == null) {
+      shared = new TimerWheel(TrafficSimulator.currentTimeMillis());
+      shared.start();
+    }
+    return shared;
+  }
+
+  static final long TICK = Long.getLong("timer.wheel.tick", 10L);
+  static final int SLOT_BITS = 6;
+  static final int SLOTS = 1 << SLOT_BITS;
+  static final int SLOT_MASK = SLOTS - 1;
+  static final int LEVELS = 4; // 64^4 ticks, about 46 hours at 10 ms
+}
@@ -0,0 +1,94 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.agent;
+
+import java.util.Map;
+import java.util.TreeMap;
+import swim.api.lane.ValueLane;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.traffic.model.TrafficKpi;
+
+/**
+ * Running KPI and status totals of the members of one aggregation tier,
+ * such as the intersections of a tile, the tiles of a city, or the cities
+ * of a region. Totals are kept up to date from the difference between each
+ * member's old and new values, so no update rescans the members. Status
+ * totals are a record of the number of intersections plus the number in
+ * each info status, which sum the same way at every tier.
+ */
+final class TrafficRollup {
+  final TrafficKpi kpi = new TrafficKpi();
+  final TreeMap<String, Integer> statuses = new TreeMap<>();
+
+  void updateKpi(TrafficKpi newKpi, TrafficKpi oldKpi) {
+    if (oldKpi != null) {
+      this.kpi.subtract(oldKpi);
+    }
+    if (newKpi != null) {
+      this.kpi.add(newKpi);
+    }
+  }
+
+  // adds or removes one intersection in the given info status
+  void updateStatus(int status, int delta) {
+    addStatus(COUNT, delta);
+    addStatus(Integer.toString(status), delta);
+  }
+
+  // replaces a member's status totals
+  void updateStatuses(Value newStatuses, Value oldStatuses) {
+    if (oldStatuses != null) {
+      for (Item item : oldStatuses) {
+        addStatus(item.key().stringValue(COUNT), -item.toValue().intValue(0));
+      }
+    }
+    if (newStatuses != null) {
+      for (Item item : newStatuses) {
+        addStatus(item.key().stringValue(COUNT), item.toValue().intValue(0));
+      }
+    }
+  }
+
+  void addStatus(String key, int delta) {
+    final int count = this.statuses.getOrDefault(key, 0) + delta;
+    if (count != 0) {
+      this.statuses.put(key, count);
+    } else {
+      this.statuses.remove(key);
+    }
+  }
+
+  Value statusValue() {
+    final Record record = Record.create(this.statuses.size());
+    for (Map.Entry<String, Integer> entry : this.statuses.entrySet()) {
+      record.slot(entry.getKey(), entry.getValue());
+    }
+    return record;
+  }
+
+  void publish(ValueLane<TrafficKpi> kpiLane, ValueLane<Value> statusLane) {
+    if (!this.kpi.equals(kpiLane.get())) {
+      kpiLane.set(this.kpi.clone());
+    }
+    final Value status = statusValue();
+    if (!status.equals(statusLane.get())) {
+      statusLane.set(status);
+    }
+  }
+
+  static final String COUNT = "count";
+}
@@ -0,0 +1,164 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Arrays;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Small histogram of non-negative values, such as milliseconds, for the
+ * percentiles of a single intersection. Buckets are log-linear, as in a
+ * {@link LogHistogram}, but with {@code SUB_BUCKETS} sub-buckets per power
+ * of two rather than 32, and plain int counters, so that values up to
+ * {@code 2^20} take 144 counters, and reported percentiles are within about
+ * 12% of the true value. Histograms aren't thread safe; each one belongs to
+ * the agent that records into it. As in {@link CycleStats}, counts are
+ * halved whenever their total reaches {@code limit}, so that old values
+ * fade out of a histogram that is never reset.
+ */
+public final class CompactHistogram {
+  final long maxValue;
+  final int limit;
+  final int[] counts;
+  int count; // total of counts
+  long sum;
+  long max;
+
+  public CompactHistogram(long maxValue, int limit) {
+    if (maxValue <= 0L || maxValue > LogHistogram.MAX_VALUE) {
+      throw new IllegalArgumentException("maxValue: " + maxValue);
+    } else if (limit <= 0) {
+      throw new IllegalArgumentException("limit: " + limit);
+    }
+    this.maxValue = maxValue;
+    this.limit = limit;
+    this.counts = new int[bucket(maxValue) + 1];
+  }
+
+  public void record(long value) {
+    if (value < 0L) {
+      value = 0L;
+    } else if (value > this.maxValue) {
+      value = this.maxValue;
+    }
+    if (this.count >= this.limit) {
+      this.count = 0;
+      for (int i = 0; i < this.counts.length; i += 1) {
+        this.counts[i] >>>= 1;
+        this.count += this.counts[i];
+      }
+      this.sum >>>= 1;
+    }
+    this.counts[bucket(value)] += 1;
+    this.count += 1;
+    this.sum += value;
+    this.max = Math.max(this.max, value);
+  }
+
+  public long count() {
+    return this.count;
+  }
+
+  public long max() {
+    return this.max;
+  }
+
+  public double mean() {
+    return this.count != 0 ? (double) this.sum / (double) this.count : 0.0;
+  }
+
+  /**
+   * Returns the greatest value equivalent to the {@code q} quantile of
+   * recorded values, or {@code 0} if nothing has been recorded.
+   */
+  public long percentile(double q) {
+    if (this.count == 0) {
+      return 0L;
+    }
+    final long rank = Math.max((long) Math.ceil(q * (double) this.count), 1L);
+    long seen = 0L;
+    for (int i = 0; i < this.counts.length; i += 1) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), this.max);
+      }
+    }
+    return this.max;
+  }
+
+  /**
+   * Adds the counts of {@code that} histogram, which must have the same
+   * {@code maxValue}, to this one, without halving them.
+   */
+  public void add(CompactHistogram that) {
+    if (that.maxValue != this.maxValue) {
+      throw new IllegalArgumentException("maxValue mismatch");
+    }
+    for (int i = 0; i < this.counts.length; i += 1) {
+      this.counts[i] += that.counts[i];
+    }
+    this.count += that.count;
+    this.sum += that.sum;
+    this.max = Math.max(this.max, that.max);
+  }
+
+  public void reset() {
+    Arrays.fill(this.counts, 0);
+    this.count = 0;
+    this.sum = 0L;
+    this.max = 0L;
+  }
+
+  /**
+   * Returns a summary record of the count, common percentiles, and maximum,
+   * in the same shape as {@link LogHistogram#toValue()}.
+   */
+  public Value toValue() {
+    return Record.create(6)
+        .slot("count", count())
+        .slot("p50", percentile(0.5))
+        .slot("p90", percentile(0.9))
+        .slot("p99", percentile(0.99))
+        .slot("p999", percentile(0.999))
+        .slot("max", max());
+  }
+
+  static int bucket(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestEquivalent(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((mantissa + 1L) << shift) - 1L;
+  }
+
+  @Override
+  public String toString() {
+    return "CompactHistogram" + '(' + "count: " + count() + ", p50: " + percentile(0.5)
+        + ", p99: " + percentile(0.99) + ", max: " + max() + ')';
+  }
+
+  static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+}
@@ -0,0 +1,164 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Online statistics of the intervals between consecutive occurrences of one
+ * signal phase transition, i.e. of its cycle durations. Keeps a Welford
+ * running mean and variance over all intervals, an exponentially weighted
+ * mean and variance that track recent intervals, and a fixed bucket
+ * histogram whose counts are halved whenever they saturate, so that memory
+ * stays bounded and old intervals fade out. Adding an interval is constant
+ * time and never allocates.
+ */
+public final class CycleStats {
+  long count;
+  double mean;
+  double m2; // sum of squared deviations from the running mean
+  double ewmaMean;
+  double ewmaVariance;
+  final int[] buckets;
+  int bucketTotal;
+
+  public CycleStats() {
+    this.buckets = new int[BUCKET_COUNT];
+  }
+
+  public long count() {
+    return this.count;
+  }
+
+  public double mean() {
+    return this.mean;
+  }
+
+  public double variance() {
+    return this.count > 1L ? this.m2 / (double) (this.count - 1L) : 0.0;
+  }
+
+  public double ewmaMean() {
+    return this.ewmaMean;
+  }
+
+  public double ewmaVariance() {
+    return this.ewmaVariance;
+  }
+
+  public double ewmaDeviation() {
+    return Math.sqrt(this.ewmaVariance);
+  }
+
+  public void add(long interval) {
+    final double x = (double) interval;
+    this.count += 1L;
+    final double delta = x - this.mean;
+    this.mean += delta / (double) this.count;
+    this.m2 += delta * (x - this.mean);
+    if (this.count == 1L) {
+      this.ewmaMean = x;
+      this.ewmaVariance = 0.0;
+    } else {
+      final double diff = x - this.ewmaMean;
+      final double incr = EWMA_ALPHA * diff;
+      this.ewmaMean += incr;
+      this.ewmaVariance = (1.0 - EWMA_ALPHA) * (this.ewmaVariance + diff * incr);
+    }
+    if (this.bucketTotal == BUCKET_LIMIT) {
+      this.bucketTotal = 0;
+      for (int i = 0; i < BUCKET_COUNT; i += 1) {
+        this.buckets[i] >>>= 1;
+        this.bucketTotal += this.buckets[i];
+      }
+    }
+    this.buckets[bucket(interval)] += 1;
+    this.bucketTotal += 1;
+  }
+
+  /**
+   * Returns the upper edge of the histogram bucket holding quantile
+   * {@code q} of recent intervals, or {@code 0} if no intervals have been
+   * added; intervals past the last bucket report the last bucket's edge.
+   */
+  public long quantile(double q) {
+    if (this.bucketTotal == 0) {
+      return 0L;
+    }
+    final int rank = (int) Math.ceil(q * (double) this.bucketTotal);
+    int seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i += 1) {
+      seen += this.buckets[i];
+      if (seen >= rank && seen != 0) {
+        return (long) (i + 1) * BUCKET_WIDTH;
+      }
+    }
+    return (long) BUCKET_COUNT * BUCKET_WIDTH;
+  }
+
+  public void clear() {
+    this.count = 0L;
+    this.mean = 0.0;
+    this.m2 = 0.0;
+    this.ewmaMean = 0.0;
+    this.ewmaVariance = 0.0;
+    Arrays.fill(this.buckets, 0);
+    this.bucketTotal = 0;
+  }
+
+  void writeTo(DataOutput out) throws IOException {
+    out.writeLong(this.count);
+    out.writeDouble(this.mean);
+    out.writeDouble(this.m2);
+    out.writeDouble(this.ewmaMean);
+    out.writeDouble(this.ewmaVariance);
+    for (int i = 0; i < BUCKET_COUNT; i += 1) {
+      out.writeShort(this.buckets[i]);
+    }
+  }
+
+  void readFrom(DataInput in) throws IOException {
+    this.count = in.readLong();
+    this.mean = in.readDouble();
+    this.m2 = in.readDouble();
+    this.ewmaMean = in.readDouble();
+    this.ewmaVariance = in.readDouble();
+    this.bucketTotal = 0;
+    for (int i = 0; i < BUCKET_COUNT; i += 1) {
+      this.buckets[i] = in.readUnsignedShort();
+      this.bucketTotal += this.buckets[i];
+    }
+  }
+
+  static int bucket(long interval) {
+    final long i = interval / BUCKET_WIDTH;
+    return i < 0L ? 0 : i >= BUCKET_COUNT ? BUCKET_COUNT - 1 : (int) i;
+  }
+
+  @Override
+  public String toString() {
+    return "CycleStats" + '(' + "count: " + this.count + ", mean: " + this.mean
+        + ", ewmaMean: " + this.ewmaMean + ", ewmaDeviation: " + ewmaDeviation() + ')';
+  }
+
+  static final double EWMA_ALPHA = 0.2;
+  static final int BUCKET_COUNT = 48;
+  static final long BUCKET_WIDTH = 5000L; // 5 second buckets, up to 4 minute cycles
+  static final int BUCKET_LIMIT = 1024;
+  static final int SERIALIZED_SIZE = 40 + 2 * BUCKET_COUNT;
+}
@@ -0,0 +1,110 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+import swim.util.Murmur3;
+
+/**
+ * Web Mercator map tile, in the {@code zoom/x/y} scheme of slippy maps,
+ * used to partition a city's intersections by location so that clients
+ * can subscribe to just the tiles in view.
+ */
+public final class GeoTile {
+  public final int zoom;
+  public final int x;
+  public final int y;
+
+  public GeoTile(int zoom, int x, int y) {
+    this.zoom = zoom;
+    this.x = x;
+    this.y = y;
+  }
+
+  public static GeoTile containing(double lat, double lng, int zoom) {
+    final int n = 1 << zoom;
+    final double phi = Math.toRadians(Math.max(-MAX_LAT, Math.min(lat, MAX_LAT)));
+    final int x = (int) Math.floor((lng + 180.0) / 360.0 * (double) n);
+    final int y = (int) Math.floor((1.0 - Math.log(Math.tan(phi) + 1.0 / Math.cos(phi)) / Math.PI) / 2.0 * (double) n);
+    return new GeoTile(zoom, Math.max(0, Math.min(x, n - 1)), Math.max(0, Math.min(y, n - 1)));
+  }
+
+  public double west() {
+    return lng(this.x);
+  }
+
+  public double east() {
+    return lng(this.x + 1);
+  }
+
+  public double north() {
+    return lat(this.y);
+  }
+
+  public double south() {
+    return lat(this.y + 1);
+  }
+
+  double lng(int x) {
+    return (double) x / (double) (1 << this.zoom) * 360.0 - 180.0;
+  }
+
+  double lat(int y) {
+    return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * (double) y / (double) (1 << this.zoom)))));
+  }
+
+  public String id() {
+    return this.zoom + "/" + this.x + "/" + this.y;
+  }
+
+  // tile agent of this tile under the city agent at cityUri
+  public Uri nodeUri(Uri cityUri) {
+    return Uri.parse(cityUri.toString() + "/tile/" + id());
+  }
+
+  public Value toValue() {
+    return Record.create(4)
+        .slot("west", west())
+        .slot("south", south())
+        .slot("east", east())
+        .slot("north", north());
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (other instanceof GeoTile) {
+      final GeoTile that = (GeoTile) other;
+      return zoom == that.zoom && x == that.x && y == that.y;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Murmur3.mash(Murmur3.mix(Murmur3.mix(Murmur3.mix(0x3C6EF372, zoom), x), y));
+  }
+
+  @Override
+  public String toString() {
+    return "new" + ' ' + "GeoTile" + '(' + zoom + ", " + x + ", " + y + ')';
+  }
+
+  static final double MAX_LAT = 85.05112878;
+}
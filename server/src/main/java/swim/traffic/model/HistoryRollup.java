@@ -0,0 +1,219 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Arrays;
+
+/**
+ * One tier of a cascade of downsampled intersection histories. Samples are
+ * accumulated into buckets of {@code period} milliseconds, aligned to the
+ * epoch; when a sample arrives for a later bucket, the open bucket closes,
+ * and its weighted mean and its max are recorded in a pair of fixed
+ * capacity rings, keyed by bucket start time. Detector counts are summed
+ * into the mean ring, and the largest count of any one sample is kept in
+ * the max ring. A closed bucket can be fed, with its weight, into the next
+ * tier, so every tier is maintained incrementally in bounded memory.
+ */
+public final class HistoryRollup {
+  final long period;
+  final IntersectionHistory means;
+  final IntersectionHistory maxes;
+  IntersectionTensor meanTensor;
+  IntersectionTensor maxTensor;
+  double[] sums;
+  long[] countSums;
+  long bucketTime;
+  int weight;
+  int closedWeight;
+  long evictedTime;
+
+  public HistoryRollup(long period, int capacity) {
+    if (period <= 0L) {
+      throw new IllegalArgumentException("period: " + period);
+    }
+    this.period = period;
+    this.means = new IntersectionHistory(capacity);
+    this.maxes = new IntersectionHistory(capacity);
+    this.meanTensor = new IntersectionTensor();
+    this.maxTensor = new IntersectionTensor();
+    this.sums = IntersectionHistory.EMPTY_SAMPLES;
+    this.countSums = EMPTY_COUNTS;
+    this.bucketTime = 0L;
+    this.weight = 0;
+  }
+
+  public long period() {
+    return this.period;
+  }
+
+  public IntersectionHistory means() {
+    return this.means;
+  }
+
+  public IntersectionHistory maxes() {
+    return this.maxes;
+  }
+
+  /**
+   * Returns the number of raw samples aggregated into the most recently
+   * closed bucket.
+   */
+  public int closedWeight() {
+    return this.closedWeight;
+  }
+
+  /**
+   * Returns the start time of the bucket evicted from the rings by the most
+   * recent close, or {@code 0} if none was evicted.
+   */
+  public long evictedTime() {
+    return this.evictedTime;
+  }
+
+  /**
+   * Adds a raw sample. Returns {@code true} if it closed a bucket, in which
+   * case the closed bucket is the last entry of {@link #means()} and
+   * {@link #maxes()}.
+   */
+  public boolean add(IntersectionSample sample) {
+    return add(sample.time(), sample, sample, 1);
+  }
+
+  /**
+   * Adds the closed bucket of a finer tier, with the given mean and max and
+   * aggregated over {@code weight} raw samples. Returns {@code true} if it
+   * closed a bucket of this tier.
+   */
+  public boolean add(long time, IntersectionSample mean, IntersectionSample max, int weight) {
+    final long bucketTime = time - Math.floorMod(time, this.period);
+    boolean closed = false;
+    if (this.weight != 0 && bucketTime != this.bucketTime) {
+      close();
+      closed = true;
+    }
+    if (!hasLayout(mean)) {
+      relayout(mean);
+    }
+    this.bucketTime = bucketTime;
+    final IntersectionHistory history = mean.history;
+    final int width = history.width;
+    final int meanOffset = mean.slot * width;
+    final int maxOffset = max.slot * width;
+    final double[] maxValues = this.maxTensor.values;
+    final boolean first = this.weight == 0;
+    for (int i = 0; i < width; i += 1) {
+      this.sums[i] += history.samples[meanOffset + i] * weight;
+      final double value = max.history.samples[maxOffset + i];
+      if (first || value > maxValues[i]) {
+        maxValues[i] = value;
+      }
+    }
+    final int detectorCount = history.vehicleDetectorIds.length;
+    final int[] maxCounts = this.maxTensor.counts;
+    for (int i = 0; i < detectorCount; i += 1) {
+      this.countSums[i] += mean.count(i);
+      final int count = max.count(i);
+      if (first || count > maxCounts[i]) {
+        maxCounts[i] = count;
+      }
+    }
+    this.weight += weight;
+    return closed;
+  }
+
+  void close() {
+    final double[] meanValues = this.meanTensor.values;
+    for (int i = 0; i < this.sums.length; i += 1) {
+      meanValues[i] = this.sums[i] / this.weight;
+    }
+    final int[] meanCounts = this.meanTensor.counts;
+    for (int i = 0; i < this.countSums.length; i += 1) {
+      meanCounts[i] = (int) Math.min(this.countSums[i], Integer.MAX_VALUE);
+    }
+    this.evictedTime = this.means.sample(this.bucketTime, this.meanTensor);
+    this.maxes.sample(this.bucketTime, this.maxTensor);
+    this.closedWeight = this.weight;
+    Arrays.fill(this.sums, 0.0);
+    Arrays.fill(this.countSums, 0L);
+    this.weight = 0;
+  }
+
+  boolean hasLayout(IntersectionSample sample) {
+    final IntersectionHistory history = sample.history;
+    final int phaseCount = history.signalPhaseIds.length;
+    final int detectorCount = history.vehicleDetectorIds.length;
+    return phaseCount == this.meanTensor.signalPhaseCount
+        && detectorCount == this.meanTensor.vehicleDetectorCount
+        && Arrays.equals(history.signalPhaseIds, 0, phaseCount,
+                         this.meanTensor.signalPhaseIds, 0, phaseCount)
+        && Arrays.equals(history.vehicleDetectorIds, 0, detectorCount,
+                         this.meanTensor.vehicleDetectorIds, 0, detectorCount);
+  }
+
+  // Adopts the layout of sample, carrying the sums and maxes of the open
+  // bucket over to the columns of the same phase or detector id. Columns of
+  // ids new to the layout count as zero for the samples already in the
+  // bucket, matching how the rings remap their retained buckets.
+  void relayout(IntersectionSample sample) {
+    final IntersectionHistory history = sample.history;
+    final int[] signalPhaseIds = history.signalPhaseIds;
+    final int[] vehicleDetectorIds = history.vehicleDetectorIds;
+    final IntersectionTensor oldMaxTensor = this.maxTensor;
+    final double[] oldSums = this.sums;
+    final long[] oldCountSums = this.countSums;
+    final IntersectionTensor maxTensor = new IntersectionTensor(signalPhaseIds, vehicleDetectorIds);
+    final double[] sums = new double[history.width];
+    final long[] countSums = new long[vehicleDetectorIds.length];
+    if (this.weight != 0) {
+      final int oldPhasesSize = oldMaxTensor.signalPhaseCount * SignalPhaseTensor.TENSOR_SIZE;
+      final int newPhasesSize = signalPhaseIds.length * SignalPhaseTensor.TENSOR_SIZE;
+      for (int from = 0; from < oldMaxTensor.signalPhaseCount; from += 1) {
+        final int to = IntersectionHistory.indexOf(signalPhaseIds, oldMaxTensor.signalPhaseIds[from]);
+        if (to < 0) {
+          continue;
+        }
+        final int fromOffset = from * SignalPhaseTensor.TENSOR_SIZE;
+        final int toOffset = to * SignalPhaseTensor.TENSOR_SIZE;
+        System.arraycopy(oldSums, fromOffset, sums, toOffset, SignalPhaseTensor.TENSOR_SIZE);
+        System.arraycopy(oldMaxTensor.values, fromOffset, maxTensor.values, toOffset, SignalPhaseTensor.TENSOR_SIZE);
+      }
+      for (int from = 0; from < oldMaxTensor.vehicleDetectorCount; from += 1) {
+        final int to = IntersectionHistory.indexOf(vehicleDetectorIds, oldMaxTensor.vehicleDetectorIds[from]);
+        if (to < 0) {
+          continue;
+        }
+        final int fromOffset = oldPhasesSize + from * VehicleDetectorTensor.TENSOR_SIZE;
+        final int toOffset = newPhasesSize + to * VehicleDetectorTensor.TENSOR_SIZE;
+        System.arraycopy(oldSums, fromOffset, sums, toOffset, VehicleDetectorTensor.TENSOR_SIZE);
+        System.arraycopy(oldMaxTensor.values, fromOffset, maxTensor.values, toOffset,
+                         VehicleDetectorTensor.TENSOR_SIZE);
+        countSums[to] = oldCountSums[from];
+        maxTensor.counts[to] = oldMaxTensor.counts[from];
+      }
+    }
+    this.meanTensor = new IntersectionTensor(signalPhaseIds, vehicleDetectorIds);
+    this.maxTensor = maxTensor;
+    this.sums = sums;
+    this.countSums = countSums;
+  }
+
+  @Override
+  public String toString() {
+    return "HistoryRollup" + '(' + "period: " + this.period + ", capacity: " + this.means.capacity()
+        + ", size: " + this.means.size() + ')';
+  }
+
+  static final long[] EMPTY_COUNTS = new long[0];
+}
@@ -56,13 +56,19 @@ public class IntersectionEvent {
   }
 
   public void update(long time, IntersectionTensor current, IntersectionTensor future) {
-    for (HashTrieMap.Entry<Integer, SignalPhaseTensor> entry : current.signalPhases) {
-      final SignalPhaseEvent event = signalPhase(entry.getKey());
-      event.update(time, entry.getValue(), future.signalPhase(entry.getKey()));
+    for (int i = 0, n = current.signalPhaseCount(); i < n; i += 1) {
+      final int id = current.signalPhaseId(i);
+      final int j = future.indexOfSignalPhase(id);
+      if (j >= 0) {
+        signalPhase(id).update(time, current.red(i), future.red(j));
+      }
     }
-    for (HashTrieMap.Entry<Integer, VehicleDetectorTensor> entry : current.vehicleDetectors) {
-      final VehicleDetectorEvent event = vehicleDetector(entry.getKey());
-      event.update(time, entry.getValue(), future.vehicleDetector(entry.getKey()));
+    for (int i = 0, n = current.vehicleDetectorCount(); i < n; i += 1) {
+      final int id = current.vehicleDetectorId(i);
+      final int j = future.indexOfVehicleDetector(id);
+      if (j >= 0) {
+        vehicleDetector(id).update(time, current.occupancy(i), future.occupancy(j));
+      }
     }
   }
 
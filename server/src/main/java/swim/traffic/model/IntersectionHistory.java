@@ -0,0 +1,345 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity ring buffer of intersection tensor samples, stored as one
+ * flat {@code double[]} of {@code capacity * width} values plus a parallel
+ * {@code long[]} of sample times.
+ */
+public class IntersectionHistory {
+  final int capacity;
+  final long[] times;
+  double[] samples;
+  int[] counts;
+  int[] signalPhaseIds;
+  int[] vehicleDetectorIds;
+  int width;
+  int head; // slot of the oldest sample
+  int size;
+  final IntersectionSample[] views;
+
+  public IntersectionHistory(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity: " + capacity);
+    }
+    this.capacity = capacity;
+    this.times = new long[capacity];
+    this.samples = EMPTY_SAMPLES;
+    this.counts = EMPTY_IDS;
+    this.signalPhaseIds = EMPTY_IDS;
+    this.vehicleDetectorIds = EMPTY_IDS;
+    this.width = 0;
+    this.head = 0;
+    this.size = 0;
+    this.views = new IntersectionSample[capacity];
+  }
+
+  public final int capacity() {
+    return this.capacity;
+  }
+
+  public final int size() {
+    return this.size;
+  }
+
+  public final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public final int width() {
+    return this.width;
+  }
+
+  final int slot(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException(Integer.toString(index));
+    }
+    final int slot = this.head + index;
+    return slot < this.capacity ? slot : slot - this.capacity;
+  }
+
+  /**
+   * Returns the time of the sample at {@code index}, where index {@code 0}
+   * is the oldest retained sample.
+   */
+  public long time(int index) {
+    return this.times[slot(index)];
+  }
+
+  public double sample(int index, int column) {
+    if (column < 0 || column >= this.width) {
+      throw new IndexOutOfBoundsException(Integer.toString(column));
+    }
+    return this.samples[slot(index) * this.width + column];
+  }
+
+  public int signalPhaseCount() {
+    return this.signalPhaseIds.length;
+  }
+
+  public int signalPhaseId(int phaseIndex) {
+    return this.signalPhaseIds[phaseIndex];
+  }
+
+  public int vehicleDetectorCount() {
+    return this.vehicleDetectorIds.length;
+  }
+
+  public int vehicleDetectorId(int detectorIndex) {
+    return this.vehicleDetectorIds[detectorIndex];
+  }
+
+  int count(int index, int detectorIndex) {
+    return this.counts[slot(index) * this.vehicleDetectorIds.length + detectorIndex];
+  }
+
+  /**
+   * Returns an immutable view of the sample at {@code index}. Views are
+   * pooled per ring slot, so a view stays valid until its sample is evicted.
+   */
+  public IntersectionSample get(int index) {
+    final int slot = slot(index);
+    IntersectionSample view = this.views[slot];
+    if (view == null) {
+      view = new IntersectionSample(this, slot);
+      this.views[slot] = view;
+    }
+    return view;
+  }
+
+  public IntersectionSample last() {
+    return this.size != 0 ? get(this.size - 1) : null;
+  }
+
+  /**
+   * Returns the index of the sample taken at {@code time}, or {@code -1} if
+   * no retained sample was taken at that time. Samples are recorded in time
+   * order, so the ring is binary searched.
+   */
+  public int indexOf(long time) {
+    int lo = 0;
+    int hi = this.size - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final long t = time(mid);
+      if (t < time) {
+        lo = mid + 1;
+      } else if (t > time) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  public long firstTime() {
+    return this.size != 0 ? this.times[this.head] : 0L;
+  }
+
+  public long lastTime() {
+    return this.size != 0 ? time(this.size - 1) : 0L;
+  }
+
+  /**
+   * Returns {@code true} if samples of {@code tensor} are recorded with the
+   * current column layout.
+   */
+  public boolean hasLayout(IntersectionTensor tensor) {
+    final int phaseCount = this.signalPhaseIds.length;
+    final int detectorCount = this.vehicleDetectorIds.length;
+    return tensor.signalPhaseCount() == phaseCount
+        && tensor.vehicleDetectorCount() == detectorCount
+        && Arrays.equals(tensor.signalPhaseIds, 0, phaseCount, this.signalPhaseIds, 0, phaseCount)
+        && Arrays.equals(tensor.vehicleDetectorIds, 0, detectorCount, this.vehicleDetectorIds, 0, detectorCount);
+  }
+
+  /**
+   * Copies the current values of {@code tensor} into the next slot of the
+   * ring, overwriting the oldest sample once the ring is full. Returns the
+   * time of the evicted sample, or {@code 0} if no sample was evicted.
+   */
+  public long sample(long time, IntersectionTensor tensor) {
+    if (!hasLayout(tensor)) {
+      relayout(tensor);
+    }
+    final long evicted;
+    int slot = this.head + this.size;
+    if (slot >= this.capacity) {
+      slot -= this.capacity;
+    }
+    if (this.size == this.capacity) {
+      evicted = this.times[this.head];
+      this.head = this.head + 1 < this.capacity ? this.head + 1 : 0;
+    } else {
+      evicted = 0L;
+      this.size += 1;
+    }
+    this.times[slot] = time;
+    tensor.toTensor(this.samples, slot * this.width);
+    System.arraycopy(tensor.counts, 0, this.counts, slot * this.vehicleDetectorIds.length,
+                     this.vehicleDetectorIds.length);
+    return evicted;
+  }
+
+  /**
+   * Overwrites the values of the sample at {@code index} with the current
+   * values of {@code tensor}, which must have the same layout as this
+   * history. Returns {@code true} if any value changed.
+   */
+  public boolean update(int index, IntersectionTensor tensor) {
+    if (!hasLayout(tensor)) {
+      throw new IllegalArgumentException("layout mismatch");
+    }
+    final int slot = slot(index);
+    final double[] values = tensor.values;
+    final int offset = slot * this.width;
+    boolean changed = false;
+    for (int i = 0; i < this.width; i += 1) {
+      if (this.samples[offset + i] != values[i]) {
+        this.samples[offset + i] = values[i];
+        changed = true;
+      }
+    }
+    final int[] counts = tensor.counts;
+    final int countOffset = slot * this.vehicleDetectorIds.length;
+    for (int i = 0; i < this.vehicleDetectorIds.length; i += 1) {
+      if (this.counts[countOffset + i] != counts[i]) {
+        this.counts[countOffset + i] = counts[i];
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Adopts the phase and detector layout of {@code tensor}, moving the
+   * recorded values of each retained sample into the new columns of the
+   * same phase or detector id. Columns of ids new to the layout read as
+   * zero for samples recorded before they were added; columns of ids that
+   * are no longer in the layout are dropped.
+   */
+  void relayout(IntersectionTensor tensor) {
+    relayout(Arrays.copyOf(tensor.signalPhaseIds, tensor.signalPhaseCount()),
+             Arrays.copyOf(tensor.vehicleDetectorIds, tensor.vehicleDetectorCount()));
+  }
+
+  void relayout(int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    final int phaseCount = signalPhaseIds.length;
+    final int detectorCount = vehicleDetectorIds.length;
+    final int width = phaseCount * SignalPhaseTensor.TENSOR_SIZE + detectorCount * VehicleDetectorTensor.TENSOR_SIZE;
+    final double[] samples = new double[this.capacity * width];
+    final int[] counts = new int[this.capacity * detectorCount];
+    if (this.size != 0) {
+      final int oldPhasesSize = this.signalPhaseIds.length * SignalPhaseTensor.TENSOR_SIZE;
+      final int newPhasesSize = phaseCount * SignalPhaseTensor.TENSOR_SIZE;
+      for (int from = 0; from < this.signalPhaseIds.length; from += 1) {
+        final int to = indexOf(signalPhaseIds, this.signalPhaseIds[from]);
+        if (to < 0) {
+          continue;
+        }
+        for (int index = 0; index < this.size; index += 1) {
+          final int slot = slot(index);
+          System.arraycopy(this.samples, slot * this.width + from * SignalPhaseTensor.TENSOR_SIZE,
+                           samples, slot * width + to * SignalPhaseTensor.TENSOR_SIZE,
+                           SignalPhaseTensor.TENSOR_SIZE);
+        }
+      }
+      for (int from = 0; from < this.vehicleDetectorIds.length; from += 1) {
+        final int to = indexOf(vehicleDetectorIds, this.vehicleDetectorIds[from]);
+        if (to < 0) {
+          continue;
+        }
+        for (int index = 0; index < this.size; index += 1) {
+          final int slot = slot(index);
+          System.arraycopy(this.samples, slot * this.width + oldPhasesSize + from * VehicleDetectorTensor.TENSOR_SIZE,
+                           samples, slot * width + newPhasesSize + to * VehicleDetectorTensor.TENSOR_SIZE,
+                           VehicleDetectorTensor.TENSOR_SIZE);
+          counts[slot * detectorCount + to] = this.counts[slot * this.vehicleDetectorIds.length + from];
+        }
+      }
+    }
+    this.signalPhaseIds = signalPhaseIds;
+    this.vehicleDetectorIds = vehicleDetectorIds;
+    this.width = width;
+    this.samples = samples;
+    this.counts = counts;
+  }
+
+  static int indexOf(int[] ids, int id) {
+    for (int i = 0; i < ids.length; i += 1) {
+      if (ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies the retained samples, oldest first, into {@code array} starting
+   * at {@code offset}; writes {@code size() * width()} values.
+   */
+  public void toTensor(double[] array, int offset) {
+    if (this.size == 0) {
+      return;
+    }
+    final int tail = this.head + this.size;
+    if (tail <= this.capacity) {
+      System.arraycopy(this.samples, this.head * this.width, array, offset, this.size * this.width);
+    } else {
+      final int n = (this.capacity - this.head) * this.width;
+      System.arraycopy(this.samples, this.head * this.width, array, offset, n);
+      System.arraycopy(this.samples, 0, array, offset + n, (tail - this.capacity) * this.width);
+    }
+  }
+
+  /**
+   * Replaces the contents of this history with {@code count} samples in
+   * the slot layout of {@code layout}, read row by row from {@code array}
+   * starting at {@code offset}, with sample times read from {@code times}
+   * starting at {@code timeOffset}. Only the last {@code capacity()} samples
+   * are retained. Returns the offset just past the last row read, so that
+   * windows of many intersections can be loaded from one buffer in turn.
+   */
+  public int fromTensor(IntersectionTensor layout, long[] times, int timeOffset,
+                        double[] array, int offset, int count) {
+    clear();
+    relayout(layout);
+    final int skip = Math.max(count - this.capacity, 0);
+    final int n = count - skip;
+    System.arraycopy(times, timeOffset + skip, this.times, 0, n);
+    System.arraycopy(array, offset + skip * this.width, this.samples, 0, n * this.width);
+    this.head = 0;
+    this.size = n;
+    return offset + count * this.width;
+  }
+
+  public void clear() {
+    this.head = 0;
+    this.size = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "IntersectionHistory" + '(' + "capacity: " + this.capacity
+        + ", width: " + this.width + ", size: " + this.size + ')';
+  }
+
+  static final double[] EMPTY_SAMPLES = new double[0];
+  static final int[] EMPTY_IDS = new int[0];
+}
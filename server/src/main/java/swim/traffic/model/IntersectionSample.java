@@ -0,0 +1,211 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import swim.structure.Form;
+import swim.structure.Item;
+import swim.structure.Kind;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.util.Murmur3;
+
+/**
+ * Read-only view of one {@link IntersectionHistory} slot. Samples are pooled
+ * by their history, one per slot, so taking a snapshot never allocates; the
+ * recorded values of a sample are frozen from the time it is recorded until
+ * the time it is evicted from the ring. A change of history layout can add
+ * columns to a sample, which read as zero, or drop the columns of removed
+ * ids, but never alters the value recorded for any phase or detector id.
+ */
+public final class IntersectionSample {
+  final IntersectionHistory history;
+  final int slot;
+
+  IntersectionSample(IntersectionHistory history, int slot) {
+    this.history = history;
+    this.slot = slot;
+  }
+
+  public long time() {
+    return this.history.times[this.slot];
+  }
+
+  public int signalPhaseCount() {
+    return this.history.signalPhaseIds.length;
+  }
+
+  public int signalPhaseId(int phaseIndex) {
+    return this.history.signalPhaseIds[phaseIndex];
+  }
+
+  public double red(int phaseIndex) {
+    return this.history.samples[this.slot * this.history.width + phaseIndex * SignalPhaseTensor.TENSOR_SIZE];
+  }
+
+  public double yellow(int phaseIndex) {
+    return this.history.samples[this.slot * this.history.width + phaseIndex * SignalPhaseTensor.TENSOR_SIZE + 1];
+  }
+
+  public double green(int phaseIndex) {
+    return this.history.samples[this.slot * this.history.width + phaseIndex * SignalPhaseTensor.TENSOR_SIZE + 2];
+  }
+
+  public int vehicleDetectorCount() {
+    return this.history.vehicleDetectorIds.length;
+  }
+
+  public int vehicleDetectorId(int detectorIndex) {
+    return this.history.vehicleDetectorIds[detectorIndex];
+  }
+
+  public double occupancy(int detectorIndex) {
+    final int phasesSize = this.history.signalPhaseIds.length * SignalPhaseTensor.TENSOR_SIZE;
+    return this.history.samples[this.slot * this.history.width + phasesSize
+        + detectorIndex * VehicleDetectorTensor.TENSOR_SIZE];
+  }
+
+  public int count(int detectorIndex) {
+    return this.history.counts[this.slot * this.history.vehicleDetectorIds.length + detectorIndex];
+  }
+
+  public int tensorSize() {
+    return this.history.width;
+  }
+
+  public void toTensor(double[] array, int offset) {
+    System.arraycopy(this.history.samples, this.slot * this.history.width, array, offset, this.history.width);
+  }
+
+  public IntersectionTensor toIntersectionTensor() {
+    final IntersectionTensor tensor = new IntersectionTensor(this.history.signalPhaseIds,
+                                                             this.history.vehicleDetectorIds);
+    toTensor(tensor.values, 0);
+    System.arraycopy(this.history.counts, this.slot * this.history.vehicleDetectorIds.length,
+                     tensor.counts, 0, this.history.vehicleDetectorIds.length);
+    return tensor;
+  }
+
+  public Value toValue() {
+    return form().mold(this).toValue();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (other instanceof IntersectionSample) {
+      final IntersectionSample that = (IntersectionSample) other;
+      if (time() != that.time() || tensorSize() != that.tensorSize()
+          || signalPhaseCount() != that.signalPhaseCount()
+          || vehicleDetectorCount() != that.vehicleDetectorCount()) {
+        return false;
+      }
+      for (int i = 0, n = signalPhaseCount(); i < n; i += 1) {
+        if (signalPhaseId(i) != that.signalPhaseId(i) || red(i) != that.red(i)
+            || yellow(i) != that.yellow(i) || green(i) != that.green(i)) {
+          return false;
+        }
+      }
+      for (int i = 0, n = vehicleDetectorCount(); i < n; i += 1) {
+        if (vehicleDetectorId(i) != that.vehicleDetectorId(i)
+            || occupancy(i) != that.occupancy(i) || count(i) != that.count(i)) {
+          return false;
+        }
+      }
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    int code = Murmur3.mix(0x5A3E91C7, Murmur3.hash(time()));
+    for (int i = 0, n = signalPhaseCount(); i < n; i += 1) {
+      code = Murmur3.mix(Murmur3.mix(Murmur3.mix(Murmur3.mix(code,
+          signalPhaseId(i)), Murmur3.hash(red(i))), Murmur3.hash(yellow(i))), Murmur3.hash(green(i)));
+    }
+    for (int i = 0, n = vehicleDetectorCount(); i < n; i += 1) {
+      code = Murmur3.mix(Murmur3.mix(Murmur3.mix(code,
+          vehicleDetectorId(i)), Murmur3.hash(occupancy(i))), count(i));
+    }
+    return Murmur3.mash(code);
+  }
+
+  @Override
+  public String toString() {
+    return "IntersectionSample" + '(' + time() + "L, " + toIntersectionTensor() + ')';
+  }
+
+  /**
+   * Returns a sample backed by its own single-slot history, holding the
+   * values of {@code tensor} at {@code time}.
+   */
+  public static IntersectionSample of(long time, IntersectionTensor tensor) {
+    final IntersectionHistory history = new IntersectionHistory(1);
+    history.sample(time, tensor);
+    return history.get(0);
+  }
+
+  private static Form<IntersectionSample> form;
+
+  @Kind
+  public static Form<IntersectionSample> form() {
+    if (form == null) {
+      form = new IntersectionSampleForm();
+    }
+    return form;
+  }
+}
+
+final class IntersectionSampleForm extends Form<IntersectionSample> {
+  @Override
+  public Class<?> type() {
+    return IntersectionSample.class;
+  }
+
+  // Molds to the same shape as IntersectionTensorForm, so subscribers to
+  // intersection/history see the same records they always have.
+  @Override
+  public Item mold(IntersectionSample sample) {
+    final int phaseCount = sample.signalPhaseCount();
+    final Record signalPhases = Record.create(phaseCount);
+    for (int i = 0; i < phaseCount; i += 1) {
+      signalPhases.slot(Num.from(sample.signalPhaseId(i)), Record.create(3)
+          .slot("red", sample.red(i))
+          .slot("yellow", sample.yellow(i))
+          .slot("green", sample.green(i)));
+    }
+
+    final int detectorCount = sample.vehicleDetectorCount();
+    final Record vehicleDetectors = Record.create(detectorCount);
+    for (int i = 0; i < detectorCount; i += 1) {
+      vehicleDetectors.slot(Num.from(sample.vehicleDetectorId(i)), Record.create(2)
+          .slot("occupancy", sample.occupancy(i))
+          .slot("count", sample.count(i)));
+    }
+
+    return Record.create(2)
+        .slot("signalPhases", signalPhases)
+        .slot("vehicleDetectors", vehicleDetectors);
+  }
+
+  @Override
+  public IntersectionSample cast(Item item) {
+    final IntersectionTensor tensor = IntersectionTensor.form().cast(item);
+    return tensor != null ? IntersectionSample.of(0L, tensor) : null;
+  }
+}
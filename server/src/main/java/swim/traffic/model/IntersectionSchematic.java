@@ -0,0 +1,194 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Arrays;
+import swim.structure.Item;
+import swim.structure.Value;
+
+/**
+ * Compiled index of an intersection schematic: the phase, detector, and
+ * polygon of each approach, plus the distinct phase and detector ids in
+ * order of first appearance. Compiled once per schematic update, so that
+ * per-tick consumers never walk the schematic record.
+ */
+public final class IntersectionSchematic {
+  final String[] approachIds;
+  final int[] approachPhaseIds;
+  final int[] approachDetectorIds;
+  final int[] approachCoordOffsets; // approachCount + 1 offsets into coords
+  final double[] coords; // lat, lng pairs
+  final int[] signalPhaseIds;
+  final int[] vehicleDetectorIds;
+
+  IntersectionSchematic(String[] approachIds, int[] approachPhaseIds, int[] approachDetectorIds,
+                        int[] approachCoordOffsets, double[] coords,
+                        int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    this.approachIds = approachIds;
+    this.approachPhaseIds = approachPhaseIds;
+    this.approachDetectorIds = approachDetectorIds;
+    this.approachCoordOffsets = approachCoordOffsets;
+    this.coords = coords;
+    this.signalPhaseIds = signalPhaseIds;
+    this.vehicleDetectorIds = vehicleDetectorIds;
+  }
+
+  public int approachCount() {
+    return this.approachIds.length;
+  }
+
+  public String approachId(int approachIndex) {
+    return this.approachIds[approachIndex];
+  }
+
+  /**
+   * Returns the phase id of the approach at {@code approachIndex}, or
+   * {@code -1} if the approach has no phase.
+   */
+  public int approachPhaseId(int approachIndex) {
+    return this.approachPhaseIds[approachIndex];
+  }
+
+  /**
+   * Returns the detector id of the approach at {@code approachIndex}, or
+   * {@code -1} if the approach has no detector.
+   */
+  public int approachDetectorId(int approachIndex) {
+    return this.approachDetectorIds[approachIndex];
+  }
+
+  public int approachCoordCount(int approachIndex) {
+    return (this.approachCoordOffsets[approachIndex + 1] - this.approachCoordOffsets[approachIndex]) >> 1;
+  }
+
+  public double approachLat(int approachIndex, int coordIndex) {
+    return this.coords[this.approachCoordOffsets[approachIndex] + (coordIndex << 1)];
+  }
+
+  public double approachLng(int approachIndex, int coordIndex) {
+    return this.coords[this.approachCoordOffsets[approachIndex] + (coordIndex << 1) + 1];
+  }
+
+  public int signalPhaseCount() {
+    return this.signalPhaseIds.length;
+  }
+
+  public int signalPhaseId(int phaseIndex) {
+    return this.signalPhaseIds[phaseIndex];
+  }
+
+  public int indexOfSignalPhase(int phaseId) {
+    return indexOf(this.signalPhaseIds, this.signalPhaseIds.length, phaseId);
+  }
+
+  public int vehicleDetectorCount() {
+    return this.vehicleDetectorIds.length;
+  }
+
+  public int vehicleDetectorId(int detectorIndex) {
+    return this.vehicleDetectorIds[detectorIndex];
+  }
+
+  public int indexOfVehicleDetector(int detectorId) {
+    return indexOf(this.vehicleDetectorIds, this.vehicleDetectorIds.length, detectorId);
+  }
+
+  static int indexOf(int[] ids, int count, int id) {
+    for (int i = 0; i < count; i += 1) {
+      if (ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return "IntersectionSchematic" + '(' + "approaches: " + this.approachIds.length
+        + ", signalPhases: " + Arrays.toString(this.signalPhaseIds)
+        + ", vehicleDetectors: " + Arrays.toString(this.vehicleDetectorIds) + ')';
+  }
+
+  /**
+   * Compiles the {@code @approach} items of a schematic record.
+   */
+  public static IntersectionSchematic compile(Value schematic) {
+    int approachCount = 0;
+    int coordCount = 0;
+    for (Item item : schematic) {
+      if ("approach".equals(item.tag())) {
+        approachCount += 1;
+        coordCount += item.get("coords").length();
+      }
+    }
+    if (approachCount == 0) {
+      return empty();
+    }
+
+    final String[] approachIds = new String[approachCount];
+    final int[] approachPhaseIds = new int[approachCount];
+    final int[] approachDetectorIds = new int[approachCount];
+    final int[] approachCoordOffsets = new int[approachCount + 1];
+    final double[] coords = new double[coordCount << 1];
+    int[] signalPhaseIds = new int[approachCount];
+    int signalPhaseCount = 0;
+    int[] vehicleDetectorIds = new int[approachCount];
+    int vehicleDetectorCount = 0;
+
+    int approachIndex = 0;
+    int coordOffset = 0;
+    for (Item item : schematic) {
+      if (!"approach".equals(item.tag())) {
+        continue;
+      }
+      approachIds[approachIndex] = item.get("id").stringValue(null);
+      final int phaseId = item.get("phase").intValue(-1);
+      approachPhaseIds[approachIndex] = phaseId;
+      if (phaseId >= 0 && indexOf(signalPhaseIds, signalPhaseCount, phaseId) < 0) {
+        signalPhaseIds[signalPhaseCount] = phaseId;
+        signalPhaseCount += 1;
+      }
+      final int detectorId = item.get("detector").intValue(-1);
+      approachDetectorIds[approachIndex] = detectorId;
+      if (detectorId >= 0 && indexOf(vehicleDetectorIds, vehicleDetectorCount, detectorId) < 0) {
+        vehicleDetectorIds[vehicleDetectorCount] = detectorId;
+        vehicleDetectorCount += 1;
+      }
+      approachCoordOffsets[approachIndex] = coordOffset;
+      for (Item coord : item.get("coords")) {
+        coords[coordOffset] = coord.get("lat").doubleValue(0.0);
+        coords[coordOffset + 1] = coord.get("lng").doubleValue(0.0);
+        coordOffset += 2;
+      }
+      approachIndex += 1;
+    }
+    approachCoordOffsets[approachCount] = coordOffset;
+    signalPhaseIds = Arrays.copyOf(signalPhaseIds, signalPhaseCount);
+    vehicleDetectorIds = Arrays.copyOf(vehicleDetectorIds, vehicleDetectorCount);
+
+    return new IntersectionSchematic(approachIds, approachPhaseIds, approachDetectorIds,
+                                     approachCoordOffsets, coords, signalPhaseIds, vehicleDetectorIds);
+  }
+
+  private static IntersectionSchematic empty;
+
+  public static IntersectionSchematic empty() {
+    if (empty == null) {
+      empty = new IntersectionSchematic(new String[0], new int[0], new int[0], new int[1],
+                                        new double[0], new int[0], new int[0]);
+    }
+    return empty;
+  }
+}
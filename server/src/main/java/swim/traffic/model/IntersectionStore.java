@@ -0,0 +1,494 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of one intersection's sample history and signal phase
+ * models, so that an intersection restarts with a warm history window and
+ * predictable models.
+ *
+ * <p>The log is a sequence of checksummed blocks. A history block holds the
+ * phase and detector layout followed by a run of samples stored column by
+ * column: the sample times, then each tensor column, then each detector
+ * count column. A model block holds a snapshot time followed by one column
+ * per {@link SignalPhaseModel} field, then the {@link CycleStats} of each
+ * model's transitions; model blocks written before cycle statistics were
+ * kept simply end early, and load with empty statistics. Blocks are only
+ * ever appended; once the log outgrows a few history windows, it is
+ * compacted by rewriting it as a single history block of the retained
+ * window plus the latest models.
+ * A torn block at the end of the log, as left by a crash, is truncated
+ * away on load, so that later appends stay readable.
+ *
+ * <p>Blocks are encoded on the calling thread, but written to disk by a
+ * single plane-wide writer thread, in the order they were appended, so that
+ * agents never block on file I/O; {@link #flush()} waits for the writes
+ * already queued for a log. Agents load logs on the writer thread too,
+ * through {@link #submit(Callable)}.
+ */
+public final class IntersectionStore {
+  final Path path;
+  final int capacity;
+  int appendedRows; // rows appended since the last compaction
+  Future<?> pending; // last write queued for this log
+
+  public IntersectionStore(Path path, int capacity) {
+    this.path = path;
+    this.capacity = capacity;
+  }
+
+  public Path path() {
+    return this.path;
+  }
+
+  /**
+   * Appends the last {@code count} samples of {@code history}, and a
+   * snapshot of {@code models} taken at {@code time}, if non-null,
+   * compacting the log first if it has grown past a few windows.
+   */
+  public void append(IntersectionHistory history, int count, Iterable<SignalPhaseModel> models,
+                     long time) throws IOException {
+    if (this.appendedRows + count > COMPACT_WINDOWS * this.capacity) {
+      compact(history, models, time);
+      return;
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream data = new DataOutputStream(bytes);
+    final int size = history.size();
+    count = Math.min(count, size);
+    if (count > 0) {
+      writeBlock(data, HISTORY_BLOCK, historyBlock(history, size - count, count));
+    }
+    if (models != null) {
+      writeBlock(data, MODEL_BLOCK, modelBlock(models, time));
+    }
+    if (bytes.size() != 0) {
+      final byte[] blocks = bytes.toByteArray();
+      write(() -> appendFile(blocks));
+    }
+    this.appendedRows += count;
+  }
+
+  /**
+   * Rewrites the log as the retained window of {@code history} plus a
+   * snapshot of {@code models}, replacing the old log atomically.
+   */
+  public void compact(IntersectionHistory history, Iterable<SignalPhaseModel> models,
+                      long time) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream data = new DataOutputStream(bytes);
+    if (!history.isEmpty()) {
+      writeBlock(data, HISTORY_BLOCK, historyBlock(history, 0, history.size()));
+    }
+    if (models != null) {
+      writeBlock(data, MODEL_BLOCK, modelBlock(models, time));
+    }
+    final byte[] blocks = bytes.toByteArray();
+    write(() -> replaceFile(blocks));
+    this.appendedRows = history.size();
+  }
+
+  /**
+   * Waits for the writes already queued for this log to reach the disk,
+   * and rethrows the error of the last of them, if any.
+   */
+  public void flush() throws IOException {
+    final Future<?> pending = this.pending;
+    if (pending == null) {
+      return;
+    }
+    try {
+      pending.get();
+    } catch (InterruptedException cause) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted flushing " + this.path);
+    } catch (ExecutionException cause) {
+      if (cause.getCause() instanceof IOException) {
+        throw (IOException) cause.getCause();
+      }
+      throw new IOException(cause.getCause());
+    } finally {
+      if (this.pending == pending) {
+        this.pending = null;
+      }
+    }
+  }
+
+  void write(StoreWrite write) {
+    this.pending = writer().submit(() -> {
+      try {
+        write.run();
+      } catch (IOException cause) {
+        System.err.println(this.path + " failed to write: " + cause);
+        throw cause;
+      }
+      return null;
+    });
+  }
+
+  void appendFile(byte[] blocks) throws IOException {
+    Files.createDirectories(this.path.getParent());
+    Files.write(this.path, blocks, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+  }
+
+  void replaceFile(byte[] blocks) throws IOException {
+    Files.createDirectories(this.path.getParent());
+    final Path tempPath = this.path.resolveSibling(this.path.getFileName() + ".compact");
+    Files.write(tempPath, blocks);
+    Files.move(tempPath, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Loads the logged samples no older than {@code minTime} into
+   * {@code history}, in the slot layout of {@code layout}, and returns the
+   * last model snapshot no older than {@code minModelTime}. Columns of
+   * phases and detectors missing from {@code layout} are dropped, and
+   * those missing from the log are zero. Any torn or corrupt tail of the
+   * log is truncated.
+   */
+  public List<SignalPhaseModel> load(IntersectionHistory history, IntersectionTensor layout,
+                                     long minTime, long minModelTime) throws IOException {
+    flush();
+    final int width = layout.tensorSize();
+    final int detectorCount = layout.vehicleDetectorCount();
+    final int capacity = history.capacity();
+    // ring of the most recent rows, in the target layout
+    final long[] times = new long[capacity];
+    final double[] values = new double[capacity * width];
+    final int[] counts = new int[capacity * detectorCount];
+    int head = 0;
+    int size = 0;
+    List<SignalPhaseModel> models = new ArrayList<>();
+    long validSize = 0L; // length of the log up to the end of its last good block
+
+    try (InputStream input = Files.newInputStream(this.path)) {
+      final DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+      byte[] block;
+      while ((block = readBlock(data)) != null) {
+        validSize += BLOCK_OVERHEAD + block.length;
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(block, 1, block.length - 1));
+        if (block[0] == HISTORY_BLOCK) {
+          final int phaseCount = in.readUnsignedShort();
+          final int[] phaseSlots = new int[phaseCount];
+          for (int i = 0; i < phaseCount; i += 1) {
+            phaseSlots[i] = layout.indexOfSignalPhase(in.readUnsignedShort());
+          }
+          final int blockDetectorCount = in.readUnsignedShort();
+          final int[] detectorSlots = new int[blockDetectorCount];
+          for (int i = 0; i < blockDetectorCount; i += 1) {
+            detectorSlots[i] = layout.indexOfVehicleDetector(in.readUnsignedShort());
+          }
+          final int rowCount = in.readInt();
+          final int[] rows = new int[rowCount]; // ring slot of each row, or -1
+          for (int r = 0; r < rowCount; r += 1) {
+            final long time = in.readLong();
+            if (time < minTime) {
+              rows[r] = -1;
+              continue;
+            }
+            int slot = head + size;
+            if (slot >= capacity) {
+              slot -= capacity;
+            }
+            if (size == capacity) {
+              head = head + 1 < capacity ? head + 1 : 0;
+            } else {
+              size += 1;
+            }
+            times[slot] = time;
+            Arrays.fill(values, slot * width, slot * width + width, 0.0);
+            Arrays.fill(counts, slot * detectorCount, slot * detectorCount + detectorCount, 0);
+            rows[r] = slot;
+          }
+          // rows overwritten later in this same block resolve to the
+          // latest row, since columns are read in row order
+          for (int i = 0; i < phaseCount; i += 1) {
+            for (int k = 0; k < SignalPhaseTensor.TENSOR_SIZE; k += 1) {
+              final int column = phaseSlots[i] >= 0 ? phaseSlots[i] * SignalPhaseTensor.TENSOR_SIZE + k : -1;
+              readColumn(in, rows, values, width, column);
+            }
+          }
+          final int phasesSize = layout.signalPhaseCount() * SignalPhaseTensor.TENSOR_SIZE;
+          for (int i = 0; i < blockDetectorCount; i += 1) {
+            final int column = detectorSlots[i] >= 0 ? phasesSize + detectorSlots[i] : -1;
+            readColumn(in, rows, values, width, column);
+          }
+          for (int i = 0; i < blockDetectorCount; i += 1) {
+            for (int r = 0; r < rowCount; r += 1) {
+              final int count = in.readInt();
+              if (rows[r] >= 0 && detectorSlots[i] >= 0) {
+                counts[rows[r] * detectorCount + detectorSlots[i]] = count;
+              }
+            }
+          }
+        } else if (block[0] == MODEL_BLOCK) {
+          final long time = in.readLong();
+          final int modelCount = in.readUnsignedShort();
+          if (time < minModelTime) {
+            models = new ArrayList<>();
+            continue;
+          }
+          final SignalPhaseModel[] snapshot = new SignalPhaseModel[modelCount];
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i] = new SignalPhaseModel(in.readInt());
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].state = in.readInt();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].t13 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].t32 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].t21 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].dt13 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].dt32 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].dt21 = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].predictCount = in.readLong();
+          }
+          for (int i = 0; i < modelCount; i += 1) {
+            snapshot[i].failureCount = in.readLong();
+          }
+          if (in.available() != 0) {
+            for (int i = 0; i < modelCount; i += 1) {
+              snapshot[i].stats13.readFrom(in);
+              snapshot[i].stats32.readFrom(in);
+              snapshot[i].stats21.readFrom(in);
+            }
+          }
+          models = new ArrayList<>(Arrays.asList(snapshot));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      return models;
+    }
+    if (Files.size(this.path) > validSize) {
+      try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.WRITE)) {
+        channel.truncate(validSize);
+      }
+    }
+
+    // unroll the ring, oldest first
+    final long[] orderedTimes = new long[size];
+    final double[] orderedValues = new double[size * width];
+    final int[] orderedCounts = new int[size * detectorCount];
+    for (int i = 0; i < size; i += 1) {
+      int slot = head + i;
+      if (slot >= capacity) {
+        slot -= capacity;
+      }
+      orderedTimes[i] = times[slot];
+      System.arraycopy(values, slot * width, orderedValues, i * width, width);
+      System.arraycopy(counts, slot * detectorCount, orderedCounts, i * detectorCount, detectorCount);
+    }
+    history.fromTensor(layout, orderedTimes, 0, orderedValues, 0, size);
+    System.arraycopy(orderedCounts, 0, history.counts, 0, orderedCounts.length);
+    this.appendedRows = size;
+    return models;
+  }
+
+  static void readColumn(DataInputStream in, int[] rows, double[] values, int width,
+                         int column) throws IOException {
+    for (int r = 0; r < rows.length; r += 1) {
+      final double value = in.readDouble();
+      if (rows[r] >= 0 && column >= 0) {
+        values[rows[r] * width + column] = value;
+      }
+    }
+  }
+
+  static byte[] historyBlock(IntersectionHistory history, int from, int count) throws IOException {
+    final int width = history.width;
+    final int detectorCount = history.vehicleDetectorIds.length;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+        16 + 2 * width + count * (8 + 8 * width + 4 * detectorCount));
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeShort(history.signalPhaseIds.length);
+    for (int id : history.signalPhaseIds) {
+      out.writeShort(id);
+    }
+    out.writeShort(detectorCount);
+    for (int id : history.vehicleDetectorIds) {
+      out.writeShort(id);
+    }
+    out.writeInt(count);
+    for (int r = 0; r < count; r += 1) {
+      out.writeLong(history.times[history.slot(from + r)]);
+    }
+    for (int column = 0; column < width; column += 1) {
+      for (int r = 0; r < count; r += 1) {
+        out.writeDouble(history.samples[history.slot(from + r) * width + column]);
+      }
+    }
+    for (int i = 0; i < detectorCount; i += 1) {
+      for (int r = 0; r < count; r += 1) {
+        out.writeInt(history.counts[history.slot(from + r) * detectorCount + i]);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static byte[] modelBlock(Iterable<SignalPhaseModel> models, long time) throws IOException {
+    final List<SignalPhaseModel> list = new ArrayList<>();
+    for (SignalPhaseModel model : models) {
+      list.add(model);
+    }
+    final int n = list.size();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(10 + n * (72 + 3 * CycleStats.SERIALIZED_SIZE));
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(time);
+    out.writeShort(n);
+    for (int i = 0; i < n; i += 1) {
+      out.writeInt(list.get(i).phaseId);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeInt(list.get(i).state);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).t13);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).t32);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).t21);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).dt13);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).dt32);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).dt21);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).predictCount);
+    }
+    for (int i = 0; i < n; i += 1) {
+      out.writeLong(list.get(i).failureCount);
+    }
+    for (int i = 0; i < n; i += 1) {
+      list.get(i).stats13.writeTo(out);
+      list.get(i).stats32.writeTo(out);
+      list.get(i).stats21.writeTo(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  static void writeBlock(DataOutputStream data, byte kind, byte[] payload) throws IOException {
+    final CRC32 crc = new CRC32();
+    crc.update(kind);
+    crc.update(payload, 0, payload.length);
+    data.writeInt(MAGIC);
+    data.writeInt(payload.length + 1);
+    data.writeByte(kind);
+    data.write(payload);
+    data.writeInt((int) crc.getValue());
+  }
+
+  // Returns the kind byte followed by the payload of the next block, or
+  // null at the end of the log or at a torn or corrupt block.
+  static byte[] readBlock(DataInputStream data) throws IOException {
+    try {
+      if (data.readInt() != MAGIC) {
+        return null;
+      }
+      final int length = data.readInt();
+      if (length <= 0 || length > MAX_BLOCK_SIZE) {
+        return null;
+      }
+      final byte[] block = new byte[length];
+      data.readFully(block);
+      final int checksum = data.readInt();
+      final CRC32 crc = new CRC32();
+      crc.update(block, 0, block.length);
+      return (int) crc.getValue() == checksum ? block : null;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  static final int MAGIC = 0x494C4F47; // "ILOG"
+  static final byte HISTORY_BLOCK = 1;
+  static final byte MODEL_BLOCK = 2;
+  static final int COMPACT_WINDOWS = 4;
+  static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+  // magic, length, and checksum around each block's kind and payload
+  static final int BLOCK_OVERHEAD = 4 + 4 + 4;
+
+  /**
+   * Runs {@code task} on the writer thread, after every write already
+   * queued, so that agents can load logs without blocking on file I/O.
+   * Only logs that no agent appends to while the task runs may be loaded.
+   */
+  public static <T> Future<T> submit(Callable<T> task) {
+    return writer().submit(task);
+  }
+
+  private static ExecutorService writer;
+
+  static synchronized ExecutorService writer() {
+    if (writer == null) {
+      writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "traffic-store-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return writer;
+  }
+}
+
+@FunctionalInterface
+interface StoreWrite {
+  void run() throws IOException;
+}
@@ -14,7 +14,8 @@
 
 package swim.traffic.model;
 
-import swim.collections.HashTrieMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import swim.math.TensorDims;
 import swim.math.TensorForm;
 import swim.structure.Item;
@@ -24,74 +25,298 @@ import swim.structure.Record;
 import swim.structure.Value;
 import swim.util.Murmur3;
 
+/**
+ * Dense intersection tensor. Signal phases and vehicle detectors are
+ * assigned stable slots, in the order their ids are first added, and their
+ * values are stored in a single {@code double[]} in tensor layout: red,
+ * yellow, and green for each phase slot, followed by the occupancy of each
+ * detector slot. Adding a slot keeps the values of every existing slot.
+ * Ids outside {@code [0, MAX_ID)} are never assigned a slot. Layouts given
+ * as id arrays must list valid, distinct ids, since each id's position is
+ * its slot; anything else is rejected rather than shifting later slots.
+ */
 public class IntersectionTensor {
-  public HashTrieMap<Integer, SignalPhaseTensor> signalPhases;
-  public HashTrieMap<Integer, VehicleDetectorTensor> vehicleDetectors;
+  int signalPhaseCount;
+  int[] signalPhaseIds;
+  int[] signalPhaseSlots; // phase id -> slot + 1; 0 if absent
+  int vehicleDetectorCount;
+  int[] vehicleDetectorIds;
+  int[] vehicleDetectorSlots; // detector id -> slot + 1; 0 if absent
+  double[] values;
+  int[] counts;
 
-  public IntersectionTensor(HashTrieMap<Integer, SignalPhaseTensor> signalPhases,
-                            HashTrieMap<Integer, VehicleDetectorTensor> vehicleDetectors) {
-    this.signalPhases = signalPhases;
-    this.vehicleDetectors = vehicleDetectors;
+  /**
+   * Creates a tensor whose phase and detector slots are assigned in the
+   * order of {@code signalPhaseIds} and {@code vehicleDetectorIds}.
+   *
+   * @throws IllegalArgumentException if either array holds an id that is
+   *         out of range, or repeated.
+   */
+  public IntersectionTensor(int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    checkLayout(signalPhaseIds, vehicleDetectorIds);
+    this.signalPhaseIds = new int[Math.max(signalPhaseIds.length, INITIAL_CAPACITY)];
+    this.signalPhaseSlots = EMPTY_SLOTS;
+    this.vehicleDetectorIds = new int[Math.max(vehicleDetectorIds.length, INITIAL_CAPACITY)];
+    this.vehicleDetectorSlots = EMPTY_SLOTS;
+    this.values = EMPTY_VALUES;
+    this.counts = EMPTY_SLOTS;
+    for (int i = 0; i < signalPhaseIds.length; i += 1) {
+      signalPhase(signalPhaseIds[i]);
+    }
+    for (int i = 0; i < vehicleDetectorIds.length; i += 1) {
+      vehicleDetector(vehicleDetectorIds[i]);
+    }
   }
 
   public IntersectionTensor() {
-    this(HashTrieMap.empty(), HashTrieMap.empty());
+    this(EMPTY_SLOTS, EMPTY_SLOTS);
+  }
+
+  public final int signalPhaseCount() {
+    return this.signalPhaseCount;
   }
 
-  public SignalPhaseTensor signalPhase(int id) {
-    SignalPhaseTensor tensor = signalPhases.get(id);
-    if (tensor == null) {
-      tensor = new SignalPhaseTensor();
-      signalPhases = signalPhases.updated(id, tensor);
+  public final int signalPhaseId(int slot) {
+    return this.signalPhaseIds[slot];
+  }
+
+  /**
+   * Returns the slot of signal phase {@code id}, or {@code -1} if this
+   * tensor has no such phase.
+   */
+  public final int indexOfSignalPhase(int id) {
+    return id >= 0 && id < this.signalPhaseSlots.length ? this.signalPhaseSlots[id] - 1 : -1;
+  }
+
+  /**
+   * Returns the slot of signal phase {@code id}, assigning it the next free
+   * slot if this tensor doesn't have it yet, or {@code -1} if {@code id} is
+   * out of range.
+   */
+  public int signalPhase(int id) {
+    final int slot = indexOfSignalPhase(id);
+    if (slot >= 0 || !isValidId(id)) {
+      return slot;
     }
-    return tensor;
+    this.signalPhaseSlots = growSlots(this.signalPhaseSlots, id);
+    final int newSlot = this.signalPhaseCount;
+    if (newSlot == this.signalPhaseIds.length) {
+      this.signalPhaseIds = Arrays.copyOf(this.signalPhaseIds, newSlot << 1);
+    }
+    this.signalPhaseIds[newSlot] = id;
+    this.signalPhaseSlots[id] = newSlot + 1;
+    this.signalPhaseCount = newSlot + 1;
+    // make room for the new phase ahead of the detector values
+    final int phasesSize = newSlot * SignalPhaseTensor.TENSOR_SIZE;
+    final int detectorsSize = this.vehicleDetectorCount * VehicleDetectorTensor.TENSOR_SIZE;
+    final double[] values = new double[tensorSize()];
+    System.arraycopy(this.values, 0, values, 0, phasesSize);
+    System.arraycopy(this.values, phasesSize, values, phasesSize + SignalPhaseTensor.TENSOR_SIZE, detectorsSize);
+    this.values = values;
+    return newSlot;
   }
 
-  public VehicleDetectorTensor vehicleDetector(int id) {
-    VehicleDetectorTensor tensor = vehicleDetectors.get(id);
-    if (tensor == null) {
-      tensor = new VehicleDetectorTensor();
-      vehicleDetectors = vehicleDetectors.updated(id, tensor);
+  public final int vehicleDetectorCount() {
+    return this.vehicleDetectorCount;
+  }
+
+  public final int vehicleDetectorId(int slot) {
+    return this.vehicleDetectorIds[slot];
+  }
+
+  /**
+   * Returns the slot of vehicle detector {@code id}, or {@code -1} if this
+   * tensor has no such detector.
+   */
+  public final int indexOfVehicleDetector(int id) {
+    return id >= 0 && id < this.vehicleDetectorSlots.length ? this.vehicleDetectorSlots[id] - 1 : -1;
+  }
+
+  /**
+   * Returns the slot of vehicle detector {@code id}, assigning it the next
+   * free slot if this tensor doesn't have it yet, or {@code -1} if
+   * {@code id} is out of range.
+   */
+  public int vehicleDetector(int id) {
+    final int slot = indexOfVehicleDetector(id);
+    if (slot >= 0 || !isValidId(id)) {
+      return slot;
     }
-    return tensor;
+    this.vehicleDetectorSlots = growSlots(this.vehicleDetectorSlots, id);
+    final int newSlot = this.vehicleDetectorCount;
+    if (newSlot == this.vehicleDetectorIds.length) {
+      this.vehicleDetectorIds = Arrays.copyOf(this.vehicleDetectorIds, newSlot << 1);
+    }
+    this.vehicleDetectorIds[newSlot] = id;
+    this.vehicleDetectorSlots[id] = newSlot + 1;
+    this.vehicleDetectorCount = newSlot + 1;
+    this.values = Arrays.copyOf(this.values, tensorSize());
+    this.counts = Arrays.copyOf(this.counts, this.vehicleDetectorCount);
+    return newSlot;
+  }
+
+  /**
+   * Returns {@code true} if {@code id} can be assigned a phase or detector
+   * slot. Ids index a direct lookup table, so they must be non-negative and
+   * less than {@code MAX_ID}.
+   */
+  public static boolean isValidId(int id) {
+    return id >= 0 && id < MAX_ID;
+  }
+
+  static void checkLayout(int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    checkIds(signalPhaseIds, "signal phase");
+    checkIds(vehicleDetectorIds, "vehicle detector");
+  }
+
+  static void checkIds(int[] ids, String kind) {
+    final BitSet seen = new BitSet();
+    for (int i = 0; i < ids.length; i += 1) {
+      final int id = ids[i];
+      if (!isValidId(id)) {
+        throw new IllegalArgumentException(kind + " id out of range: " + id);
+      } else if (seen.get(id)) {
+        throw new IllegalArgumentException("duplicate " + kind + " id: " + id);
+      }
+      seen.set(id);
+    }
+  }
+
+  static int[] growSlots(int[] slots, int id) {
+    if (id < slots.length) {
+      return slots;
+    }
+    return Arrays.copyOf(slots, Math.min(Math.max(id + 1, slots.length << 1), MAX_ID));
+  }
+
+  final int detectorOffset(int slot) {
+    return this.signalPhaseCount * SignalPhaseTensor.TENSOR_SIZE + slot * VehicleDetectorTensor.TENSOR_SIZE;
+  }
+
+  public final double red(int slot) {
+    return this.values[slot * SignalPhaseTensor.TENSOR_SIZE];
+  }
+
+  public final void setRed(int slot, double red) {
+    this.values[slot * SignalPhaseTensor.TENSOR_SIZE] = red;
+  }
+
+  public final double yellow(int slot) {
+    return this.values[slot * SignalPhaseTensor.TENSOR_SIZE + 1];
+  }
+
+  public final void setYellow(int slot, double yellow) {
+    this.values[slot * SignalPhaseTensor.TENSOR_SIZE + 1] = yellow;
+  }
+
+  public final double green(int slot) {
+    return this.values[slot * SignalPhaseTensor.TENSOR_SIZE + 2];
+  }
+
+  public final void setGreen(int slot, double green) {
+    this.values[slot * SignalPhaseTensor.TENSOR_SIZE + 2] = green;
+  }
+
+  public final double occupancy(int slot) {
+    return this.values[detectorOffset(slot)];
+  }
+
+  public final void setOccupancy(int slot, double occupancy) {
+    this.values[detectorOffset(slot)] = occupancy;
+  }
+
+  public final int count(int slot) {
+    return this.counts[slot];
+  }
+
+  public final void setCount(int slot, int count) {
+    this.counts[slot] = count;
+  }
+
+  /**
+   * Returns a detached copy of the values of the signal phase in
+   * {@code slot}.
+   */
+  public SignalPhaseTensor signalPhaseTensor(int slot) {
+    return new SignalPhaseTensor(red(slot), yellow(slot), green(slot));
+  }
+
+  /**
+   * Returns a detached copy of the values of the vehicle detector in
+   * {@code slot}.
+   */
+  public VehicleDetectorTensor vehicleDetectorTensor(int slot) {
+    return new VehicleDetectorTensor(occupancy(slot), count(slot));
   }
 
   public int tensorSize() {
-    return signalPhases.size() * SignalPhaseTensor.TENSOR_SIZE
-        + vehicleDetectors.size() * VehicleDetectorTensor.TENSOR_SIZE;
+    return this.signalPhaseCount * SignalPhaseTensor.TENSOR_SIZE
+        + this.vehicleDetectorCount * VehicleDetectorTensor.TENSOR_SIZE;
+  }
+
+  /**
+   * Zeroes all phase and detector values, keeping the slot layout.
+   */
+  public void reset() {
+    Arrays.fill(this.values, 0.0);
+    Arrays.fill(this.counts, 0);
   }
 
   public void toTensor(double[] array, int offset) {
-    for (SignalPhaseTensor signalTensor : signalPhases.values()) {
-      array[offset++] = signalTensor.red;
-      array[offset++] = signalTensor.yellow;
-      array[offset++] = signalTensor.green;
-    }
-    for (VehicleDetectorTensor vehicleTensor : vehicleDetectors.values()) {
-      array[offset++] = vehicleTensor.occupancy;
+    System.arraycopy(this.values, 0, array, offset, tensorSize());
+  }
+
+  public void toTensor(float[] array, int offset) {
+    final double[] values = this.values;
+    for (int i = 0, n = tensorSize(); i < n; i += 1) {
+      array[offset + i] = (float) values[i];
     }
   }
 
   public void fromTensor(double[] array, int offset) {
-    for (SignalPhaseTensor signalTensor : signalPhases.values()) {
-      signalTensor.red = array[offset++];
-      signalTensor.yellow = array[offset++];
-      signalTensor.green = array[offset++];
-    }
-    for (VehicleDetectorTensor vehicleTensor : vehicleDetectors.values()) {
-      vehicleTensor.occupancy = array[offset++];
-    }
+    System.arraycopy(array, offset, this.values, 0, tensorSize());
   }
 
   public void fromTensor(float[] array, int offset) {
-    for (SignalPhaseTensor signalTensor : signalPhases.values()) {
-      signalTensor.red = (double) array[offset++];
-      signalTensor.yellow = (double) array[offset++];
-      signalTensor.green = (double) array[offset++];
+    final double[] values = this.values;
+    for (int i = 0, n = tensorSize(); i < n; i += 1) {
+      values[i] = (double) array[offset + i];
     }
-    for (VehicleDetectorTensor vehicleTensor : vehicleDetectors.values()) {
-      vehicleTensor.occupancy = (double) array[offset++];
+  }
+
+  /**
+   * Refills this tensor in place from a strided buffer, reading value
+   * {@code i} of this tensor's layout from {@code offset + i * dims.stride()}.
+   */
+  public void fromTensor(TensorDims dims, double[] array, int offset) {
+    final int stride = dims.stride();
+    if (stride == 1) {
+      fromTensor(array, offset);
+      return;
     }
+    final double[] values = this.values;
+    for (int i = 0, n = tensorSize(); i < n; i += 1) {
+      values[i] = array[offset];
+      offset += stride;
+    }
+  }
+
+  public void fromTensor(TensorDims dims, float[] array, int offset) {
+    final int stride = dims.stride();
+    final double[] values = this.values;
+    for (int i = 0, n = tensorSize(); i < n; i += 1) {
+      values[i] = (double) array[offset];
+      offset += stride;
+    }
+  }
+
+  /**
+   * Returns a tensor form bound to the current slot layout of this tensor,
+   * suitable for converting other tensors to and from the same layout.
+   */
+  public TensorForm<IntersectionTensor> layoutForm() {
+    return form(Arrays.copyOf(this.signalPhaseIds, this.signalPhaseCount),
+                Arrays.copyOf(this.vehicleDetectorIds, this.vehicleDetectorCount));
   }
 
   public Value toValue() {
@@ -100,15 +325,12 @@ public class IntersectionTensor {
 
   @Override
   public IntersectionTensor clone() {
-    HashTrieMap<Integer, SignalPhaseTensor> signalPhases = HashTrieMap.empty();
-    for (HashTrieMap.Entry<Integer, SignalPhaseTensor> entry : this.signalPhases) {
-      signalPhases = signalPhases.updated(entry.getKey(), entry.getValue().clone());
-    }
-    HashTrieMap<Integer, VehicleDetectorTensor> vehicleDetectors = HashTrieMap.empty();
-    for (HashTrieMap.Entry<Integer, VehicleDetectorTensor> entry : this.vehicleDetectors) {
-      vehicleDetectors = vehicleDetectors.updated(entry.getKey(), entry.getValue().clone());
-    }
-    return new IntersectionTensor(signalPhases, vehicleDetectors);
+    final IntersectionTensor tensor = new IntersectionTensor(
+        Arrays.copyOf(this.signalPhaseIds, this.signalPhaseCount),
+        Arrays.copyOf(this.vehicleDetectorIds, this.vehicleDetectorCount));
+    System.arraycopy(this.values, 0, tensor.values, 0, tensorSize());
+    System.arraycopy(this.counts, 0, tensor.counts, 0, this.vehicleDetectorCount);
+    return tensor;
   }
 
   @Override
@@ -117,8 +339,14 @@ public class IntersectionTensor {
       return true;
     } else if (other instanceof IntersectionTensor) {
       final IntersectionTensor that = (IntersectionTensor) other;
-      return signalPhases.equals(that.signalPhases)
-          && vehicleDetectors.equals(that.vehicleDetectors);
+      return this.signalPhaseCount == that.signalPhaseCount
+          && this.vehicleDetectorCount == that.vehicleDetectorCount
+          && Arrays.equals(this.signalPhaseIds, 0, this.signalPhaseCount,
+                           that.signalPhaseIds, 0, that.signalPhaseCount)
+          && Arrays.equals(this.vehicleDetectorIds, 0, this.vehicleDetectorCount,
+                           that.vehicleDetectorIds, 0, that.vehicleDetectorCount)
+          && Arrays.equals(this.values, that.values)
+          && Arrays.equals(this.counts, that.counts);
     } else {
       return false;
     }
@@ -126,43 +354,128 @@ public class IntersectionTensor {
 
   @Override
   public int hashCode() {
-    return Murmur3.mash(Murmur3.mix(Murmur3.mix(0xE3A15A3B,
-      signalPhases.hashCode()), vehicleDetectors.hashCode()));
+    int code = 0xE3A15A3B;
+    for (int i = 0; i < this.signalPhaseCount; i += 1) {
+      code = Murmur3.mix(Murmur3.mix(Murmur3.mix(Murmur3.mix(code, this.signalPhaseIds[i]),
+          Murmur3.hash(red(i))), Murmur3.hash(yellow(i))), Murmur3.hash(green(i)));
+    }
+    for (int i = 0; i < this.vehicleDetectorCount; i += 1) {
+      code = Murmur3.mix(Murmur3.mix(Murmur3.mix(code, this.vehicleDetectorIds[i]),
+          Murmur3.hash(occupancy(i))), this.counts[i]);
+    }
+    return Murmur3.mash(code);
   }
 
   @Override
   public String toString() {
-    return "new" + ' ' + "IntersectionTensor" + '('
-        + signalPhases + ", " + vehicleDetectors + ')';
+    final StringBuilder s = new StringBuilder("new").append(' ').append("IntersectionTensor").append('(');
+    for (int i = 0; i < this.signalPhaseCount; i += 1) {
+      s.append(i == 0 ? "" : ", ").append(this.signalPhaseIds[i]).append(": ").append(signalPhaseTensor(i));
+    }
+    s.append("; ");
+    for (int i = 0; i < this.vehicleDetectorCount; i += 1) {
+      s.append(i == 0 ? "" : ", ").append(this.vehicleDetectorIds[i]).append(": ").append(vehicleDetectorTensor(i));
+    }
+    return s.append(')').toString();
   }
 
+  static final int INITIAL_CAPACITY = 8;
+  public static final int MAX_ID = 1 << 16;
+  static final int[] EMPTY_SLOTS = new int[0];
+  static final double[] EMPTY_VALUES = new double[0];
+
   private static TensorForm<IntersectionTensor> form;
 
+  /**
+   * Returns the layout-free form of intersection tensors. It converts each
+   * tensor to and from its own slot layout, and so can't rebuild a tensor
+   * from a flat buffer; {@code fromTensor} returns {@code null}.
+   */
   @Kind
   public static TensorForm<IntersectionTensor> form() {
     if (form == null) {
-      form = new IntersectionTensorForm();
+      form = new IntersectionTensorForm(null, null);
     }
     return form;
   }
+
+  /**
+   * Returns a tensor form bound to a layout of the given signal phase and
+   * vehicle detector ids, in slot order. {@code toTensor} writes any tensor
+   * in this layout, zero filling missing ids, and {@code fromTensor} builds
+   * tensors with this layout.
+   *
+   * @throws IllegalArgumentException if either array holds an id that is
+   *         out of range, or repeated.
+   */
+  public static TensorForm<IntersectionTensor> form(int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    checkLayout(signalPhaseIds, vehicleDetectorIds);
+    return new IntersectionTensorForm(signalPhaseIds, vehicleDetectorIds);
+  }
 }
 
 final class IntersectionTensorForm extends TensorForm<IntersectionTensor> {
+  final int[] signalPhaseIds;
+  final int[] vehicleDetectorIds;
+
+  IntersectionTensorForm(int[] signalPhaseIds, int[] vehicleDetectorIds) {
+    this.signalPhaseIds = signalPhaseIds;
+    this.vehicleDetectorIds = vehicleDetectorIds;
+  }
+
+  boolean isBound() {
+    return this.signalPhaseIds != null;
+  }
+
+  // true if tensor values are already in this form's layout
+  boolean hasLayout(IntersectionTensor tensor) {
+    if (!isBound()) {
+      return true;
+    }
+    if (tensor.signalPhaseCount() != this.signalPhaseIds.length
+        || tensor.vehicleDetectorCount() != this.vehicleDetectorIds.length) {
+      return false;
+    }
+    for (int i = 0; i < this.signalPhaseIds.length; i += 1) {
+      if (tensor.signalPhaseId(i) != this.signalPhaseIds[i]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < this.vehicleDetectorIds.length; i += 1) {
+      if (tensor.vehicleDetectorId(i) != this.vehicleDetectorIds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public Class<?> type() {
     return IntersectionTensor.class;
   }
 
+  @Override
+  public IntersectionTensor unit() {
+    return isBound() ? new IntersectionTensor(this.signalPhaseIds, this.vehicleDetectorIds) : null;
+  }
+
   @Override
   public Item mold(IntersectionTensor tensor) {
-    final Record signalPhases = Record.of();
-    for (HashTrieMap.Entry<Integer, SignalPhaseTensor> entry : tensor.signalPhases) {
-      signalPhases.slot(Num.from(entry.getKey()), entry.getValue().toValue());
+    final int phaseCount = tensor.signalPhaseCount();
+    final Record signalPhases = Record.create(phaseCount);
+    for (int i = 0; i < phaseCount; i += 1) {
+      signalPhases.slot(Num.from(tensor.signalPhaseId(i)), Record.create(3)
+          .slot("red", tensor.red(i))
+          .slot("yellow", tensor.yellow(i))
+          .slot("green", tensor.green(i)));
     }
 
-    final Record vehicleDetectors = Record.of();
-    for (HashTrieMap.Entry<Integer, VehicleDetectorTensor> entry : tensor.vehicleDetectors) {
-      vehicleDetectors.slot(Num.from(entry.getKey()), entry.getValue().toValue());
+    final int detectorCount = tensor.vehicleDetectorCount();
+    final Record vehicleDetectors = Record.create(detectorCount);
+    for (int i = 0; i < detectorCount; i += 1) {
+      vehicleDetectors.slot(Num.from(tensor.vehicleDetectorId(i)), Record.create(2)
+          .slot("occupancy", tensor.occupancy(i))
+          .slot("count", tensor.count(i)));
     }
 
     return Record.create(2)
@@ -173,53 +486,109 @@ final class IntersectionTensorForm extends TensorForm<IntersectionTensor> {
   @Override
   public IntersectionTensor cast(Item item) {
     final Value value = item.toValue();
-    HashTrieMap<Integer, SignalPhaseTensor> signalPhases = HashTrieMap.empty();
+    final IntersectionTensor tensor = new IntersectionTensor();
     for (Item member : value.get("signalPhases")) {
-      final int id = member.key().intValue();
-      final SignalPhaseTensor tensor = member.toValue().coerce(SignalPhaseTensor.form());
-      signalPhases = signalPhases.updated(id, tensor);
+      final SignalPhaseTensor signalTensor = member.toValue().coerce(SignalPhaseTensor.form());
+      if (signalTensor != null) {
+        final int slot = tensor.signalPhase(member.key().intValue());
+        if (slot < 0) {
+          continue;
+        }
+        tensor.setRed(slot, signalTensor.red);
+        tensor.setYellow(slot, signalTensor.yellow);
+        tensor.setGreen(slot, signalTensor.green);
+      }
     }
 
-    HashTrieMap<Integer, VehicleDetectorTensor> vehicleDetectors = HashTrieMap.empty();
     for (Item member : value.get("vehicleDetectors")) {
-      final int id = member.key().intValue();
-      final VehicleDetectorTensor tensor = member.toValue().coerce(VehicleDetectorTensor.form());
-      vehicleDetectors = vehicleDetectors.updated(id, tensor);
+      final VehicleDetectorTensor vehicleTensor = member.toValue().coerce(VehicleDetectorTensor.form());
+      if (vehicleTensor != null) {
+        final int slot = tensor.vehicleDetector(member.key().intValue());
+        if (slot < 0) {
+          continue;
+        }
+        tensor.setOccupancy(slot, vehicleTensor.occupancy);
+        tensor.setCount(slot, vehicleTensor.count);
+      }
     }
-    return new IntersectionTensor(signalPhases, vehicleDetectors);
+    return tensor;
   }
 
   @Override
   public void toTensor(IntersectionTensor object, TensorDims dims, float[] tensor, int offset) {
-    for (SignalPhaseTensor signalPhaseTensor : object.signalPhases.values()) {
-      SignalPhaseTensor.form().toTensor(signalPhaseTensor, dims, tensor, offset);
-      offset += SignalPhaseTensor.TENSOR_SIZE * dims.stride();
+    final int stride = dims.stride();
+    if (hasLayout(object)) {
+      final double[] values = object.values;
+      for (int i = 0, n = object.tensorSize(); i < n; i += 1) {
+        tensor[offset] = (float) values[i];
+        offset += stride;
+      }
+      return;
+    }
+    for (int i = 0; i < this.signalPhaseIds.length; i += 1) {
+      final int slot = object.indexOfSignalPhase(this.signalPhaseIds[i]);
+      tensor[offset] = slot >= 0 ? (float) object.red(slot) : 0.0f;
+      offset += stride;
+      tensor[offset] = slot >= 0 ? (float) object.yellow(slot) : 0.0f;
+      offset += stride;
+      tensor[offset] = slot >= 0 ? (float) object.green(slot) : 0.0f;
+      offset += stride;
     }
-    for (VehicleDetectorTensor vehicleDetectorTensor : object.vehicleDetectors.values()) {
-      VehicleDetectorTensor.form().toTensor(vehicleDetectorTensor, dims, tensor, offset);
-      offset += VehicleDetectorTensor.TENSOR_SIZE * dims.stride();
+    for (int i = 0; i < this.vehicleDetectorIds.length; i += 1) {
+      final int slot = object.indexOfVehicleDetector(this.vehicleDetectorIds[i]);
+      tensor[offset] = slot >= 0 ? (float) object.occupancy(slot) : 0.0f;
+      offset += stride;
     }
   }
 
   @Override
   public void toTensor(IntersectionTensor object, TensorDims dims, double[] tensor, int offset) {
-    for (SignalPhaseTensor signalPhaseTensor : object.signalPhases.values()) {
-      SignalPhaseTensor.form().toTensor(signalPhaseTensor, dims, tensor, offset);
-      offset += SignalPhaseTensor.TENSOR_SIZE * dims.stride();
+    final int stride = dims.stride();
+    if (hasLayout(object)) {
+      if (stride == 1) {
+        System.arraycopy(object.values, 0, tensor, offset, object.tensorSize());
+        return;
+      }
+      final double[] values = object.values;
+      for (int i = 0, n = object.tensorSize(); i < n; i += 1) {
+        tensor[offset] = values[i];
+        offset += stride;
+      }
+      return;
     }
-    for (VehicleDetectorTensor vehicleDetectorTensor : object.vehicleDetectors.values()) {
-      VehicleDetectorTensor.form().toTensor(vehicleDetectorTensor, dims, tensor, offset);
-      offset += VehicleDetectorTensor.TENSOR_SIZE * dims.stride();
+    for (int i = 0; i < this.signalPhaseIds.length; i += 1) {
+      final int slot = object.indexOfSignalPhase(this.signalPhaseIds[i]);
+      tensor[offset] = slot >= 0 ? object.red(slot) : 0.0;
+      offset += stride;
+      tensor[offset] = slot >= 0 ? object.yellow(slot) : 0.0;
+      offset += stride;
+      tensor[offset] = slot >= 0 ? object.green(slot) : 0.0;
+      offset += stride;
+    }
+    for (int i = 0; i < this.vehicleDetectorIds.length; i += 1) {
+      final int slot = object.indexOfVehicleDetector(this.vehicleDetectorIds[i]);
+      tensor[offset] = slot >= 0 ? object.occupancy(slot) : 0.0;
+      offset += stride;
     }
   }
 
   @Override
   public IntersectionTensor fromTensor(TensorDims dims, float[] tensor, int offset) {
-    return null;
+    if (!isBound()) {
+      return null;
+    }
+    final IntersectionTensor object = new IntersectionTensor(this.signalPhaseIds, this.vehicleDetectorIds);
+    object.fromTensor(dims, tensor, offset);
+    return object;
   }
 
   @Override
   public IntersectionTensor fromTensor(TensorDims dims, double[] tensor, int offset) {
-    return null;
+    if (!isBound()) {
+      return null;
+    }
+    final IntersectionTensor object = new IntersectionTensor(this.signalPhaseIds, this.vehicleDetectorIds);
+    object.fromTensor(dims, tensor, offset);
+    return object;
   }
 }
@@ -0,0 +1,186 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.nio.ByteBuffer;
+import swim.structure.Data;
+
+/**
+ * Compact binary encoding of intersection samples, published as
+ * {@link Data} in place of nested Recon records.
+ *
+ * <p>Each frame starts with a flags byte. Key frames carry the layout, as a
+ * u16 phase count, a u16 detector count, and the u16 phase and detector ids
+ * in slot order; delta frames reuse the layout of the previous frame. Then
+ * follow the tensor values in slot order, either as float32, or as ratios
+ * quantized to one unsigned byte, {@code round(v * 255)}; in delta frames
+ * each byte is instead the difference from the previous frame's quantized
+ * value, modulo 256, so decoding is exact. Detector counts follow as u16.
+ * All multi-byte values are big-endian.
+ */
+public final class IntersectionTensorCodec {
+  final boolean quantized;
+  final boolean delta;
+
+  IntersectionTensorCodec(boolean quantized, boolean delta) {
+    this.quantized = quantized;
+    this.delta = delta;
+  }
+
+  public boolean isQuantized() {
+    return this.quantized;
+  }
+
+  public boolean isDelta() {
+    return this.delta;
+  }
+
+  /**
+   * Encodes {@code sample}, as a delta from {@code previous} if this codec
+   * is a delta codec and {@code previous} is non-null with the same layout,
+   * and as a key frame otherwise.
+   */
+  public Data encode(IntersectionSample sample, IntersectionSample previous) {
+    final int phaseCount = sample.signalPhaseCount();
+    final int detectorCount = sample.vehicleDetectorCount();
+    final int width = sample.tensorSize();
+    final boolean delta = this.delta && previous != null && previous.history == sample.history
+        && previous.tensorSize() == width;
+    final boolean keyFrame = !delta;
+    int flags = this.quantized ? QUANTIZED : 0;
+    if (delta) {
+      flags |= DELTA;
+    } else {
+      flags |= KEY_FRAME;
+    }
+    final int size = 1 + (keyFrame ? 4 + 2 * (phaseCount + detectorCount) : 0)
+        + width * (this.quantized ? 1 : 4) + 2 * detectorCount;
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.put((byte) flags);
+    if (keyFrame) {
+      buffer.putShort((short) phaseCount);
+      buffer.putShort((short) detectorCount);
+      for (int i = 0; i < phaseCount; i += 1) {
+        buffer.putShort((short) sample.signalPhaseId(i));
+      }
+      for (int i = 0; i < detectorCount; i += 1) {
+        buffer.putShort((short) sample.vehicleDetectorId(i));
+      }
+    }
+    final double[] samples = sample.history.samples;
+    final int offset = sample.slot * width;
+    if (!this.quantized) {
+      for (int i = 0; i < width; i += 1) {
+        buffer.putFloat((float) samples[offset + i]);
+      }
+    } else if (delta) {
+      final int previousOffset = previous.slot * width;
+      for (int i = 0; i < width; i += 1) {
+        buffer.put((byte) (quantize(samples[offset + i]) - quantize(samples[previousOffset + i])));
+      }
+    } else {
+      for (int i = 0; i < width; i += 1) {
+        buffer.put((byte) quantize(samples[offset + i]));
+      }
+    }
+    for (int i = 0; i < detectorCount; i += 1) {
+      buffer.putShort((short) Math.min(sample.count(i), 0xFFFF));
+    }
+    return Data.wrap(buffer.array());
+  }
+
+  /**
+   * Decodes a frame into a new tensor. Delta frames are applied to
+   * {@code previous}, which must be the tensor decoded from the preceding
+   * frame; returns {@code null} if a delta frame has no usable base.
+   */
+  public static IntersectionTensor decode(Data data, IntersectionTensor previous) {
+    final ByteBuffer buffer = ByteBuffer.wrap(data.toByteArray());
+    final int flags = buffer.get() & 0xFF;
+    final IntersectionTensor tensor;
+    if ((flags & KEY_FRAME) != 0) {
+      final int[] signalPhaseIds = new int[buffer.getShort() & 0xFFFF];
+      final int[] vehicleDetectorIds = new int[buffer.getShort() & 0xFFFF];
+      for (int i = 0; i < signalPhaseIds.length; i += 1) {
+        signalPhaseIds[i] = buffer.getShort() & 0xFFFF;
+      }
+      for (int i = 0; i < vehicleDetectorIds.length; i += 1) {
+        vehicleDetectorIds[i] = buffer.getShort() & 0xFFFF;
+      }
+      tensor = new IntersectionTensor(signalPhaseIds, vehicleDetectorIds);
+    } else if (previous != null) {
+      tensor = previous.clone();
+    } else {
+      return null;
+    }
+    final double[] values = tensor.values;
+    final int width = tensor.tensorSize();
+    if ((flags & QUANTIZED) == 0) {
+      for (int i = 0; i < width; i += 1) {
+        values[i] = (double) buffer.getFloat();
+      }
+    } else if ((flags & DELTA) != 0) {
+      for (int i = 0; i < width; i += 1) {
+        values[i] = dequantize((quantize(values[i]) + buffer.get()) & 0xFF);
+      }
+    } else {
+      for (int i = 0; i < width; i += 1) {
+        values[i] = dequantize(buffer.get() & 0xFF);
+      }
+    }
+    for (int i = 0, n = tensor.vehicleDetectorCount(); i < n; i += 1) {
+      tensor.counts[i] = buffer.getShort() & 0xFFFF;
+    }
+    return tensor;
+  }
+
+  static int quantize(double ratio) {
+    if (!(ratio > 0.0)) {
+      return 0;
+    } else if (ratio >= 1.0) {
+      return 0xFF;
+    }
+    return (int) Math.round(ratio * 255.0);
+  }
+
+  static double dequantize(int q) {
+    return (double) q / 255.0;
+  }
+
+  /**
+   * Returns the codec with the given name, one of {@code float32},
+   * {@code q8}, or {@code q8delta}, or {@code null} for any other name.
+   */
+  public static IntersectionTensorCodec forName(String name) {
+    switch (name) {
+      case "float32":
+        return FLOAT32;
+      case "q8":
+        return Q8;
+      case "q8delta":
+        return Q8_DELTA;
+      default:
+        return null;
+    }
+  }
+
+  static final int QUANTIZED = 0x01;
+  static final int DELTA = 0x02;
+  static final int KEY_FRAME = 0x04;
+
+  public static final IntersectionTensorCodec FLOAT32 = new IntersectionTensorCodec(false, false);
+  public static final IntersectionTensorCodec Q8 = new IntersectionTensorCodec(true, false);
+  public static final IntersectionTensorCodec Q8_DELTA = new IntersectionTensorCodec(true, true);
+}
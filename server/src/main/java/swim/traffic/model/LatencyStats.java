@@ -0,0 +1,153 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Sliding window latency, in milliseconds, of each leg of a controller
+ * update's trip: from the controller to the gateway, from the gateway to
+ * this server, and from arrival at this server to the flush that publishes
+ * it on the intersection's state lanes. The node-wide {@link #total()} keeps
+ * a {@link LogHistogram} per leg and interval, and is lock-free, so that
+ * every agent can feed it from its ingest path. Each intersection keeps a
+ * {@link CompactHistogram} per leg and interval instead, a few kilobytes in
+ * all, which only its own agent records into and reads.
+ */
+public final class LatencyStats {
+  final LatencyStats parent;
+  final int slotCount;
+  final long interval;
+  final SlidingHistogram[] legs; // null unless this is a total
+  final LogHistogram snapshot; // guarded by this; null unless this is a total
+  final CompactHistogram[] slots; // per leg and interval, null for a total
+  final long[] epochs; // interval number held by each slot
+  final CompactHistogram summary; // null for a total
+
+  public LatencyStats(LatencyStats parent, int slotCount, long interval) {
+    this.parent = parent;
+    this.slotCount = slotCount;
+    this.interval = interval;
+    if (parent == null) {
+      this.legs = new SlidingHistogram[LEG_NAMES.length];
+      for (int i = 0; i < this.legs.length; i += 1) {
+        this.legs[i] = new SlidingHistogram(slotCount, interval, MAX_LATENCY);
+      }
+      this.snapshot = new LogHistogram(MAX_LATENCY);
+      this.slots = null;
+      this.epochs = null;
+      this.summary = null;
+    } else {
+      this.legs = null;
+      this.snapshot = null;
+      this.slots = new CompactHistogram[LEG_NAMES.length * slotCount];
+      for (int i = 0; i < this.slots.length; i += 1) {
+        this.slots[i] = new CompactHistogram(MAX_LATENCY, SLOT_LIMIT);
+      }
+      this.epochs = new long[LEG_NAMES.length * slotCount];
+      this.summary = new CompactHistogram(MAX_LATENCY, SLOT_LIMIT);
+    }
+  }
+
+  public void record(int leg, long time, long latency) {
+    if (this.legs != null) {
+      this.legs[leg].record(time, latency);
+    } else {
+      recordSlot(leg, time, latency);
+    }
+    if (this.parent != null) {
+      this.parent.record(leg, time, latency);
+    }
+  }
+
+  // same slot recycling as SlidingHistogram
+  void recordSlot(int leg, long time, long latency) {
+    final long epoch = time / this.interval;
+    final int slot = leg * this.slotCount + (int) (epoch % this.slotCount);
+    final long current = this.epochs[slot];
+    if (current != epoch) {
+      if (current > epoch) {
+        return; // too late for its interval, which has been recycled
+      }
+      this.epochs[slot] = epoch;
+      this.slots[slot].reset();
+    }
+    this.slots[slot].record(latency);
+  }
+
+  /**
+   * Returns the count, common percentiles, and maximum latency of each leg
+   * over the {@code window} milliseconds up to {@code time}.
+   */
+  public synchronized Value toValue(long time, long window) {
+    final Record record = Record.create(LEG_NAMES.length + 1).slot("window", window);
+    for (int i = 0; i < LEG_NAMES.length; i += 1) {
+      if (this.legs != null) {
+        record.slot(LEG_NAMES[i], this.legs[i].snapshot(time, window, this.snapshot).toValue());
+      } else {
+        record.slot(LEG_NAMES[i], summarize(i, time, window).toValue());
+      }
+    }
+    return record;
+  }
+
+  CompactHistogram summarize(int leg, long time, long window) {
+    this.summary.reset();
+    final long epoch = time / this.interval;
+    final long intervals = Math.min((window + this.interval - 1L) / this.interval, this.slotCount);
+    for (int i = leg * this.slotCount, n = i + this.slotCount; i < n; i += 1) {
+      final long slotEpoch = this.epochs[i];
+      if (slotEpoch <= epoch && slotEpoch > epoch - intervals) {
+        this.summary.add(this.slots[i]);
+      }
+    }
+    return this.summary;
+  }
+
+  /**
+   * Appends the latency percentiles of each leg over each of
+   * {@code windows}, in the Prometheus text format. Only totals keep
+   * percentiles; intersections append nothing.
+   */
+  public synchronized void writeMetrics(StringBuilder out, long time, long... windows) {
+    if (this.legs == null) {
+      return;
+    }
+    out.append("# TYPE traffic_latency_ms summary\n");
+    for (long window : windows) {
+      for (int i = 0; i < LEG_NAMES.length; i += 1) {
+        this.legs[i].snapshot(time, window, this.snapshot).writeMetrics(out, "traffic_latency_ms",
+            "leg=\"" + LEG_NAMES[i] + "\",window=\"" + window / 1000L + "s\"");
+      }
+    }
+  }
+
+  public static final int CONTROLLER_TO_GATEWAY = 0;
+  public static final int GATEWAY_TO_SERVER = 1;
+  public static final int SERVER_TO_PUBLISH = 2;
+  static final String[] LEG_NAMES = {"controllerToGateway", "gatewayToServer", "serverToPublish"};
+  static final long MAX_LATENCY = (1L << 20) - 1L; // about 17 minutes
+  // an intersection's interval only fills past this at thousands of updates a second
+  static final int SLOT_LIMIT = 1 << 20;
+
+  // 10 minutes of 10 second intervals
+  private static final LatencyStats total = new LatencyStats(null, 60, 10L * 1000L);
+
+  // latency of every intersection on this node
+  public static LatencyStats total() {
+    return total;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Lock-free histogram of non-negative values, such as milliseconds, in the
+ * style of an HDR histogram: values below {@code 2 * SUB_BUCKETS} are counted
+ * exactly, and larger values in log-linear buckets of {@code SUB_BUCKETS}
+ * sub-buckets per power of two, which bounds the relative error of any
+ * reported percentile to about 3%. Recording is a single atomic increment
+ * per counter, so many agents may record into a shared histogram. Values
+ * above {@code maxValue} are recorded as {@code maxValue}; a lower bound
+ * shrinks the bucket array.
+ */
+public final class LogHistogram {
+  final long maxValue;
+  final AtomicLongArray counts;
+  final AtomicLong count;
+  final AtomicLong sum;
+  final AtomicLong max;
+
+  public LogHistogram(long maxValue) {
+    if (maxValue <= 0L || maxValue > MAX_VALUE) {
+      throw new IllegalArgumentException("maxValue: " + maxValue);
+    }
+    this.maxValue = maxValue;
+    this.counts = new AtomicLongArray(bucket(maxValue) + 1);
+    this.count = new AtomicLong();
+    this.sum = new AtomicLong();
+    this.max = new AtomicLong();
+  }
+
+  public LogHistogram() {
+    this(MAX_VALUE);
+  }
+
+  public void record(long value) {
+    if (value < 0L) {
+      value = 0L;
+    } else if (value > this.maxValue) {
+      value = this.maxValue;
+    }
+    this.counts.incrementAndGet(bucket(value));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(value);
+    long max = this.max.get();
+    while (value > max && !this.max.compareAndSet(max, value)) {
+      max = this.max.get();
+    }
+  }
+
+  public long count() {
+    return this.count.get();
+  }
+
+  public long sum() {
+    return this.sum.get();
+  }
+
+  public long max() {
+    return this.max.get();
+  }
+
+  public double mean() {
+    final long count = this.count.get();
+    return count != 0L ? (double) this.sum.get() / (double) count : 0.0;
+  }
+
+  /**
+   * Returns the greatest value equivalent to the {@code q} quantile of
+   * recorded values, or {@code 0} if nothing has been recorded. Concurrent
+   * recording may skew the result by the values recorded during the scan.
+   */
+  public long percentile(double q) {
+    final int n = this.counts.length();
+    long total = 0L;
+    for (int i = 0; i < n; i += 1) {
+      total += this.counts.get(i);
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+    final long rank = Math.max((long) Math.ceil(q * (double) total), 1L);
+    long seen = 0L;
+    for (int i = 0; i < n; i += 1) {
+      seen += this.counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  /**
+   * Adds the counts of {@code that} histogram, which must have the same
+   * {@code maxValue}, to this one.
+   */
+  public void add(LogHistogram that) {
+    if (that.maxValue != this.maxValue) {
+      throw new IllegalArgumentException("maxValue mismatch");
+    }
+    for (int i = 0, n = this.counts.length(); i < n; i += 1) {
+      final long delta = that.counts.get(i);
+      if (delta != 0L) {
+        this.counts.addAndGet(i, delta);
+      }
+    }
+    this.count.addAndGet(that.count.get());
+    this.sum.addAndGet(that.sum.get());
+    final long value = that.max.get();
+    long max = this.max.get();
+    while (value > max && !this.max.compareAndSet(max, value)) {
+      max = this.max.get();
+    }
+  }
+
+  /**
+   * Zeroes all counts; values recorded concurrently may be lost.
+   */
+  public void reset() {
+    for (int i = 0, n = this.counts.length(); i < n; i += 1) {
+      this.counts.set(i, 0L);
+    }
+    this.count.set(0L);
+    this.sum.set(0L);
+    this.max.set(0L);
+  }
+
+  /**
+   * Returns a summary record of the count, common percentiles, and maximum.
+   */
+  public Value toValue() {
+    return Record.create(6)
+        .slot("count", count())
+        .slot("p50", percentile(0.5))
+        .slot("p90", percentile(0.9))
+        .slot("p99", percentile(0.99))
+        .slot("p999", percentile(0.999))
+        .slot("max", max());
+  }
+
+  /**
+   * Appends this histogram to {@code out} as a Prometheus summary named
+   * {@code name}, with {@code labels}, if non-empty, on every sample.
+   */
+  public void writeMetrics(StringBuilder out, String name, String labels) {
+    final String prefix = labels.isEmpty() ? "{" : '{' + labels + ',';
+    for (double q : QUANTILES) {
+      out.append(name).append(prefix).append("quantile=\"").append(q).append("\"} ")
+          .append(percentile(q)).append('\n');
+    }
+    final String suffix = labels.isEmpty() ? " " : '{' + labels + "} ";
+    out.append(name).append("_sum").append(suffix).append(sum()).append('\n');
+    out.append(name).append("_count").append(suffix).append(count()).append('\n');
+  }
+
+  static int bucket(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long highestEquivalent(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+    final long mantissa = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((mantissa + 1L) << shift) - 1L;
+  }
+
+  @Override
+  public String toString() {
+    return "LogHistogram" + '(' + "count: " + count() + ", p50: " + percentile(0.5)
+        + ", p99: " + percentile(0.99) + ", max: " + max() + ')';
+  }
+
+  static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final long MAX_VALUE = (1L << 40) - 1L;
+  static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+}
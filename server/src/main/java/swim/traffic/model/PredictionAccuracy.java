@@ -0,0 +1,182 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Measures how far off the transition times predicted by signal phase
+ * models were, once the actual transitions arrive: the absolute prediction
+ * error in milliseconds per transition type, the number of predictions
+ * within {@code prediction.tolerance} milliseconds, and the number of times
+ * models flipped between predictable and unpredictable. The node-wide
+ * {@link #total()} keeps a lock-free {@link LogHistogram} of errors per
+ * transition type, which every agent feeds. Each intersection keeps a
+ * {@link CompactHistogram} per transition type instead, under a kilobyte
+ * apiece, whose counts are halved as they saturate so that percentiles
+ * favour recent predictions; only the intersection's own agent records
+ * into it.
+ */
+public final class PredictionAccuracy {
+  final PredictionAccuracy parent;
+  final LogHistogram[] errors; // null unless this is a total
+  final CompactHistogram[] recentErrors; // per transition type, null for a total
+  final AtomicLong hits;
+  final AtomicLong misses;
+  final AtomicLong flips;
+  final long since;
+
+  public PredictionAccuracy(PredictionAccuracy parent) {
+    this.parent = parent;
+    if (parent == null) {
+      this.errors = new LogHistogram[TRANSITION_NAMES.length];
+      for (int i = 0; i < this.errors.length; i += 1) {
+        this.errors[i] = new LogHistogram();
+      }
+      this.recentErrors = null;
+    } else {
+      this.errors = null;
+      this.recentErrors = new CompactHistogram[TRANSITION_NAMES.length];
+      for (int i = 0; i < this.recentErrors.length; i += 1) {
+        this.recentErrors[i] = new CompactHistogram(MAX_ERROR, ERROR_LIMIT);
+      }
+    }
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+    this.flips = new AtomicLong();
+    this.since = System.currentTimeMillis();
+  }
+
+  public PredictionAccuracy() {
+    this(null);
+  }
+
+  /**
+   * Records a prediction of a transition to {@code state} that was off by
+   * {@code error} milliseconds, early or late.
+   */
+  public void recordError(int state, long error) {
+    final long magnitude = Math.abs(error);
+    final int transition = transition(state);
+    if (this.errors != null) {
+      this.errors[transition].record(magnitude);
+    } else {
+      this.recentErrors[transition].record(magnitude);
+    }
+    if (magnitude <= TOLERANCE) {
+      this.hits.incrementAndGet();
+    } else {
+      this.misses.incrementAndGet();
+    }
+    if (this.parent != null) {
+      this.parent.recordError(state, error);
+    }
+  }
+
+  public void recordFlip() {
+    this.flips.incrementAndGet();
+    if (this.parent != null) {
+      this.parent.recordFlip();
+    }
+  }
+
+  public long count() {
+    return this.hits.get() + this.misses.get();
+  }
+
+  public long flips() {
+    return this.flips.get();
+  }
+
+  public double hitRate() {
+    final long hits = this.hits.get();
+    final long count = hits + this.misses.get();
+    return count != 0L ? (double) hits / (double) count : 0.0;
+  }
+
+  // flips per hour since this accuracy was created
+  public double flipRate() {
+    final long elapsed = Math.max(System.currentTimeMillis() - this.since, 1L);
+    return (double) this.flips.get() * 3600000.0 / (double) elapsed;
+  }
+
+  public Value toValue() {
+    final Record record = Record.create(TRANSITION_NAMES.length + 5);
+    for (int i = 0; i < TRANSITION_NAMES.length; i += 1) {
+      if (this.errors != null) {
+        record.slot(TRANSITION_NAMES[i], this.errors[i].toValue());
+      } else {
+        record.slot(TRANSITION_NAMES[i], this.recentErrors[i].toValue());
+      }
+    }
+    return record.slot("hits", this.hits.get())
+        .slot("misses", this.misses.get())
+        .slot("hitRate", hitRate())
+        .slot("flips", this.flips.get())
+        .slot("flipRate", flipRate());
+  }
+
+  /**
+   * Appends these counters to {@code out} in the Prometheus text format;
+   * error percentiles are only written for a total.
+   */
+  public void writeMetrics(StringBuilder out) {
+    if (this.errors != null) {
+      out.append("# TYPE traffic_prediction_error_ms summary\n");
+      for (int i = 0; i < TRANSITION_NAMES.length; i += 1) {
+        this.errors[i].writeMetrics(out, "traffic_prediction_error_ms",
+                                    "transition=\"" + TRANSITION_NAMES[i] + '"');
+      }
+    }
+    out.append("# TYPE traffic_prediction_hits_total counter\n")
+        .append("traffic_prediction_hits_total ").append(this.hits.get()).append('\n');
+    out.append("# TYPE traffic_prediction_misses_total counter\n")
+        .append("traffic_prediction_misses_total ").append(this.misses.get()).append('\n');
+    out.append("# TYPE traffic_model_flips_total counter\n")
+        .append("traffic_model_flips_total ").append(this.flips.get()).append('\n');
+  }
+
+  static int transition(int state) {
+    switch (state) {
+      case 3:
+        return 0;
+      case 2:
+        return 1;
+      default:
+        return 2;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PredictionAccuracy" + '(' + "count: " + count() + ", hitRate: " + hitRate()
+        + ", flips: " + this.flips.get() + ')';
+  }
+
+  static final String[] TRANSITION_NAMES = {"redToGreen", "greenToYellow", "yellowToRed"};
+  static final long TOLERANCE = Long.getLong("prediction.tolerance", 1000L);
+  static final long MAX_ERROR = (1L << 20) - 1L; // about 17 minutes
+  // an intersection's error counts are halved past this many predictions, as CycleStats does
+  static final int ERROR_LIMIT = 1024;
+
+  private static final PredictionAccuracy total = new PredictionAccuracy();
+
+  // accuracy of every model on this node
+  public static PredictionAccuracy total() {
+    return total;
+  }
+}
@@ -24,10 +24,16 @@ import swim.util.Murmur3;
 public final class SignalPhaseEvent {
   public long time;
   public int state;
+  public long confidence; // half width of the predicted time's confidence interval
 
-  public SignalPhaseEvent(long time, int state) {
+  public SignalPhaseEvent(long time, int state, long confidence) {
     this.time = time;
     this.state = state;
+    this.confidence = confidence;
+  }
+
+  public SignalPhaseEvent(long time, int state) {
+    this(time, state, 0L);
   }
 
   public SignalPhaseEvent() {
@@ -35,9 +41,13 @@ public final class SignalPhaseEvent {
   }
 
   public void update(long time, SignalPhaseTensor current, SignalPhaseTensor future) {
-    final int currentState = (int) Math.round(current.red);
-    final int futureState = (int) Math.round(future.red);
-    if (this.time == 0L && currentState != futureState && Math.abs(future.red - current.red) > 0.4) {
+    update(time, current.red, future.red);
+  }
+
+  public void update(long time, double current, double future) {
+    final int currentState = (int) Math.round(current);
+    final int futureState = (int) Math.round(future);
+    if (this.time == 0L && currentState != futureState && Math.abs(future - current) > 0.4) {
       this.time = time;
       this.state = futureState;
     }
@@ -49,7 +59,7 @@ public final class SignalPhaseEvent {
 
   @Override
   public SignalPhaseEvent clone() {
-    return new SignalPhaseEvent(time, state);
+    return new SignalPhaseEvent(time, state, confidence);
   }
 
   @Override
@@ -58,7 +68,7 @@ public final class SignalPhaseEvent {
       return true;
     } else if (other instanceof SignalPhaseEvent) {
       final SignalPhaseEvent that = (SignalPhaseEvent) other;
-      return time == that.time && state == that.state;
+      return time == that.time && state == that.state && confidence == that.confidence;
     } else {
       return false;
     }
@@ -66,13 +76,13 @@ public final class SignalPhaseEvent {
 
   @Override
   public int hashCode() {
-    return Murmur3.mash(Murmur3.mix(Murmur3.mix(0x7A3554D3,
-        Murmur3.hash(time)), Murmur3.hash(state)));
+    return Murmur3.mash(Murmur3.mix(Murmur3.mix(Murmur3.mix(0x7A3554D3,
+        Murmur3.hash(time)), Murmur3.hash(state)), Murmur3.hash(confidence)));
   }
 
   @Override
   public String toString() {
-    return "new" + ' ' + "SignalPhaseEvent" + '(' + time + "L, " + state + ')';
+    return "new" + ' ' + "SignalPhaseEvent" + '(' + time + "L, " + state + ", " + confidence + "L)";
   }
 
   private static Form<SignalPhaseEvent> form;
@@ -99,9 +109,13 @@ final class SignalPhaseEventForm extends Form<SignalPhaseEvent> {
 
   @Override
   public Item mold(SignalPhaseEvent event) {
-    return Record.create(2)
+    final Record record = Record.create(3)
         .slot("clk", event.time)
         .slot("st", event.state);
+    if (event.confidence != 0L) {
+      record.slot("conf", event.confidence);
+    }
+    return record;
   }
 
   @Override
@@ -109,8 +123,9 @@ final class SignalPhaseEventForm extends Form<SignalPhaseEvent> {
     final Value value = item.toValue();
     final long time = value.get("clk").longValue(0L);
     final int state = value.get("st").intValue(0);
+    final long confidence = value.get("conf").longValue(0L);
     if (time != 0L && state != 0) {
-      return new SignalPhaseEvent(time, state);
+      return new SignalPhaseEvent(time, state, confidence);
     } else {
       return null;
     }
@@ -25,22 +25,50 @@ public class SignalPhaseModel {
   long dt21; // time delta between consecutive yellow to red transitions
   long predictCount; // number of correct predictions
   long failureCount; // number of incorrect predictions
+  final CycleStats stats13 = new CycleStats(); // red to green cycle durations
+  final CycleStats stats32 = new CycleStats(); // green to yellow cycle durations
+  final CycleStats stats21 = new CycleStats(); // yellow to red cycle durations
+  PredictionAccuracy accuracy;
 
   public SignalPhaseModel(int phaseId) {
     this.phaseId = phaseId;
   }
 
+  public void setAccuracy(PredictionAccuracy accuracy) {
+    this.accuracy = accuracy;
+  }
+
   public boolean updateState(int state, long time) {
     if (this.state != state) {
+      final boolean predictable = isPredictable();
+      final boolean forecastable = this.accuracy != null && isForecastable();
       if (this.state == 1 && state == 3) {
+        if (forecastable) {
+          this.accuracy.recordError(state, time - projectedRedToGreen());
+        }
         this.dt13 = this.t13 != 0L ? time - this.t13 : 0L;
         this.t13 = time;
+        if (this.dt13 != 0L) {
+          this.stats13.add(this.dt13);
+        }
       } else if (this.state == 3 && state == 2) {
+        if (forecastable) {
+          this.accuracy.recordError(state, time - projectedGreenToYellow());
+        }
         this.dt32 = this.t32 != 0L ? time - this.t32 : 0L;
         this.t32 = time;
+        if (this.dt32 != 0L) {
+          this.stats32.add(this.dt32);
+        }
       } else if (this.state == 2 && state == 1) {
+        if (forecastable) {
+          this.accuracy.recordError(state, time - projectedYellowToRed());
+        }
         this.dt21 = this.t21 != 0L ? time - this.t21 : 0L;
         this.t21 = time;
+        if (this.dt21 != 0L) {
+          this.stats21.add(this.dt21);
+        }
       }
       this.state = state;
       if (hasCycled()) {
@@ -56,12 +84,16 @@ public class SignalPhaseModel {
           }
         }
       }
+      if (this.accuracy != null && predictable != isPredictable()) {
+        this.accuracy.recordFlip();
+      }
       return true;
     } else {
       return false;
     }
   }
 
+  // next transitions if the last cycle repeats exactly
   public long nextRedToGreen() {
     return this.dt13 != 0L ? this.t13 + this.dt13 : 0L;
   }
@@ -74,6 +106,140 @@ public class SignalPhaseModel {
     return this.dt21 != 0L ? this.t21 + this.dt21 : 0L;
   }
 
+  // next transitions as predicted: by the last cycle for coordinated
+  // phases, and by the recent average cycle for actuated phases
+  long projectedRedToGreen() {
+    return this.dt13 != 0L ? this.t13 + period(this.dt13, this.stats13) : 0L;
+  }
+
+  long projectedGreenToYellow() {
+    return this.dt32 != 0L ? this.t32 + period(this.dt32, this.stats32) : 0L;
+  }
+
+  long projectedYellowToRed() {
+    return this.dt21 != 0L ? this.t21 + period(this.dt21, this.stats21) : 0L;
+  }
+
+  /**
+   * Returns the first transition predicted to occur after {@code time}, in
+   * controller time, projecting the cycle forward as many times as needed,
+   * or {@code null} if this phase isn't forecastable.
+   */
+  public SignalPhaseEvent predictTransition(long time) {
+    if (!isForecastable()) {
+      return null;
+    }
+    final long cycle = projectedCycleTime();
+    if (cycle <= 0L) {
+      return null;
+    }
+    final long t13 = nextAfter(projectedRedToGreen(), time, cycle);
+    final long t32 = nextAfter(projectedGreenToYellow(), time, cycle);
+    final long t21 = nextAfter(projectedYellowToRed(), time, cycle);
+    final long confidence = confidence();
+    if (t13 <= t32 && t13 <= t21) {
+      return new SignalPhaseEvent(t13, 3, confidence);
+    } else if (t32 <= t21) {
+      return new SignalPhaseEvent(t32, 2, confidence);
+    } else {
+      return new SignalPhaseEvent(t21, 1, confidence);
+    }
+  }
+
+  static long nextAfter(long t, long time, long cycle) {
+    return t > time ? t : t + ((time - t) / cycle + 1L) * cycle;
+  }
+
+  // coordinated phases repeat their last cycle exactly; actuated phases
+  // are projected with their recent average cycle
+  long period(long dt, CycleStats stats) {
+    return isPredictable() ? dt : Math.round(stats.ewmaMean);
+  }
+
+  /**
+   * Returns the half width, in milliseconds, of the 95% confidence interval
+   * around each of the next transition times: {@code CONFIDENCE_Z} standard
+   * deviations of the last cycle's intervals for predictable phases. For
+   * actuated phases, whose cycles needn't be normally distributed, it's the
+   * wider of {@code CONFIDENCE_Z} recent standard deviations and half the
+   * central 95% of the cycle histogram, for the most variable transition.
+   */
+  public long confidence() {
+    if (isPredictable()) {
+      return (long) Math.ceil(CONFIDENCE_Z * Math.sqrt(cycleDeviation()));
+    }
+    return Math.max(spread(this.stats13), Math.max(spread(this.stats32), spread(this.stats21)));
+  }
+
+  static long spread(CycleStats stats) {
+    final long normal = (long) Math.ceil(CONFIDENCE_Z * stats.ewmaDeviation());
+    final long central = (stats.quantile(0.975) - stats.quantile(0.025)) / 2L;
+    return Math.max(normal, central);
+  }
+
+  public CycleStats redToGreenStats() {
+    return this.stats13;
+  }
+
+  public CycleStats greenToYellowStats() {
+    return this.stats32;
+  }
+
+  public CycleStats yellowToRedStats() {
+    return this.stats21;
+  }
+
+  /**
+   * Projects the current cycle forward and stores in the signal phase
+   * {@code slot} of {@code tensor} the fraction of the window
+   * {@code [time, time + window)} predicted to be spent red, yellow, and
+   * green. Returns {@code false}, and leaves {@code tensor} untouched, if
+   * this phase isn't predictable.
+   */
+  public boolean predictTensor(long time, long window, IntersectionTensor tensor, int slot) {
+    if (window <= 0L || !isForecastable()) {
+      return false;
+    }
+    final long cycle = projectedCycleTime();
+    if (cycle <= 0L) {
+      return false;
+    }
+    final long t13 = projectedRedToGreen();
+    final long t32 = projectedGreenToYellow();
+    final long green = Math.floorMod(t32 - t13, cycle);
+    final long yellow = Math.floorMod(projectedYellowToRed() - t32, cycle);
+    if (green + yellow >= cycle) {
+      return false;
+    }
+    long phase = Math.floorMod(time - t13, cycle); // 0 is the start of green
+    long remaining = window;
+    long dg = 0L;
+    long dy = 0L;
+    long dr = 0L;
+    while (remaining > 0L) {
+      final long segment;
+      if (phase < green) {
+        segment = Math.min(green - phase, remaining);
+        dg += segment;
+      } else if (phase < green + yellow) {
+        segment = Math.min(green + yellow - phase, remaining);
+        dy += segment;
+      } else {
+        segment = Math.min(cycle - phase, remaining);
+        dr += segment;
+      }
+      remaining -= segment;
+      phase += segment;
+      if (phase >= cycle) {
+        phase -= cycle;
+      }
+    }
+    tensor.setRed(slot, (double) dr / (double) window);
+    tensor.setYellow(slot, (double) dy / (double) window);
+    tensor.setGreen(slot, (double) dg / (double) window);
+    return true;
+  }
+
   public boolean hasCycled() {
     return this.dt13 != 0L && this.dt32 != 0L && this.dt21 != 0L;
   }
@@ -82,6 +248,11 @@ public class SignalPhaseModel {
     return (long) ((double) (this.dt13 + this.dt32 + this.dt21) / 3.0);
   }
 
+  long projectedCycleTime() {
+    return (long) ((double) (period(this.dt13, this.stats13) + period(this.dt32, this.stats32)
+        + period(this.dt21, this.stats21)) / 3.0);
+  }
+
   public double cycleDeviation() {
     final double ct = (double) (this.dt13 + this.dt32 + this.dt21) / 3.0;
     final double e13 = (dt13 - ct) * (dt13 - ct);
@@ -103,6 +274,25 @@ public class SignalPhaseModel {
     return this.failureCount >= FLUKE_TOLERANCE;
   }
 
+  /**
+   * Returns {@code true} if this phase isn't coordinated, but has cycled
+   * often enough, with little enough variation between recent cycles, for
+   * its average cycle to be a usable prediction.
+   */
+  public boolean isActuated() {
+    return !isPredictable() && isSteady(this.stats13) && isSteady(this.stats32) && isSteady(this.stats21);
+  }
+
+  static boolean isSteady(CycleStats stats) {
+    return stats.count >= FLUKE_TOLERANCE && stats.ewmaDeviation() <= ACTUATED_SPREAD * stats.ewmaMean;
+  }
+
+  public boolean isForecastable() {
+    return hasCycled() && (isPredictable() || isActuated());
+  }
+
   static final long CYCLE_EPSILON = 1000L;
   static final long FLUKE_TOLERANCE = 10L;
+  static final double ACTUATED_SPREAD = 0.25; // max deviation of an actuated cycle, relative to its mean
+  static final double CONFIDENCE_Z = 1.96; // two sided 95% normal quantile
 }
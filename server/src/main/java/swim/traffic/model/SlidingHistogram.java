@@ -0,0 +1,80 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring of {@link LogHistogram}s, each covering one {@code interval} of
+ * time, so that percentiles can be taken over a sliding window of the most
+ * recent intervals. Recording is lock-free and never allocates; the first
+ * value recorded in a new interval recycles the slot of the oldest one, and
+ * values recorded concurrently with that recycling may be dropped.
+ */
+public final class SlidingHistogram {
+  final long interval;
+  final LogHistogram[] slots;
+  final AtomicLongArray epochs; // interval number held by each slot
+
+  public SlidingHistogram(int slotCount, long interval, long maxValue) {
+    this.interval = interval;
+    this.slots = new LogHistogram[slotCount];
+    for (int i = 0; i < slotCount; i += 1) {
+      this.slots[i] = new LogHistogram(maxValue);
+    }
+    this.epochs = new AtomicLongArray(slotCount);
+  }
+
+  public long interval() {
+    return this.interval;
+  }
+
+  // longest window that can be snapshot
+  public long span() {
+    return this.interval * this.slots.length;
+  }
+
+  public void record(long time, long value) {
+    final long epoch = time / this.interval;
+    final int slot = (int) (epoch % this.slots.length);
+    final long current = this.epochs.get(slot);
+    if (current != epoch) {
+      if (current > epoch) {
+        return; // too late for its interval, which has been recycled
+      } else if (this.epochs.compareAndSet(slot, current, epoch)) {
+        this.slots[slot].reset();
+      }
+    }
+    this.slots[slot].record(value);
+  }
+
+  /**
+   * Resets {@code into}, which must have the same {@code maxValue} as this
+   * histogram, and adds to it all values recorded in the intervals that
+   * overlap the {@code window} milliseconds up to {@code time}.
+   */
+  public LogHistogram snapshot(long time, long window, LogHistogram into) {
+    into.reset();
+    final long epoch = time / this.interval;
+    final long count = Math.min((window + this.interval - 1L) / this.interval, this.slots.length);
+    for (int i = 0; i < this.slots.length; i += 1) {
+      final long slotEpoch = this.epochs.get(i);
+      if (slotEpoch <= epoch && slotEpoch > epoch - count) {
+        into.add(this.slots[i]);
+      }
+    }
+    return into;
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Arrays;
+
+/**
+ * Counts how many keys of a state map are in each state, so that rollups
+ * such as the maximum state, or the number of keys in a given state, are
+ * maintained in constant time per update rather than by rescanning the map.
+ * Controller states are small integers, so counts are kept in a dense array
+ * spanning the range of states seen so far.
+ */
+public final class StateHistogram {
+  int base; // state of counts[0]
+  int[] counts;
+  int size;
+  int max;
+
+  public StateHistogram() {
+    this.base = 0;
+    this.counts = EMPTY_COUNTS;
+    this.size = 0;
+    this.max = 0;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public int count(int state) {
+    final int index = state - this.base;
+    return index >= 0 && index < this.counts.length ? this.counts[index] : 0;
+  }
+
+  /**
+   * Returns the greatest state held by any key, or {@code defaultState} if
+   * there are no keys.
+   */
+  public int max(int defaultState) {
+    return this.size != 0 ? this.max : defaultState;
+  }
+
+  /**
+   * Records that a key changed from {@code oldState} to {@code newState};
+   * a {@code null} old state adds a key, and a {@code null} new state
+   * removes one.
+   */
+  public void update(Integer oldState, Integer newState) {
+    if (oldState != null) {
+      remove(oldState);
+    }
+    if (newState != null) {
+      add(newState);
+    }
+  }
+
+  public void add(int state) {
+    int index = state - this.base;
+    if (index < 0 || index >= this.counts.length) {
+      grow(state);
+      index = state - this.base;
+    }
+    this.counts[index] += 1;
+    if (this.size == 0 || state > this.max) {
+      this.max = state;
+    }
+    this.size += 1;
+  }
+
+  public void remove(int state) {
+    final int index = state - this.base;
+    if (index < 0 || index >= this.counts.length || this.counts[index] == 0) {
+      return;
+    }
+    this.counts[index] -= 1;
+    this.size -= 1;
+    if (state == this.max && this.counts[index] == 0 && this.size != 0) {
+      int i = index - 1;
+      while (this.counts[i] == 0) {
+        i -= 1;
+      }
+      this.max = this.base + i;
+    }
+  }
+
+  public void clear() {
+    Arrays.fill(this.counts, 0);
+    this.size = 0;
+    this.max = 0;
+  }
+
+  void grow(int state) {
+    if (this.counts.length == 0) {
+      this.base = state;
+      this.counts = new int[INITIAL_SPAN];
+      return;
+    }
+    final int newBase = Math.min(this.base, state);
+    final int newLimit = Math.max(this.base + this.counts.length, state + 1);
+    final int[] newCounts = new int[newLimit - newBase];
+    System.arraycopy(this.counts, 0, newCounts, this.base - newBase, this.counts.length);
+    this.base = newBase;
+    this.counts = newCounts;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder s = new StringBuilder("StateHistogram").append('(');
+    boolean first = true;
+    for (int i = 0; i < this.counts.length; i += 1) {
+      if (this.counts[i] != 0) {
+        s.append(first ? "" : ", ").append(this.base + i).append(": ").append(this.counts[i]);
+        first = false;
+      }
+    }
+    return s.append(')').toString();
+  }
+
+  static final int INITIAL_SPAN = 4;
+  static final int[] EMPTY_COUNTS = new int[0];
+}
@@ -0,0 +1,160 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import swim.structure.Form;
+import swim.structure.Item;
+import swim.structure.Kind;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.util.Murmur3;
+
+/**
+ * Approach and intersection counts behind the vehicle backup, vehicle flow,
+ * and pedestrian backup KPIs. Counts are additive, so a city total is kept
+ * up to date by subtracting an intersection's old counts and adding its new
+ * ones.
+ */
+public final class TrafficKpi {
+  // approaches at red lights, with and without waiting vehicles
+  public int redWaiting;
+  public int redClear;
+  // approaches at green lights, with and without flowing vehicles
+  public int greenFlowing;
+  public int greenClear;
+  // intersections with and without a pedestrian call
+  public int pedWaiting;
+  public int pedClear;
+
+  public TrafficKpi(int redWaiting, int redClear, int greenFlowing, int greenClear,
+                    int pedWaiting, int pedClear) {
+    this.redWaiting = redWaiting;
+    this.redClear = redClear;
+    this.greenFlowing = greenFlowing;
+    this.greenClear = greenClear;
+    this.pedWaiting = pedWaiting;
+    this.pedClear = pedClear;
+  }
+
+  public TrafficKpi() {
+    this(0, 0, 0, 0, 0, 0);
+  }
+
+  public void add(TrafficKpi that) {
+    this.redWaiting += that.redWaiting;
+    this.redClear += that.redClear;
+    this.greenFlowing += that.greenFlowing;
+    this.greenClear += that.greenClear;
+    this.pedWaiting += that.pedWaiting;
+    this.pedClear += that.pedClear;
+  }
+
+  public void subtract(TrafficKpi that) {
+    this.redWaiting -= that.redWaiting;
+    this.redClear -= that.redClear;
+    this.greenFlowing -= that.greenFlowing;
+    this.greenClear -= that.greenClear;
+    this.pedWaiting -= that.pedWaiting;
+    this.pedClear -= that.pedClear;
+  }
+
+  public Value toValue() {
+    return form().mold(this).toValue();
+  }
+
+  @Override
+  public TrafficKpi clone() {
+    return new TrafficKpi(redWaiting, redClear, greenFlowing, greenClear, pedWaiting, pedClear);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (other instanceof TrafficKpi) {
+      final TrafficKpi that = (TrafficKpi) other;
+      return redWaiting == that.redWaiting && redClear == that.redClear
+          && greenFlowing == that.greenFlowing && greenClear == that.greenClear
+          && pedWaiting == that.pedWaiting && pedClear == that.pedClear;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Murmur3.mash(Murmur3.mix(Murmur3.mix(Murmur3.mix(Murmur3.mix(Murmur3.mix(Murmur3.mix(0x4B5D1E27,
+        redWaiting), redClear), greenFlowing), greenClear), pedWaiting), pedClear));
+  }
+
+  @Override
+  public String toString() {
+    return "new" + ' ' + "TrafficKpi" + '(' + redWaiting + ", " + redClear + ", "
+        + greenFlowing + ", " + greenClear + ", " + pedWaiting + ", " + pedClear + ')';
+  }
+
+  private static Form<TrafficKpi> form;
+
+  @Kind
+  public static Form<TrafficKpi> form() {
+    if (form == null) {
+      form = new TrafficKpiForm();
+    }
+    return form;
+  }
+}
+
+final class TrafficKpiForm extends Form<TrafficKpi> {
+  @Override
+  public Class<?> type() {
+    return TrafficKpi.class;
+  }
+
+  @Override
+  public TrafficKpi unit() {
+    return new TrafficKpi();
+  }
+
+  @Override
+  public Item mold(TrafficKpi kpi) {
+    return Record.create(3)
+        .slot("vehicleBackup", Record.create(2)
+            .slot("waiting", kpi.redWaiting)
+            .slot("clear", kpi.redClear))
+        .slot("vehicleFlow", Record.create(2)
+            .slot("flowing", kpi.greenFlowing)
+            .slot("clear", kpi.greenClear))
+        .slot("pedestrianBackup", Record.create(2)
+            .slot("waiting", kpi.pedWaiting)
+            .slot("clear", kpi.pedClear));
+  }
+
+  @Override
+  public TrafficKpi cast(Item item) {
+    final Value value = item.toValue();
+    final Value vehicleBackup = value.get("vehicleBackup");
+    final Value vehicleFlow = value.get("vehicleFlow");
+    final Value pedestrianBackup = value.get("pedestrianBackup");
+    if (!vehicleBackup.isDefined() && !vehicleFlow.isDefined() && !pedestrianBackup.isDefined()) {
+      return null;
+    }
+    return new TrafficKpi(vehicleBackup.get("waiting").intValue(0),
+                          vehicleBackup.get("clear").intValue(0),
+                          vehicleFlow.get("flowing").intValue(0),
+                          vehicleFlow.get("clear").intValue(0),
+                          pedestrianBackup.get("waiting").intValue(0),
+                          pedestrianBackup.get("clear").intValue(0));
+  }
+}
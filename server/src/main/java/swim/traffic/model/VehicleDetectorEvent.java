@@ -35,9 +35,13 @@ public final class VehicleDetectorEvent {
   }
 
   public void update(long time, VehicleDetectorTensor current, VehicleDetectorTensor future) {
-    final int currentState = (int) Math.round(current.occupancy);
-    final int futureState = (int) Math.round(future.occupancy);
-    if (this.time == 0L && currentState != futureState && Math.abs(future.occupancy - current.occupancy) > 0.4) {
+    update(time, current.occupancy, future.occupancy);
+  }
+
+  public void update(long time, double current, double future) {
+    final int currentState = (int) Math.round(current);
+    final int futureState = (int) Math.round(future);
+    if (this.time == 0L && currentState != futureState && Math.abs(future - current) > 0.4) {
       this.time = time;
       this.state = futureState;
     }
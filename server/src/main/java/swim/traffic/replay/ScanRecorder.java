@@ -0,0 +1,198 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import swim.recon.Recon;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Appends controller scan records, as received, to memory-mapped segment
+ * files in a capture directory. Segments are fixed size and never
+ * rewritten; each run starts a new segment after the last existing one, so
+ * captures from successive runs replay in order. Agents only hand records
+ * to a single writer thread, which formats and writes them in the order
+ * they were appended, so recording takes no lock on the ingest path.
+ *
+ * <p>A segment starts with a u32 magic number and a u16 version, followed
+ * by entries of the form: u32 length of the rest of the entry, i64 receive
+ * time, i64 controller clock, u16 node URI length, node URI, and the Recon
+ * text of the scan record, both in UTF-8. A zero length marks the end of
+ * the segment. All multi-byte values are big-endian.
+ */
+public final class ScanRecorder implements Closeable {
+  final Path directory;
+  final int segmentSize;
+  int segmentIndex;
+  FileChannel channel;
+  MappedByteBuffer buffer;
+  volatile long entryCount;
+  boolean failed; // whether a segment couldn't be opened, which stops recording
+  final ExecutorService writer;
+
+  public ScanRecorder(Path directory, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(directory);
+    final List<Path> segments = ScanSegmentReader.segments(directory);
+    this.segmentIndex = segments.isEmpty() ? 0 : segmentIndex(segments.get(segments.size() - 1)) + 1;
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "traffic-scan-recorder");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public long entryCount() {
+    return this.entryCount;
+  }
+
+  /**
+   * Queues {@code record}, received by {@code nodeUri} at {@code time}, for
+   * the writer thread; records appended after {@link #close()} are dropped.
+   */
+  public void append(Uri nodeUri, long time, Value record) {
+    try {
+      this.writer.execute(() -> write(nodeUri, time, record));
+    } catch (RejectedExecutionException cause) {
+      // closed
+    }
+  }
+
+  void write(Uri nodeUri, long time, Value record) {
+    if (this.failed) {
+      return;
+    }
+    final byte[] uri = nodeUri.toString().getBytes(StandardCharsets.UTF_8);
+    final byte[] text = Recon.toString(record).getBytes(StandardCharsets.UTF_8);
+    final int length = 8 + 8 + 2 + uri.length + text.length;
+    if (uri.length > 0xFFFF || 4 + length > this.segmentSize - HEADER_SIZE) {
+      return; // can never fit in a segment
+    }
+    try {
+      if (this.buffer == null || this.buffer.remaining() < 4 + length + 4) {
+        roll();
+      }
+    } catch (IOException cause) {
+      this.failed = true;
+      System.err.println("failed to record scans: " + cause);
+      return;
+    }
+    final MappedByteBuffer buffer = this.buffer;
+    buffer.putInt(length);
+    buffer.putLong(time);
+    buffer.putLong(record.get("clk").longValue(0L));
+    buffer.putShort((short) uri.length);
+    buffer.put(uri);
+    buffer.put(text);
+    this.entryCount += 1L;
+  }
+
+  void roll() throws IOException {
+    closeSegment();
+    final Path path = this.directory.resolve(segmentName(this.segmentIndex));
+    this.segmentIndex += 1;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L, this.segmentSize);
+    this.buffer.putInt(MAGIC);
+    this.buffer.putShort(VERSION);
+  }
+
+  void closeSegment() throws IOException {
+    if (this.buffer != null) {
+      // the rest of the segment is zero filled, which reads as the end marker
+      this.buffer.force();
+      this.buffer = null;
+    }
+    if (this.channel != null) {
+      this.channel.close();
+      this.channel = null;
+    }
+  }
+
+  /**
+   * Writes the records already appended, and closes the current segment.
+   */
+  @Override
+  public void close() throws IOException {
+    this.writer.shutdown();
+    try {
+      this.writer.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.writer.shutdownNow();
+    closeSegment();
+  }
+
+  static String segmentName(int index) {
+    return String.format("scan-%06d.seg", index);
+  }
+
+  static int segmentIndex(Path path) {
+    final String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring(5, name.length() - 4));
+  }
+
+  private static ScanRecorder shared;
+  private static boolean sharedOpened;
+
+  /**
+   * Returns the plane-wide recorder for the {@code scan.record.dir} system
+   * property, or {@code null} if recording is disabled.
+   */
+  public static synchronized ScanRecorder shared() {
+    if (!sharedOpened) {
+      sharedOpened = true;
+      final String directory = System.getProperty("scan.record.dir");
+      if (directory != null) {
+        try {
+          shared = new ScanRecorder(Paths.get(directory), SEGMENT_SIZE);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            shared.close();
+          } catch (IOException e) {
+            // exiting
+          }
+        }));
+      }
+    }
+    return shared;
+  }
+
+  static final int MAGIC = 0x5343414E; // "SCAN"
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 6;
+  static final long CLOSE_TIMEOUT = 10L * 1000L;
+  static final int SEGMENT_SIZE = Integer.getInteger("scan.record.segment.size", 64 * 1024 * 1024);
+}
@@ -0,0 +1,119 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.replay;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import swim.api.space.Space;
+import swim.structure.Record;
+import swim.traffic.sim.SimClock;
+import swim.uri.Uri;
+
+/**
+ * Replays a scan capture into a space, commanding each record to its
+ * intersection's {@code addScans} lane, so it takes the same path as a
+ * live scan. Entries are paced by their recorded receive times, which
+ * preserves the burstiness of the original stream, scaled by
+ * {@code speed}, which must be positive. The replay installs a
+ * {@link SimClock} that reads the first recorded receive time when the
+ * replayer is created, so agents sample, and measure lag, on the time of
+ * the capture at the pace it is replayed; create the replayer before the
+ * intersections start, so that their clock doesn't jump back.
+ */
+public final class ScanReplayer {
+  final Space space;
+  final SimClock clock;
+  final List<Path> segments;
+  final Map<String, Uri> nodeUris;
+  Thread thread;
+  volatile boolean running;
+
+  public ScanReplayer(Space space, Path directory, double speed) throws IOException {
+    this.space = space;
+    this.segments = ScanSegmentReader.segments(directory);
+    this.clock = new SimClock(startTime(this.segments), speed);
+    this.clock.install();
+    this.nodeUris = new HashMap<>();
+  }
+
+  // receive time of the first recorded entry, or now if there are none
+  static long startTime(List<Path> segments) throws IOException {
+    for (Path segment : segments) {
+      try (ScanSegmentReader reader = new ScanSegmentReader(segment)) {
+        if (reader.next()) {
+          return reader.time();
+        }
+      }
+    }
+    return System.currentTimeMillis();
+  }
+
+  public void start() {
+    if (this.thread != null) {
+      throw new IllegalStateException("replay already started");
+    }
+    this.running = true;
+    this.thread = new Thread(this::run, "traffic-replay");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  public void stop() {
+    this.running = false;
+    if (this.thread != null) {
+      this.thread.interrupt();
+      try {
+        this.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    this.clock.uninstall();
+  }
+
+  void run() {
+    try {
+      for (int i = 0; i < this.segments.size() && this.running; i += 1) {
+        try (ScanSegmentReader reader = new ScanSegmentReader(this.segments.get(i))) {
+          while (this.running && reader.next()) {
+            final long delay = this.clock.wallTime(reader.time()) - System.currentTimeMillis();
+            if (delay > 0L) {
+              Thread.sleep(delay);
+            }
+            this.space.command(nodeUri(reader.nodeUri()), SCANS_LANE, Record.create(1).item(reader.record()));
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  Uri nodeUri(String nodeUri) {
+    Uri uri = this.nodeUris.get(nodeUri);
+    if (uri == null) {
+      uri = Uri.parse(nodeUri);
+      this.nodeUris.put(nodeUri, uri);
+    }
+    return uri;
+  }
+
+  static final Uri SCANS_LANE = Uri.parse("addScans");
+}
@@ -0,0 +1,131 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import swim.recon.Recon;
+import swim.structure.Value;
+
+/**
+ * Sequential reader over one memory-mapped scan segment written by a
+ * {@link ScanRecorder}.
+ */
+public final class ScanSegmentReader implements Closeable {
+  final FileChannel channel;
+  final MappedByteBuffer buffer;
+  long time;
+  long clk;
+  String nodeUri;
+  Value record;
+
+  public ScanSegmentReader(Path path) throws IOException {
+    this.channel = FileChannel.open(path);
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, this.channel.size());
+    if (this.buffer.remaining() < ScanRecorder.HEADER_SIZE || this.buffer.getInt() != ScanRecorder.MAGIC) {
+      this.channel.close();
+      throw new IOException("not a scan segment: " + path);
+    }
+    final short version = this.buffer.getShort();
+    if (version != ScanRecorder.VERSION) {
+      this.channel.close();
+      throw new IOException("unsupported scan segment version " + version + ": " + path);
+    }
+  }
+
+  /**
+   * Advances to the next entry; returns {@code false} at the end of the
+   * segment, or at a torn or partially written entry, as left at the end
+   * of a segment by a crash, since no later entry boundary can be trusted.
+   */
+  public boolean next() {
+    final MappedByteBuffer buffer = this.buffer;
+    if (buffer.remaining() < 4) {
+      return false;
+    }
+    final int start = buffer.position();
+    final int length = buffer.getInt();
+    if (length < ENTRY_HEADER_SIZE || length > buffer.remaining()) {
+      return false;
+    }
+    final int end = buffer.position() + length;
+    try {
+      this.time = buffer.getLong();
+      this.clk = buffer.getLong();
+      final int uriSize = buffer.getShort() & 0xFFFF;
+      if (uriSize > end - buffer.position()) {
+        throw new IllegalStateException("node uri overruns entry");
+      }
+      final byte[] uri = new byte[uriSize];
+      buffer.get(uri);
+      final byte[] text = new byte[end - buffer.position()];
+      buffer.get(text);
+      this.nodeUri = new String(uri, StandardCharsets.UTF_8);
+      this.record = Recon.parse(new String(text, StandardCharsets.UTF_8));
+    } catch (RuntimeException cause) {
+      System.err.println("stopped replay of scan segment at torn entry at offset " + start + ": " + cause);
+      buffer.position(buffer.limit());
+      return false;
+    }
+    return true;
+  }
+
+  public long time() {
+    return this.time;
+  }
+
+  public long clk() {
+    return this.clk;
+  }
+
+  public String nodeUri() {
+    return this.nodeUri;
+  }
+
+  public Value record() {
+    return this.record;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Returns the segment files of a capture directory, in write order.
+   */
+  public static List<Path> segments(Path directory) throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "scan-*.seg")) {
+      for (Path path : stream) {
+        segments.add(path);
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  // receive time, controller clock, and node uri length
+  static final int ENTRY_HEADER_SIZE = 8 + 8 + 2;
+}
@@ -0,0 +1,63 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.sim;
+
+/**
+ * Clock of a simulation or replay, which reads {@code startTime} when it is
+ * created and advances {@code speed} times faster than the wall clock from
+ * then on. Once installed, it's the clock agents read through
+ * {@link TrafficSimulator#currentTimeMillis()}, so that their samples and
+ * lag measurements keep step with the scan records they are fed.
+ */
+public final class SimClock {
+  final long startTime;
+  final long wallStart;
+  final double speed;
+
+  public SimClock(long startTime, double speed) {
+    if (!(speed > 0.0) || Double.isInfinite(speed)) {
+      throw new IllegalArgumentException("speed: " + speed);
+    }
+    this.startTime = startTime;
+    this.wallStart = System.currentTimeMillis();
+    this.speed = speed;
+  }
+
+  public double speed() {
+    return this.speed;
+  }
+
+  // time on this clock at wall time wallTime
+  public long time(long wallTime) {
+    return this.startTime + (long) ((wallTime - this.wallStart) * this.speed);
+  }
+
+  // wall time at which this clock reads time
+  public long wallTime(long time) {
+    return this.wallStart + (long) ((time - this.startTime) / this.speed);
+  }
+
+  public void install() {
+    installed = this;
+  }
+
+  public void uninstall() {
+    if (installed == this) {
+      installed = null;
+    }
+  }
+
+  static volatile SimClock installed;
+}
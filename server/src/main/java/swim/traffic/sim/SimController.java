@@ -0,0 +1,140 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.sim;
+
+import swim.api.space.Space;
+import swim.structure.Record;
+import swim.traffic.model.IntersectionSchematic;
+import swim.uri.Uri;
+
+/**
+ * Simulated state of one traffic controller. Each controller draws from its
+ * own random stream, seeded from the simulation seed and its node URI, so
+ * the scan records a controller emits depend only on the seed and the tick
+ * count, and not on how ticks are scheduled across workers.
+ */
+final class SimController {
+  final Uri nodeUri;
+  final IntersectionSchematic schematic;
+  final int[] phaseStates;
+  final int[] detectorStates;
+  int pedCallState;
+  long random;
+  int cycle;
+
+  SimController(Uri nodeUri, IntersectionSchematic schematic, long seed) {
+    this.nodeUri = nodeUri;
+    this.schematic = schematic;
+    this.phaseStates = new int[schematic.signalPhaseCount()];
+    for (int i = 0; i < this.phaseStates.length; i += 1) {
+      this.phaseStates[i] = 1;
+    }
+    this.detectorStates = new int[schematic.vehicleDetectorCount()];
+    for (int i = 0; i < this.detectorStates.length; i += 1) {
+      this.detectorStates[i] = -1;
+    }
+    this.pedCallState = 0;
+    this.random = mix(seed ^ nodeUri.toString().hashCode());
+    this.cycle = 0;
+  }
+
+  /**
+   * Advances this controller by one scan window ending at {@code clk}, and
+   * commands the resulting scan records to its intersection, along with
+   * the ped call, if it changed, and the latency of the command itself.
+   * Only states that changed since the previous tick are emitted, and a
+   * tick that changed nothing sends no command. Returns the number of scan
+   * records emitted.
+   */
+  int tick(long clk, Space space) {
+    final IntersectionSchematic schematic = this.schematic;
+    final int phaseCount = schematic.signalPhaseCount();
+    final int detectorCount = schematic.vehicleDetectorCount();
+    final Record scans = Record.create(phaseCount + detectorCount + 2);
+
+    boolean hasGreenOrYellow = false;
+    for (int i = 0; i < phaseCount; i += 1) {
+      final int prevState = this.phaseStates[i];
+      final int newState = nextPhase(hasGreenOrYellow, prevState);
+      if (newState == 3) {
+        hasGreenOrYellow = true;
+      }
+      if (newState != prevState) {
+        this.phaseStates[i] = newState;
+        scans.item(scan(clk, "p", schematic.signalPhaseId(i), newState));
+      }
+    }
+    for (int i = 0; i < detectorCount; i += 1) {
+      final int state = nextDouble() < 0.2 ? 1 : 0;
+      if (state != this.detectorStates[i]) {
+        this.detectorStates[i] = state;
+        scans.item(scan(clk, "d", schematic.vehicleDetectorId(i), state));
+      }
+    }
+    final int records = scans.size();
+    // the ped call is set directly, rather than as a pc scan record, so
+    // that its -1 (no call) isn't rolled up with the ped call states
+    if (this.cycle == 0) {
+      final int state = nextDouble() < 0.2 ? 1 : -1;
+      if (state != this.pedCallState) {
+        this.pedCallState = state;
+        scans.slot("pedCall", state);
+      }
+    }
+    if (scans.size() != 0) {
+      final long tm = clk - (long) (50 + nextDouble() * 500);
+      scans.slot("latency", Record.create(2).slot("tsg", clk).slot("tm", tm));
+      space.command(this.nodeUri, SCANS_LANE, scans);
+    }
+
+    this.cycle = this.cycle == 10 ? 0 : this.cycle + 1;
+    return records;
+  }
+
+  int nextPhase(boolean hasGreenOrYellow, int prevState) {
+    // 1 is Red, 2 is Yellow, 3 is Green
+    if (prevState == 1 && this.cycle == 0 && !hasGreenOrYellow) {
+      return 3;
+    } else if (prevState == 2) {
+      return 1;
+    } else if (this.cycle == 0) {
+      return 2;
+    } else {
+      return prevState;
+    }
+  }
+
+  // splitmix64
+  double nextDouble() {
+    this.random += 0x9E3779B97F4A7C15L;
+    return (double) (mix(this.random) >>> 11) * 0x1.0p-53;
+  }
+
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static Record scan(long clk, String key, int id, int state) {
+    return Record.create(4)
+        .slot("clk", clk)
+        .slot(key, id)
+        .slot("st", state)
+        .slot("coord", "SYNC");
+  }
+
+  static final Uri SCANS_LANE = Uri.parse("addScans");
+}
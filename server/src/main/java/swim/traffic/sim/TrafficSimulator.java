@@ -0,0 +1,236 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import swim.api.space.Space;
+import swim.traffic.model.IntersectionSchematic;
+import swim.uri.Uri;
+
+/**
+ * Plane-wide traffic controller simulation. Every simulated controller is
+ * ticked once per scan window, but each is assigned to one of a fixed
+ * number of time slices within the window, so that load is spread evenly
+ * across the window without a timer per intersection. The controllers of
+ * each slice are advanced in parallel across a worker pool, and emit scan
+ * records to their intersections through the {@code addScans} lane.
+ *
+ * <p>Runs are reproducible: given the same seed, intersections, and start
+ * time, every intersection receives the same sequence of scan records. The
+ * simulated clock advances {@code speed} times faster than the wall clock,
+ * and each slice is ticked only once the clock reaches it, so scan records
+ * are never stamped ahead of the clock; if the workers fall behind, the
+ * clock runs on ahead of the records, which shows up as lag. Agents read
+ * the simulated clock through {@link #currentTimeMillis()}, so that their
+ * samples and lag measurements keep step with the scan records.
+ */
+public final class TrafficSimulator {
+  final Space space;
+  final long seed;
+  final SimClock clock;
+  final int threadCount;
+  final List<SimController> controllers;
+  int[][] slices;
+  SimWorker[] workers;
+  ExecutorService executor;
+  Thread thread;
+  volatile boolean running;
+  volatile long simTime;
+
+  /**
+   * Creates a simulation whose clock reads {@code startTime} now, and from
+   * now on is the clock agents read; {@code speed} must be positive.
+   */
+  public TrafficSimulator(Space space, long seed, double speed, int threadCount, long startTime) {
+    this.space = space;
+    this.seed = seed;
+    this.clock = new SimClock(startTime, speed);
+    this.threadCount = Math.max(threadCount, 1);
+    this.controllers = new ArrayList<>();
+    this.simTime = startTime;
+    this.clock.install();
+  }
+
+  public long simTime() {
+    return this.simTime;
+  }
+
+  public int intersectionCount() {
+    return this.controllers.size();
+  }
+
+  /**
+   * Adds a simulated controller for the intersection at {@code nodeUri};
+   * must be called before {@link #start()}.
+   */
+  public void addIntersection(Uri nodeUri, IntersectionSchematic schematic) {
+    if (this.thread != null) {
+      throw new IllegalStateException("simulation already started");
+    }
+    this.controllers.add(new SimController(nodeUri, schematic, this.seed));
+  }
+
+  public void start() {
+    if (this.thread != null) {
+      throw new IllegalStateException("simulation already started");
+    }
+    // slot each controller into a time slice by its own random stream
+    final int[] sliceSizes = new int[SLICE_COUNT];
+    final int[] controllerSlices = new int[this.controllers.size()];
+    for (int i = 0; i < controllerSlices.length; i += 1) {
+      final int slice = (int) (this.controllers.get(i).nextDouble() * SLICE_COUNT);
+      controllerSlices[i] = slice;
+      sliceSizes[slice] += 1;
+    }
+    this.slices = new int[SLICE_COUNT][];
+    for (int slice = 0; slice < SLICE_COUNT; slice += 1) {
+      this.slices[slice] = new int[sliceSizes[slice]];
+    }
+    Arrays.fill(sliceSizes, 0);
+    for (int i = 0; i < controllerSlices.length; i += 1) {
+      final int slice = controllerSlices[i];
+      this.slices[slice][sliceSizes[slice]] = i;
+      sliceSizes[slice] += 1;
+    }
+
+    this.workers = new SimWorker[this.threadCount];
+    for (int i = 0; i < this.threadCount; i += 1) {
+      this.workers[i] = new SimWorker(this);
+    }
+    this.executor = Executors.newFixedThreadPool(this.threadCount, runnable -> {
+      final Thread thread = new Thread(runnable, "traffic-sim-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.running = true;
+    this.thread = new Thread(this::run, "traffic-sim");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  public void stop() {
+    this.running = false;
+    if (this.thread != null) {
+      this.thread.interrupt();
+      try {
+        this.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.executor.shutdownNow();
+    }
+    this.clock.uninstall();
+  }
+
+  void run() {
+    final List<SimWorker> tasks = Arrays.asList(this.workers);
+    try {
+      while (this.running) {
+        for (int slice = 0; slice < SLICE_COUNT && this.running; slice += 1) {
+          final long clk = this.simTime + SLICE_MILLIS;
+          final long delay = this.clock.wallTime(clk) - System.currentTimeMillis();
+          if (delay > 0L) {
+            Thread.sleep(delay);
+          }
+          tickSlice(tasks, this.slices[slice], clk);
+          this.simTime = clk;
+        }
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    }
+  }
+
+  long tickSlice(List<SimWorker> tasks, int[] slice, long clk) throws InterruptedException {
+    final int n = slice.length;
+    if (n == 0) {
+      return 0L;
+    }
+    // split the slice into contiguous ranges, one per worker
+    final int stride = (n + this.threadCount - 1) / this.threadCount;
+    for (int i = 0; i < this.threadCount; i += 1) {
+      final SimWorker worker = this.workers[i];
+      worker.slice = slice;
+      worker.from = Math.min(i * stride, n);
+      worker.to = Math.min(worker.from + stride, n);
+      worker.clk = clk;
+    }
+    long records = 0L;
+    for (Future<Integer> future : this.executor.invokeAll(tasks)) {
+      try {
+        records += future.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Returns the time on the installed {@link SimClock} of the current
+   * simulation or replay, or the wall clock time if there is none. Scan
+   * records are never emitted ahead of this clock, so lag measured by it is
+   * never negative.
+   */
+  public static long currentTimeMillis() {
+    final SimClock clock = SimClock.installed;
+    final long wallTime = System.currentTimeMillis();
+    return clock != null ? clock.time(wallTime) : wallTime;
+  }
+
+  /**
+   * Returns how many times faster than the wall clock the clock read by
+   * {@link #currentTimeMillis()} advances.
+   */
+  public static double clockSpeed() {
+    final SimClock clock = SimClock.installed;
+    return clock != null ? clock.speed : 1.0;
+  }
+
+  // one scan window, split into slices of 100 milliseconds
+  static final long TICK_MILLIS = 3000L;
+  static final int SLICE_COUNT = 30;
+  static final long SLICE_MILLIS = TICK_MILLIS / SLICE_COUNT;
+}
+
+final class SimWorker implements Callable<Integer> {
+  final TrafficSimulator simulator;
+  int[] slice;
+  int from;
+  int to;
+  long clk;
+
+  SimWorker(TrafficSimulator simulator) {
+    this.simulator = simulator;
+  }
+
+  @Override
+  public Integer call() {
+    final List<SimController> controllers = this.simulator.controllers;
+    final Space space = this.simulator.space;
+    int records = 0;
+    for (int i = this.from; i < this.to; i += 1) {
+      records += controllers.get(this.slice[i]).tick(this.clk, space);
+    }
+    return records;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class HistoryRollupTest {
+  static void add(HistoryRollup rollup, IntersectionHistory history, long time, IntersectionTensor tensor) {
+    history.sample(time, tensor);
+    rollup.add(history.last());
+  }
+
+  @Test
+  public void keepOpenBucketAcrossRelayout() {
+    final HistoryRollup rollup = new HistoryRollup(10000L, 4);
+    final IntersectionHistory history = new IntersectionHistory(4);
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {1, 2}, new int[] {3});
+    tensor.setRed(tensor.indexOfSignalPhase(1), 0.2);
+    tensor.setRed(tensor.indexOfSignalPhase(2), 0.9);
+    tensor.setOccupancy(0, 0.5);
+    tensor.setCount(0, 4);
+    add(rollup, history, 1000L, tensor);
+
+    // phase 2 goes away and phase 5 appears in the middle of the bucket
+    final IntersectionTensor relaid = new IntersectionTensor(new int[] {5, 1}, new int[] {3});
+    relaid.setRed(relaid.indexOfSignalPhase(1), 0.6);
+    relaid.setRed(relaid.indexOfSignalPhase(5), 0.8);
+    relaid.setOccupancy(0, 0.25);
+    relaid.setCount(0, 2);
+    add(rollup, history, 2000L, relaid);
+
+    final IntersectionTensor next = new IntersectionTensor(new int[] {5, 1}, new int[] {3});
+    history.sample(12000L, next);
+    assertTrue(rollup.add(history.last()));
+    assertEquals(rollup.closedWeight(), 2);
+
+    final IntersectionSample mean = rollup.means().last();
+    final IntersectionSample max = rollup.maxes().last();
+    assertEquals(mean.time(), 0L);
+    assertEquals(mean.red(relaid.indexOfSignalPhase(1)), 0.4, 1e-9);
+    // a new column counts as zero for the samples already in the bucket
+    assertEquals(mean.red(relaid.indexOfSignalPhase(5)), 0.4, 1e-9);
+    assertEquals(mean.occupancy(0), 0.375, 1e-9);
+    assertEquals(mean.count(0), 6);
+    assertEquals(max.red(relaid.indexOfSignalPhase(1)), 0.6);
+    assertEquals(max.occupancy(0), 0.5);
+    assertEquals(max.count(0), 4);
+  }
+
+  @Test
+  public void keepClosedBucketsAcrossRelayout() {
+    final HistoryRollup rollup = new HistoryRollup(10000L, 4);
+    final IntersectionHistory history = new IntersectionHistory(4);
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {1}, new int[] {3});
+    tensor.setRed(0, 0.5);
+    add(rollup, history, 1000L, tensor);
+    final IntersectionTensor relaid = new IntersectionTensor(new int[] {2, 1}, new int[] {3});
+    add(rollup, history, 11000L, relaid);
+    add(rollup, history, 21000L, relaid);
+
+    assertEquals(rollup.means().size(), 2);
+    final IntersectionSample first = rollup.means().get(0);
+    assertEquals(first.time(), 0L);
+    assertEquals(first.signalPhaseCount(), 2);
+    assertEquals(first.red(relaid.indexOfSignalPhase(1)), 0.5);
+    assertEquals(first.red(relaid.indexOfSignalPhase(2)), 0.0);
+  }
+}
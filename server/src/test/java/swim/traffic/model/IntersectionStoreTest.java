@@ -0,0 +1,253 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class IntersectionStoreTest {
+  Path directory;
+
+  @BeforeMethod
+  public void createDirectory() throws IOException {
+    this.directory = Files.createTempDirectory("intersection-store");
+  }
+
+  @AfterMethod
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.directory)) {
+      paths.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  static IntersectionTensor layout() {
+    return new IntersectionTensor(new int[] {1, 2}, new int[] {3});
+  }
+
+  // records samples at times 1000 * (from + k) whose values encode their time
+  static void sample(IntersectionHistory history, IntersectionTensor tensor, int from, int count) {
+    for (int k = from; k < from + count; k += 1) {
+      for (int slot = 0; slot < tensor.signalPhaseCount(); slot += 1) {
+        tensor.setRed(slot, k + 0.25 * slot);
+        tensor.setYellow(slot, k + 0.5);
+        tensor.setGreen(slot, k + 0.75);
+      }
+      for (int slot = 0; slot < tensor.vehicleDetectorCount(); slot += 1) {
+        tensor.setOccupancy(slot, k + 0.125);
+        tensor.setCount(slot, k);
+      }
+      history.sample(1000L * k, tensor);
+    }
+  }
+
+  static void assertSamples(IntersectionHistory history, int from, int count) {
+    assertEquals(history.size(), count);
+    for (int i = 0; i < count; i += 1) {
+      final int k = from + i;
+      final IntersectionSample sample = history.get(i);
+      assertEquals(sample.time(), 1000L * k);
+      for (int slot = 0; slot < sample.signalPhaseCount(); slot += 1) {
+        assertEquals(sample.red(slot), k + 0.25 * slot);
+        assertEquals(sample.yellow(slot), k + 0.5);
+        assertEquals(sample.green(slot), k + 0.75);
+      }
+      for (int slot = 0; slot < sample.vehicleDetectorCount(); slot += 1) {
+        assertEquals(sample.occupancy(slot), k + 0.125);
+        assertEquals(sample.count(slot), k);
+      }
+    }
+  }
+
+  static SignalPhaseModel model(int phaseId) {
+    final SignalPhaseModel model = new SignalPhaseModel(phaseId);
+    long t = 10000L;
+    for (int cycle = 0; cycle < 4; cycle += 1) {
+      model.updateState(3, t);
+      model.updateState(2, t + 20000L);
+      model.updateState(1, t + 24000L);
+      t += 60000L + 1000L * cycle;
+    }
+    return model;
+  }
+
+  @Test
+  public void roundTripHistoryAndModels() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = layout();
+    final IntersectionHistory history = new IntersectionHistory(16);
+    final SignalPhaseModel model = model(1);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    sample(history, tensor, 1, 5);
+    store.append(history, 5, null, 5000L);
+    sample(history, tensor, 6, 5);
+    store.append(history, 5, Collections.singletonList(model), 10000L);
+    store.flush();
+
+    final IntersectionHistory loaded = new IntersectionHistory(16);
+    final List<SignalPhaseModel> models = new IntersectionStore(path, loaded.capacity())
+        .load(loaded, layout(), 0L, 0L);
+    assertSamples(loaded, 1, 10);
+    assertEquals(models.size(), 1);
+    final SignalPhaseModel restored = models.get(0);
+    assertEquals(restored.phaseId, model.phaseId);
+    assertEquals(restored.state, model.state);
+    assertEquals(restored.t13, model.t13);
+    assertEquals(restored.t32, model.t32);
+    assertEquals(restored.t21, model.t21);
+    assertEquals(restored.dt13, model.dt13);
+    assertEquals(restored.dt32, model.dt32);
+    assertEquals(restored.dt21, model.dt21);
+    assertEquals(restored.predictCount, model.predictCount);
+    assertEquals(restored.failureCount, model.failureCount);
+    assertEquals(restored.stats13.count(), model.stats13.count());
+    assertEquals(restored.stats13.mean(), model.stats13.mean());
+    assertEquals(restored.stats13.variance(), model.stats13.variance());
+  }
+
+  @Test
+  public void loadOnlySamplesNoOlderThanMinTime() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = layout();
+    final IntersectionHistory history = new IntersectionHistory(16);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    sample(history, tensor, 1, 10);
+    store.append(history, 10, null, 10000L);
+    store.flush();
+
+    final IntersectionHistory loaded = new IntersectionHistory(16);
+    new IntersectionStore(path, loaded.capacity()).load(loaded, layout(), 7000L, 0L);
+    assertSamples(loaded, 7, 4);
+  }
+
+  @Test
+  public void remapColumnsIntoTheLoadLayout() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {2, 1}, new int[] {3, 4});
+    final IntersectionHistory history = new IntersectionHistory(4);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    tensor.setRed(tensor.indexOfSignalPhase(1), 0.5);
+    tensor.setGreen(tensor.indexOfSignalPhase(2), 0.75);
+    tensor.setOccupancy(tensor.indexOfVehicleDetector(3), 0.25);
+    tensor.setCount(tensor.indexOfVehicleDetector(3), 7);
+    tensor.setOccupancy(tensor.indexOfVehicleDetector(4), 1.0);
+    history.sample(1000L, tensor);
+    store.append(history, 1, null, 1000L);
+    store.flush();
+
+    // phase 5 is new, and detector 4 is no longer present
+    final IntersectionTensor layout = new IntersectionTensor(new int[] {1, 2, 5}, new int[] {3});
+    final IntersectionHistory loaded = new IntersectionHistory(4);
+    new IntersectionStore(path, loaded.capacity()).load(loaded, layout, 0L, 0L);
+    final IntersectionSample sample = loaded.get(0);
+    assertEquals(sample.signalPhaseId(0), 1);
+    assertEquals(sample.red(0), 0.5);
+    assertEquals(sample.green(1), 0.75);
+    assertEquals(sample.red(2), 0.0);
+    assertEquals(sample.vehicleDetectorCount(), 1);
+    assertEquals(sample.occupancy(0), 0.25);
+    assertEquals(sample.count(0), 7);
+  }
+
+  @Test
+  public void truncateTornTail() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = layout();
+    final IntersectionHistory history = new IntersectionHistory(16);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    sample(history, tensor, 1, 4);
+    store.append(history, 4, null, 4000L);
+    store.flush();
+    final long validSize = Files.size(path);
+
+    // tear the next block: a complete header, but only part of its payload
+    sample(history, tensor, 5, 4);
+    store.append(history, 4, null, 8000L);
+    store.flush();
+    final byte[] log = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(log, (int) validSize + 20));
+
+    final IntersectionHistory loaded = new IntersectionHistory(16);
+    final IntersectionStore reopened = new IntersectionStore(path, loaded.capacity());
+    reopened.load(loaded, layout(), 0L, 0L);
+    assertSamples(loaded, 1, 4);
+    assertEquals(Files.size(path), validSize);
+
+    // appends after the truncated tail are readable
+    sample(loaded, tensor, 5, 3);
+    reopened.append(loaded, 3, null, 7000L);
+    reopened.flush();
+    final IntersectionHistory reloaded = new IntersectionHistory(16);
+    new IntersectionStore(path, reloaded.capacity()).load(reloaded, layout(), 0L, 0L);
+    assertSamples(reloaded, 1, 7);
+  }
+
+  @Test
+  public void truncateCorruptTail() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = layout();
+    final IntersectionHistory history = new IntersectionHistory(16);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    sample(history, tensor, 1, 4);
+    store.append(history, 4, null, 4000L);
+    store.flush();
+    final long validSize = Files.size(path);
+    Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, StandardOpenOption.APPEND);
+
+    final IntersectionHistory loaded = new IntersectionHistory(16);
+    new IntersectionStore(path, loaded.capacity()).load(loaded, layout(), 0L, 0L);
+    assertSamples(loaded, 1, 4);
+    assertEquals(Files.size(path), validSize);
+  }
+
+  @Test
+  public void compactGrownLogs() throws IOException {
+    final Path path = this.directory.resolve("history.log");
+    final IntersectionTensor tensor = layout();
+    final IntersectionHistory history = new IntersectionHistory(8);
+    final IntersectionStore store = new IntersectionStore(path, history.capacity());
+    long appendSize = 0L;
+    long maxSize = 0L;
+    for (int k = 1; k <= 200; k += 2) {
+      sample(history, tensor, k, 2);
+      store.append(history, 2, Collections.singletonList(model(1)), 1000L * (k + 1));
+      store.flush();
+      if (appendSize == 0L) {
+        appendSize = Files.size(path);
+      }
+      maxSize = Math.max(maxSize, Files.size(path));
+    }
+    // the log never holds more than COMPACT_WINDOWS windows of appended rows
+    final int maxAppends = IntersectionStore.COMPACT_WINDOWS * history.capacity() / 2 + 1;
+    assertTrue(maxSize <= maxAppends * appendSize, Long.toString(maxSize));
+    assertTrue(Files.notExists(path.resolveSibling("history.log.compact")));
+
+    final IntersectionHistory loaded = new IntersectionHistory(8);
+    final List<SignalPhaseModel> models = new IntersectionStore(path, loaded.capacity())
+        .load(loaded, layout(), 0L, 0L);
+    assertSamples(loaded, 193, 8);
+    assertEquals(models.size(), 1);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import java.util.Random;
+import org.testng.annotations.Test;
+import swim.structure.Data;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class IntersectionTensorCodecTest {
+  static IntersectionTensor tensor(Random random) {
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {2, 4, 6}, new int[] {1, 3});
+    for (int slot = 0; slot < tensor.signalPhaseCount(); slot += 1) {
+      tensor.setRed(slot, random.nextDouble());
+      tensor.setYellow(slot, random.nextDouble());
+      tensor.setGreen(slot, random.nextDouble());
+    }
+    for (int slot = 0; slot < tensor.vehicleDetectorCount(); slot += 1) {
+      tensor.setOccupancy(slot, random.nextDouble());
+      tensor.setCount(slot, random.nextInt(20));
+    }
+    return tensor;
+  }
+
+  static void assertLayout(IntersectionTensor decoded, IntersectionTensor tensor) {
+    assertEquals(decoded.signalPhaseCount(), tensor.signalPhaseCount());
+    assertEquals(decoded.vehicleDetectorCount(), tensor.vehicleDetectorCount());
+    for (int slot = 0; slot < tensor.signalPhaseCount(); slot += 1) {
+      assertEquals(decoded.signalPhaseId(slot), tensor.signalPhaseId(slot));
+    }
+    for (int slot = 0; slot < tensor.vehicleDetectorCount(); slot += 1) {
+      assertEquals(decoded.vehicleDetectorId(slot), tensor.vehicleDetectorId(slot));
+      assertEquals(decoded.count(slot), tensor.count(slot));
+    }
+  }
+
+  static void assertValues(IntersectionTensor decoded, IntersectionTensor tensor, double epsilon) {
+    for (int i = 0; i < tensor.tensorSize(); i += 1) {
+      assertEquals(decoded.values[i], tensor.values[i], epsilon);
+    }
+  }
+
+  @Test
+  public void roundTripFloat32KeyFrames() {
+    final IntersectionTensor tensor = tensor(new Random(1L));
+    final IntersectionSample sample = IntersectionSample.of(1000L, tensor);
+    final IntersectionTensor decoded = IntersectionTensorCodec.decode(
+        IntersectionTensorCodec.FLOAT32.encode(sample, null), null);
+    assertLayout(decoded, tensor);
+    for (int i = 0; i < tensor.tensorSize(); i += 1) {
+      assertEquals(decoded.values[i], (double) (float) tensor.values[i]);
+    }
+  }
+
+  @Test
+  public void roundTripQ8KeyFrames() {
+    final IntersectionTensor tensor = tensor(new Random(2L));
+    final IntersectionSample sample = IntersectionSample.of(1000L, tensor);
+    final IntersectionTensor decoded = IntersectionTensorCodec.decode(
+        IntersectionTensorCodec.Q8.encode(sample, null), null);
+    assertLayout(decoded, tensor);
+    assertValues(decoded, tensor, 0.5 / 255.0);
+  }
+
+  @Test
+  public void roundTripQ8DeltaChains() {
+    final Random random = new Random(3L);
+    final IntersectionHistory history = new IntersectionHistory(16);
+    IntersectionTensor decoded = null;
+    for (int k = 0; k < 40; k += 1) {
+      final IntersectionTensor tensor = tensor(random);
+      history.sample(1000L * k, tensor);
+      final IntersectionSample previous = history.size() > 1 ? history.get(history.size() - 2) : null;
+      final Data frame = IntersectionTensorCodec.Q8_DELTA.encode(history.last(), previous);
+      // delta frames carry no layout, so they are smaller than key frames
+      if (previous != null) {
+        assertTrue(frame.size() < IntersectionTensorCodec.Q8.encode(history.last(), null).size());
+      }
+      decoded = IntersectionTensorCodec.decode(frame, decoded);
+      assertLayout(decoded, tensor);
+      // deltas are taken between quantized values, so errors don't accumulate
+      assertValues(decoded, tensor, 0.5 / 255.0);
+    }
+  }
+
+  @Test
+  public void decodeDeltaFramesWithoutBase() {
+    final IntersectionHistory history = new IntersectionHistory(2);
+    history.sample(1000L, tensor(new Random(4L)));
+    history.sample(2000L, tensor(new Random(5L)));
+    final Data frame = IntersectionTensorCodec.Q8_DELTA.encode(history.get(1), history.get(0));
+    assertNull(IntersectionTensorCodec.decode(frame, null));
+  }
+
+  @Test
+  public void clampQuantizedRatiosAndCounts() {
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {1}, new int[] {1});
+    tensor.setRed(0, -0.5);
+    tensor.setYellow(0, 1.5);
+    tensor.setGreen(0, Double.NaN);
+    tensor.setCount(0, 100000);
+    final IntersectionTensor decoded = IntersectionTensorCodec.decode(
+        IntersectionTensorCodec.Q8.encode(IntersectionSample.of(0L, tensor), null), null);
+    assertEquals(decoded.red(0), 0.0);
+    assertEquals(decoded.yellow(0), 1.0);
+    assertEquals(decoded.green(0), 0.0);
+    assertEquals(decoded.count(0), 0xFFFF);
+  }
+}
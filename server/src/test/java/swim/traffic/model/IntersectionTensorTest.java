@@ -0,0 +1,44 @@
+// Copyright 2015-2022 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.traffic.model;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+
+public class IntersectionTensorTest {
+  @Test
+  public void assignSlotsInLayoutOrder() {
+    final IntersectionTensor tensor = new IntersectionTensor(new int[] {5, 2}, new int[] {7});
+    assertEquals(tensor.indexOfSignalPhase(5), 0);
+    assertEquals(tensor.indexOfSignalPhase(2), 1);
+    assertEquals(tensor.indexOfVehicleDetector(7), 0);
+    assertEquals(tensor.signalPhase(IntersectionTensor.MAX_ID), -1);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectDuplicateIds() {
+    new IntersectionTensor(new int[] {1, 2, 1}, new int[] {3});
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectOutOfRangeIds() {
+    new IntersectionTensor(new int[] {1}, new int[] {-1});
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectInvalidFormLayouts() {
+    IntersectionTensor.form(new int[] {IntersectionTensor.MAX_ID}, new int[0]);
+  }
+}
@@ -48,7 +48,7 @@ export class TrafficViewController extends HtmlViewController {
     mapboxView.overlayCanvas();
 
     const trafficMapView = new TrafficMapView();
-    const trafficMapViewController = new TrafficMapViewController(this._nodeRef);
+    const trafficMapViewController = new TrafficMapViewController(this._nodeRef, this._map);
     trafficMapView.setViewController(trafficMapViewController);
     mapboxView.setChildView("map", trafficMapView);
 
@@ -92,7 +92,7 @@ export class TrafficViewController extends HtmlViewController {
         .backgroundColor(Color.parse("#070813").alpha(0.33))
         .backdropFilter("blur(2px)")
         .pointerEvents("auto");
-    const vehicleFlowKpiViewController = new VehicleFlowKpiViewController(this._nodeRef, trafficMapView);
+    const vehicleFlowKpiViewController = new VehicleFlowKpiViewController(this._nodeRef);
     vehicleFlowKpi.setViewController(vehicleFlowKpiViewController);
 
     const vehicleBackupKpi = kpiStack.append("div")
@@ -103,7 +103,7 @@ export class TrafficViewController extends HtmlViewController {
         .backgroundColor(Color.parse("#070813").alpha(0.33))
         .backdropFilter("blur(2px)")
         .pointerEvents("auto");
-    const vehicleBackupKpiViewController = new VehicleBackupKpiViewController(this._nodeRef, trafficMapView);
+    const vehicleBackupKpiViewController = new VehicleBackupKpiViewController(this._nodeRef);
     vehicleBackupKpi.setViewController(vehicleBackupKpiViewController);
 
     const pedestrianBackupKpi = kpiStack.append("div")
@@ -114,7 +114,7 @@ export class TrafficViewController extends HtmlViewController {
         .backgroundColor(Color.parse("#070813").alpha(0.33))
         .backdropFilter("blur(2px)")
         .pointerEvents("auto");
-    const pedestrianBackupKpiViewController = new PedestrianBackupKpiViewController(this._nodeRef, trafficMapView);
+    const pedestrianBackupKpiViewController = new PedestrianBackupKpiViewController(this._nodeRef);
     pedestrianBackupKpi.setViewController(pedestrianBackupKpiViewController);
 
     return kpiStack;
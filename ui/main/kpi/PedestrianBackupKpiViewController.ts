@@ -15,20 +15,11 @@
 import {NodeRef} from "@swim/client";
 import {Color} from "@swim/color";
 import {Transition} from "@swim/transition";
-import {MapGraphicView} from "@swim/map";
-import {IntersectionMapView} from "../map/IntersectionMapView";
 import {TrafficKpiViewController} from "./TrafficKpiViewController";
 
 export class PedestrianBackupKpiViewController extends TrafficKpiViewController {
-  /** @hidden */
-  _nodeRef: NodeRef;
-  /** @hidden */
-  _trafficMapView: MapGraphicView;
-
-  constructor(nodeRef: NodeRef, trafficMapView: MapGraphicView) {
-    super();
-    this._nodeRef = nodeRef;
-    this._trafficMapView = trafficMapView;
+  constructor(nodeRef: NodeRef) {
+    super(nodeRef);
   }
 
   get primaryColor(): Color {
@@ -36,20 +27,9 @@ export class PedestrianBackupKpiViewController extends TrafficKpiViewController
   }
 
   updateKpi(): void {
-    let meterValue = 0;
-    let spaceValue = 0;
-    const intersectionMapViews = this._trafficMapView.childViews;
-    for (let i = 0; i < intersectionMapViews.length; i += 1) {
-      const intersectionMapView = intersectionMapViews[i];
-      if (intersectionMapView instanceof IntersectionMapView && !intersectionMapView.culled) {
-        const intersectionMapViewController = intersectionMapView.viewController!;
-        if (intersectionMapViewController._pedCall) {
-          meterValue += 1;
-        } else {
-          spaceValue += 1;
-        }
-      }
-    }
+    const kpi = this._kpi.get("pedestrianBackup");
+    const meterValue = kpi.get("waiting").numberValue(0);
+    const spaceValue = kpi.get("clear").numberValue(0);
 
     const title = this.titleView;
     const meter = this.meterView;
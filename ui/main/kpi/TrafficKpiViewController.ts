@@ -12,6 +12,8 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+import {AnyValue, Value} from "@swim/structure";
+import {NodeRef, ValueDownlink} from "@swim/client";
 import {Length} from "@swim/length";
 import {Color} from "@swim/color";
 import {HtmlView, HtmlViewController} from "@swim/view";
@@ -21,7 +23,13 @@ import {PieView, SliceView} from "@swim/pie";
 
 export abstract class TrafficKpiViewController extends HtmlViewController {
   /** @hidden */
-  _updateTimer: number;
+  _nodeRef: NodeRef;
+
+  /** @hidden */
+  _kpiLink?: ValueDownlink<Value, AnyValue>;
+
+  /** @hidden */
+  _kpi: Value;
 
   /** @hidden */
   _title?: HtmlView;
@@ -35,15 +43,38 @@ export abstract class TrafficKpiViewController extends HtmlViewController {
   /** @hidden */
   _clearLegend?: TextRunView;
 
-  constructor() {
+  constructor(nodeRef: NodeRef) {
     super();
-    this._updateTimer = 0;
+    this._nodeRef = nodeRef;
+    this._kpi = Value.absent();
   }
 
   abstract get primaryColor(): Color;
 
   abstract updateKpi(): void;
 
+  didUpdateKpi(kpi: Value): void {
+    this._kpi = kpi;
+    this.updateKpi();
+  }
+
+  // city totals are maintained by the city agent's kpi lane
+  protected linkKpi(): void {
+    if (!this._kpiLink) {
+      this._kpiLink = this._nodeRef.downlinkValue()
+          .laneUri("kpi")
+          .didSet(this.didUpdateKpi.bind(this))
+          .open();
+    }
+  }
+
+  protected unlinkKpi(): void {
+    if (this._kpiLink) {
+      this._kpiLink.close();
+      this._kpiLink = undefined;
+    }
+  }
+
   get title(): HtmlView | undefined {
     return this._title;
   }
@@ -156,12 +187,11 @@ export abstract class TrafficKpiViewController extends HtmlViewController {
     // force resize after flexbox layout
     requestAnimationFrame(function () { view.cascadeResize(); });
 
-    this._updateTimer = setInterval(this.updateKpi.bind(this), 1000) as any;
+    this.linkKpi();
     this.updateKpi();
   }
 
   viewWillUnmount(view: HtmlView): void {
-    clearInterval(this._updateTimer);
-    this._updateTimer = 0;
+    this.unlinkKpi();
   }
 }
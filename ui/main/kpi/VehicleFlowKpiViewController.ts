@@ -15,22 +15,11 @@
 import {NodeRef} from "@swim/client";
 import {Color} from "@swim/color";
 import {Transition} from "@swim/transition";
-import {MapGraphicView} from "@swim/map";
-import {SignalPhase} from "../map/IntersectionModel";
-import {IntersectionMapView} from "../map/IntersectionMapView";
-import {ApproachMapView} from "../map/ApproachMapView";
 import {TrafficKpiViewController} from "./TrafficKpiViewController";
 
 export class VehicleFlowKpiViewController extends TrafficKpiViewController {
-  /** @hidden */
-  _nodeRef: NodeRef;
-  /** @hidden */
-  _trafficMapView: MapGraphicView;
-
-  constructor(nodeRef: NodeRef, trafficMapView: MapGraphicView) {
-    super();
-    this._nodeRef = nodeRef;
-    this._trafficMapView = trafficMapView;
+  constructor(nodeRef: NodeRef) {
+    super(nodeRef);
   }
 
   get primaryColor(): Color {
@@ -38,28 +27,9 @@ export class VehicleFlowKpiViewController extends TrafficKpiViewController {
   }
 
   updateKpi(): void {
-    let meterValue = 0;
-    let spaceValue = 0;
-    const intersectionMapViews = this._trafficMapView.childViews;
-    for (let i = 0; i < intersectionMapViews.length; i += 1) {
-      const intersectionMapView = intersectionMapViews[i];
-      if (intersectionMapView instanceof IntersectionMapView && !intersectionMapView.culled) {
-        const approachMapViews = intersectionMapView.childViews;
-        for (let j = 0; j < approachMapViews.length; j += 1) {
-          const approachMapView = approachMapViews[j];
-          if (approachMapView instanceof ApproachMapView) {
-            const approachMapViewController = approachMapView.viewController!;
-            if (approachMapViewController._phase === SignalPhase.Green) {
-              if (approachMapViewController._occupied) {
-                meterValue += 1;
-              } else {
-                spaceValue += 1;
-              }
-            }
-          }
-        }
-      }
-    }
+    const kpi = this._kpi.get("vehicleFlow");
+    const meterValue = kpi.get("flowing").numberValue(0);
+    const spaceValue = kpi.get("clear").numberValue(0);
 
     const title = this.titleView;
     const meter = this.meterView;
@@ -12,6 +12,7 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+import * as mapboxgl from "mapbox-gl";
 import {AnyValue, Value} from "@swim/structure";
 import {MapDownlink, NodeRef} from "@swim/client";
 import {MapGraphicViewController} from "@swim/map";
@@ -20,23 +21,42 @@ import {IntersectionInfo} from "./IntersectionModel";
 import {IntersectionMapView} from "./IntersectionMapView";
 import {IntersectionMapViewController} from "./IntersectionMapViewController";
 
+/** @hidden */
+interface TileLink {
+  downlink: MapDownlink<Value, Value, AnyValue, AnyValue>;
+  intersectionIds: {[intersectionId: string]: true};
+}
+
 export class TrafficMapViewController extends MapGraphicViewController<TrafficMapView> {
   /** @hidden */
   _nodeRef: NodeRef;
   /** @hidden */
-  _intersectionsLink: MapDownlink<Value, Value, AnyValue, AnyValue> | null;
+  _map: mapboxgl.Map;
+  /** @hidden */
+  _tilesLink: MapDownlink<Value, Value, AnyValue, AnyValue> | null;
+  /** @hidden */
+  _tileLinks: {[tileId: string]: TileLink};
+  /** @hidden */
+  _onMoveEnd: () => void;
 
-  constructor(nodeRef: NodeRef) {
+  constructor(nodeRef: NodeRef, map: mapboxgl.Map) {
     super();
     this._nodeRef = nodeRef;
-    this._intersectionsLink = null;
+    this._map = map;
+    this._tilesLink = null;
+    this._tileLinks = {};
+    this._onMoveEnd = this.updateVisibleTiles.bind(this);
   }
 
-  protected didUpdateIntersection(key: Value, value: Value): void {
+  protected didUpdateIntersection(tileId: string, key: Value, value: Value): void {
     const intersectionInfo = value.toAny() as unknown as IntersectionInfo;
     const intersectionId = "" + intersectionInfo.id;
     //console.log("didUpdateIntersection:", intersectionInfo);
 
+    const tileLink = this._tileLinks[tileId];
+    if (tileLink) {
+      tileLink.intersectionIds[intersectionId] = true;
+    }
     let intersectionMapView = this.getChildView(intersectionId);
     if (!intersectionMapView) {
       const intersectionNodeUri = key.stringValue()!;
@@ -49,27 +69,110 @@ export class TrafficMapViewController extends MapGraphicViewController<TrafficMa
     }
   }
 
+  protected didRemoveIntersection(tileId: string, key: Value, value: Value): void {
+    const intersectionInfo = value.toAny() as unknown as IntersectionInfo;
+    const intersectionId = "" + intersectionInfo.id;
+    const tileLink = this._tileLinks[tileId];
+    if (tileLink) {
+      delete tileLink.intersectionIds[intersectionId];
+    }
+    this.setChildView(intersectionId, null);
+  }
+
   viewDidMount(view: TrafficMapView): void {
-    this.linkIntersections();
+    this.linkTiles();
+    this._map.on("moveend", this._onMoveEnd);
   }
 
   viewWillUnmount(view: TrafficMapView): void {
-    this.unlinkIntersections();
+    this._map.off("moveend", this._onMoveEnd);
+    this.unlinkTiles();
+  }
+
+  // Links the tiles of the city's tile index that overlap the viewport,
+  // and unlinks those that no longer do, so that only the intersections
+  // in view are synced.
+  protected updateVisibleTiles(): void {
+    const tilesLink = this._tilesLink;
+    if (!tilesLink) {
+      return;
+    }
+    const bounds = this._map.getBounds();
+    const visible: {[tileId: string]: true} = {};
+    let visibleCount = 0;
+    tilesLink.forEach((key: Value, tile: Value): void => {
+      if (visibleCount < TrafficMapViewController.MaxVisibleTiles && this.isTileVisible(tile, bounds)) {
+        visible[key.stringValue()!] = true;
+        visibleCount += 1;
+      }
+    });
+    for (const tileId in this._tileLinks) {
+      if (!visible[tileId]) {
+        this.unlinkTile(tileId);
+      }
+    }
+    for (const tileId in visible) {
+      this.linkTile(tileId);
+    }
   }
 
-  protected linkIntersections(): void {
-    if (!this._intersectionsLink) {
-      this._intersectionsLink = this._nodeRef.downlinkMap()
+  protected didUpdateTile(key: Value, tile: Value): void {
+    const tileCount = Object.keys(this._tileLinks).length;
+    if (tileCount < TrafficMapViewController.MaxVisibleTiles && this.isTileVisible(tile, this._map.getBounds())) {
+      this.linkTile(key.stringValue()!);
+    }
+  }
+
+  protected isTileVisible(tile: Value, bounds: mapboxgl.LngLatBounds): boolean {
+    return tile.get("west").numberValue(0) < bounds.getEast()
+        && tile.get("east").numberValue(0) > bounds.getWest()
+        && tile.get("south").numberValue(0) < bounds.getNorth()
+        && tile.get("north").numberValue(0) > bounds.getSouth();
+  }
+
+  protected linkTile(tileId: string): void {
+    if (!this._tileLinks[tileId]) {
+      const tileNodeUri = this._nodeRef.nodeUri().toString() + "/tile/" + tileId;
+      const downlink = this._nodeRef.nodeRef(tileNodeUri).downlinkMap()
           .laneUri("intersections")
-          .didUpdate(this.didUpdateIntersection.bind(this))
+          .didUpdate(this.didUpdateIntersection.bind(this, tileId))
+          .didRemove(this.didRemoveIntersection.bind(this, tileId))
           .open();
+      this._tileLinks[tileId] = {downlink, intersectionIds: {}};
     }
   }
 
-  protected unlinkIntersections(): void {
-    if (this._intersectionsLink) {
-      this._intersectionsLink.close();
-      this._intersectionsLink = null;
+  protected unlinkTile(tileId: string): void {
+    const tileLink = this._tileLinks[tileId];
+    if (tileLink) {
+      delete this._tileLinks[tileId];
+      tileLink.downlink.close();
+      for (const intersectionId in tileLink.intersectionIds) {
+        this.setChildView(intersectionId, null);
+      }
     }
   }
+
+  protected linkTiles(): void {
+    if (!this._tilesLink) {
+      this._tilesLink = this._nodeRef.downlinkMap()
+          .laneUri("tiles")
+          .didUpdate(this.didUpdateTile.bind(this))
+          .didRemove((key: Value): void => this.unlinkTile(key.stringValue()!))
+          .open();
+    }
+  }
+
+  protected unlinkTiles(): void {
+    if (this._tilesLink) {
+      this._tilesLink.close();
+      this._tilesLink = null;
+    }
+    for (const tileId in this._tileLinks) {
+      this.unlinkTile(tileId);
+    }
+  }
+
+  /** @hidden */
+  static MaxVisibleTiles: number = 256;
 }